@@ -1,8 +1,9 @@
 package de.freiheit;
 
 import android.Manifest;
+import android.content.Context;
 import android.content.Intent;
-import android.net.Uri;
+import android.database.Cursor;
 import android.os.Bundle;
 import android.provider.ContactsContract;
 import android.view.View;
@@ -10,8 +11,11 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import de.freiheit.activityresponsedelegate.ActivityResponseDelegate;
 import de.freiheit.activityresponsedelegate.ActivityResponseCallback;
+import de.freiheit.activityresponsedelegate.BackgroundActivityResponseCallback;
+import de.freiheit.activityresponsedelegate.ReusableCallback;
 import de.freiheit.basic.BaseActivity;
 import de.freiheit.camera.CameraPreviewFragment;
 import de.freiheit.contacts.ContactsFragment;
@@ -45,7 +49,7 @@ public class MainActivity extends BaseActivity implements View.OnClickListener {
         }
     }
 
-    public static class PickContactCallback extends ActivityResponseCallback<MainActivity> {
+    public static class PickContactCallback extends BackgroundActivityResponseCallback<MainActivity, String> {
 
         private static final String EXTRA_SAMPLE = "extra_sample";
 
@@ -58,12 +62,29 @@ public class MainActivity extends BaseActivity implements View.OnClickListener {
         }
 
         @Override
-        public void onActivityResult(int requestCode, int resultCode, Intent data) {
+        public String process(@NonNull Context context, int requestCode, int resultCode, @Nullable Intent data) {
+            if (resultCode != RESULT_OK || data == null || data.getData() == null) {
+                return null;
+            }
+            // runs on a background thread
+            Cursor cursor = context.getContentResolver().query(data.getData(),
+                    new String[]{ContactsContract.CommonDataKinds.Phone.NUMBER}, null, null, null);
+            if (cursor == null) {
+                return null;
+            }
+            try {
+                return cursor.moveToFirst() ? cursor.getString(0) : null;
+            } finally {
+                cursor.close();
+            }
+        }
+
+        @Override
+        public void deliver(int requestCode, @Nullable String phoneNumber) {
             String sampleExtra = getArguments().getString(EXTRA_SAMPLE);
-            if (resultCode == RESULT_OK) {
-                Uri pickedPhoneNumber = data.getData();
-                Toast.makeText(getOwner(), sampleExtra + "\nContact: " + pickedPhoneNumber.toString(), Toast.LENGTH_SHORT).show();
-                getOwner().pickContactResultTextView.setText(pickedPhoneNumber.toString());
+            if (phoneNumber != null) {
+                Toast.makeText(getOwner(), sampleExtra + "\nContact: " + phoneNumber, Toast.LENGTH_SHORT).show();
+                getOwner().pickContactResultTextView.setText(phoneNumber);
             } else {
                 Toast.makeText(getOwner(), sampleExtra + "\nContact request canceled: ", Toast.LENGTH_SHORT).show();
             }
@@ -71,7 +92,7 @@ public class MainActivity extends BaseActivity implements View.OnClickListener {
 
     }
 
-    public static class ShowCameraCallback extends ActivityResponseCallback<MainActivity> {
+    public static class ShowCameraCallback extends ActivityResponseCallback<MainActivity> implements ReusableCallback {
 
         public static void call(MainActivity owner){
             ActivityResponseDelegate.from(owner).requestPermissions(
@@ -99,7 +120,7 @@ public class MainActivity extends BaseActivity implements View.OnClickListener {
         }
     }
 
-    public static class ShowContactsCallback extends ActivityResponseCallback<MainActivity> {
+    public static class ShowContactsCallback extends ActivityResponseCallback<MainActivity> implements ReusableCallback {
 
         public static void call(MainActivity owner){
             ActivityResponseDelegate.from(owner).requestPermissions(
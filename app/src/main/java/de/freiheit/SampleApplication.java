@@ -0,0 +1,25 @@
+package de.freiheit;
+
+import android.app.Application;
+
+import de.freiheit.activityresponsedelegate.ActivityResponseConfig;
+import de.freiheit.activityresponsedelegate.ActivityResponseDelegate;
+import de.freiheit.activityresponsedelegate.ResponseDelegateInstaller;
+
+public class SampleApplication extends Application {
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        // generated by the activityresponsedelegate compiler
+        SampleCallbackIndex index = new SampleCallbackIndex();
+        ActivityResponseDelegate.setGlobalConfig(new ActivityResponseConfig.Builder()
+                .addCallbackFactory(index)
+                .addResultBinderFactory(index)
+                // a double tap on a button starts the request once
+                .setEnableRequestDeduplication(true)
+                .build());
+        // save, restore, resume and destroy of all activities and fragments
+        ResponseDelegateInstaller.install(this);
+    }
+}
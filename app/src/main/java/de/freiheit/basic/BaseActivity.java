@@ -1,13 +1,19 @@
 package de.freiheit.basic;
 
 import android.content.Intent;
-import android.os.Bundle;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
 import de.freiheit.activityresponsedelegate.ActivityResponseDelegate;
+import de.freiheit.activityresponsedelegate.ResponseDelegateOwner;
 
-public class BaseActivity extends AppCompatActivity {
+/**
+ * the other lifecycle events are sent by the ResponseDelegateInstaller
+ */
+public class BaseActivity extends AppCompatActivity implements ResponseDelegateOwner {
+
+    private volatile ActivityResponseDelegate<?> responseDelegate;
 
     @Override
     protected void onActivityResult(int requestCode, int resultCode, Intent data) {
@@ -22,17 +28,14 @@ public class BaseActivity extends AppCompatActivity {
         ActivityResponseDelegate.from(this).onRequestPermissionsResult(requestCode, permissions, grantResults);
     }
 
+    @Nullable
     @Override
-    protected void onSaveInstanceState(Bundle outState) {
-        super.onSaveInstanceState(outState);
-        // save the delegate state in case the activity will be destroyed
-        ActivityResponseDelegate.from(this).onSaveInstanceState(outState);
+    public ActivityResponseDelegate<?> getResponseDelegate() {
+        return responseDelegate;
     }
 
     @Override
-    protected void onRestoreInstanceState(Bundle savedInstanceState) {
-        super.onRestoreInstanceState(savedInstanceState);
-        // restore delegate state
-        ActivityResponseDelegate.from(this).onRestoreInstanceState(savedInstanceState);
+    public void setResponseDelegate(@NonNull ActivityResponseDelegate<?> delegate) {
+        responseDelegate = delegate;
     }
 }
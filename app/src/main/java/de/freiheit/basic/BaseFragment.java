@@ -1,13 +1,19 @@
 package de.freiheit.basic;
 
 import android.content.Intent;
-import android.os.Bundle;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.fragment.app.Fragment;
 import de.freiheit.activityresponsedelegate.ActivityResponseDelegate;
+import de.freiheit.activityresponsedelegate.ResponseDelegateOwner;
 
-public class BaseFragment extends Fragment {
+/**
+ * the other lifecycle events are sent by the ResponseDelegateInstaller
+ */
+public class BaseFragment extends Fragment implements ResponseDelegateOwner {
+
+    private volatile ActivityResponseDelegate<?> responseDelegate;
 
     @Override
     public void onActivityResult(int requestCode, int resultCode, Intent data) {
@@ -22,15 +28,14 @@ public class BaseFragment extends Fragment {
         ActivityResponseDelegate.from(this).onRequestPermissionsResult(requestCode, permissions, grantResults);
     }
 
+    @Nullable
     @Override
-    public void onSaveInstanceState(Bundle outState) {
-        super.onSaveInstanceState(outState);
-        ActivityResponseDelegate.from(this).onSaveInstanceState(outState);
+    public ActivityResponseDelegate<?> getResponseDelegate() {
+        return responseDelegate;
     }
 
     @Override
-    public void onCreate(Bundle savedInstanceState) {
-        super.onCreate(savedInstanceState);
-        ActivityResponseDelegate.from(this).onRestoreInstanceState(savedInstanceState);
+    public void setResponseDelegate(@NonNull ActivityResponseDelegate<?> delegate) {
+        responseDelegate = delegate;
     }
 }
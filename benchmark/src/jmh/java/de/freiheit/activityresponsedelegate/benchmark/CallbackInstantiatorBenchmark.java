@@ -0,0 +1,51 @@
+package de.freiheit.activityresponsedelegate.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import de.freiheit.activityresponsedelegate.core.CallbackInstantiator;
+
+/**
+ * cost of creating a callback with the generated index compared to reflection
+ * and of reusing the instance of a reusable callback
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CallbackInstantiatorBenchmark {
+
+    @Param({"true", "false"})
+    boolean generated;
+
+    private CallbackInstantiator<Callbacks.Callback> instantiator;
+    private int index;
+
+    @Setup
+    public void setUp() {
+        instantiator = Callbacks.instantiator(generated);
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public Object newCallback() {
+        if (++index >= Callbacks.CLASSES.length) {
+            index = 0;
+        }
+        return instantiator.newInstance((Class<? extends Callbacks.Callback>) Callbacks.CLASSES[index]);
+    }
+
+    @Benchmark
+    public Object reusableCallback() {
+        Callbacks.Callback callback = instantiator.obtain(Callbacks.ShowCameraCallback.class);
+        instantiator.recycle(callback);
+        return callback;
+    }
+}
@@ -0,0 +1,76 @@
+package de.freiheit.activityresponsedelegate.benchmark;
+
+import de.freiheit.activityresponsedelegate.core.CallbackInstantiator;
+
+/**
+ * jvm stand ins for callbacks and the generated callback index
+ */
+final class Callbacks {
+
+    private Callbacks() {
+    }
+
+    abstract static class Callback {
+
+        Object owner;
+        Object arguments;
+        int handled;
+
+        void onActivityResult(int requestCode, int resultCode, Object data) {
+            handled += resultCode;
+        }
+
+        void onRequestPermissionsResult(int requestCode, String[] permissions, int[] grantResults) {
+            for (int result : grantResults) {
+                if (result != 0) {
+                    return;
+                }
+            }
+            handled++;
+        }
+    }
+
+    public static class PickContactCallback extends Callback {
+    }
+
+    /**
+     * stand in for ReusableCallback
+     */
+    interface Reusable {
+    }
+
+    public static class ShowCameraCallback extends Callback implements Reusable {
+    }
+
+    public static class ShowContactsCallback extends Callback {
+    }
+
+    static final Class<?>[] CLASSES = {PickContactCallback.class, ShowCameraCallback.class, ShowContactsCallback.class};
+
+    /**
+     * same shape as the index generated by the compiler
+     */
+    static final CallbackInstantiator.Factory<Callback> INDEX = new CallbackInstantiator.Factory<Callback>() {
+        @Override
+        public Callback newInstance(Class<?> type) {
+            switch (type.getName()) {
+                case "de.freiheit.activityresponsedelegate.benchmark.Callbacks$PickContactCallback":
+                    return new PickContactCallback();
+                case "de.freiheit.activityresponsedelegate.benchmark.Callbacks$ShowCameraCallback":
+                    return new ShowCameraCallback();
+                case "de.freiheit.activityresponsedelegate.benchmark.Callbacks$ShowContactsCallback":
+                    return new ShowContactsCallback();
+                default:
+                    return null;
+            }
+        }
+    };
+
+    @SuppressWarnings("unchecked")
+    static CallbackInstantiator<Callback> instantiator(boolean generated) {
+        CallbackInstantiator.Factory<Callback>[] factories = generated
+                ? new CallbackInstantiator.Factory[]{INDEX}
+                : new CallbackInstantiator.Factory[0];
+        return new CallbackInstantiator<>(factories, Reusable.class);
+    }
+}
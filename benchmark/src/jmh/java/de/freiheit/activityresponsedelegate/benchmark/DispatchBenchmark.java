@@ -0,0 +1,83 @@
+package de.freiheit.activityresponsedelegate.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import de.freiheit.activityresponsedelegate.core.BitSetRequestCodeAllocator;
+import de.freiheit.activityresponsedelegate.core.CallbackInstantiator;
+import de.freiheit.activityresponsedelegate.core.PendingCallbacks;
+
+/**
+ * the steps of a request and its result in the delegate:
+ * allocate a request code, store the callback class, look it up on the result,
+ * create the callback, call it and remove the entry
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DispatchBenchmark {
+
+    private static final String[] PERMISSIONS = {"android.permission.CAMERA"};
+    private static final int[] GRANTED = {0};
+
+    @Param({"1", "10", "1000"})
+    int pending;
+
+    @Param({"true", "false"})
+    boolean generated;
+
+    private PendingCallbacks<Class<? extends Callbacks.Callback>> callbacks;
+    private CallbackInstantiator<Callbacks.Callback> instantiator;
+    private Object owner = new Object();
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        instantiator = Callbacks.instantiator(generated);
+        callbacks = new PendingCallbacks<>(100);
+        callbacks.attach(new BitSetRequestCodeAllocator(100, 0x0FFF));
+        // the other pending requests of the owner
+        for (int i = 1; i < pending; i++) {
+            callbacks.put(callbacks.allocate(), (Class<? extends Callbacks.Callback>) Callbacks.CLASSES[i % Callbacks.CLASSES.length]);
+        }
+    }
+
+    @Benchmark
+    public int activityResult() {
+        int requestCode = callbacks.allocate();
+        callbacks.put(requestCode, Callbacks.PickContactCallback.class);
+
+        Callbacks.Callback callback = newCallback(requestCode);
+        callback.onActivityResult(requestCode, -1, null);
+        callbacks.remove(requestCode);
+        return callback.handled;
+    }
+
+    @Benchmark
+    public int permissionResult() {
+        int requestCode = callbacks.allocate();
+        callbacks.put(requestCode, Callbacks.ShowCameraCallback.class);
+
+        Callbacks.Callback callback = newCallback(requestCode);
+        callback.onRequestPermissionsResult(requestCode, PERMISSIONS, GRANTED);
+        callbacks.remove(requestCode);
+        int handled = callback.handled;
+        callback.owner = null;
+        instantiator.recycle(callback);
+        return handled;
+    }
+
+    private Callbacks.Callback newCallback(int requestCode) {
+        Callbacks.Callback callback = instantiator.obtain(callbacks.get(requestCode));
+        callback.owner = owner;
+        return callback;
+    }
+}
@@ -0,0 +1,76 @@
+package de.freiheit.activityresponsedelegate.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+
+import de.freiheit.activityresponsedelegate.core.OwnerRegistry;
+
+/**
+ * lookup cost of a registered owner while many other owners are alive
+ * <p>
+ * the WeakHashMap variant mirrors the lookup which has been used before the registry
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class OwnerRegistryBenchmark {
+
+    @Param({"10", "1000", "10000"})
+    int owners;
+
+    private Object[] liveOwners;
+    private OwnerRegistry<Object> registry;
+    private Map<Object, Object> weakHashMap;
+    private int index;
+
+    @Setup
+    public void setUp() {
+        liveOwners = new Object[owners];
+        registry = new OwnerRegistry<>();
+        weakHashMap = new WeakHashMap<>();
+        for (int i = 0; i < owners; i++) {
+            Object owner = new Object();
+            liveOwners[i] = owner;
+            registry.putIfAbsent(owner, new Object());
+            weakHashMap.put(owner, new Object());
+        }
+    }
+
+    private Object nextOwner() {
+        if (++index >= owners) {
+            index = 0;
+        }
+        return liveOwners[index];
+    }
+
+    @Benchmark
+    public Object registryLookup() {
+        return registry.get(nextOwner());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object registryLookupContended() {
+        return registry.get(liveOwners[(int) (Thread.currentThread().getId() % owners)]);
+    }
+
+    @Benchmark
+    public Object weakHashMapLookup() {
+        Object owner = nextOwner();
+        if (weakHashMap.containsKey(owner)) {
+            return weakHashMap.get(owner);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,124 @@
+package de.freiheit.activityresponsedelegate.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import de.freiheit.activityresponsedelegate.core.PendingTable;
+
+/**
+ * lookup of a result and the put and remove of a request with the open addressed table
+ * and with the sorted arrays the pending callbacks used before
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PendingTableBenchmark {
+
+    private final static int FIRST_REQUEST_CODE = 100;
+
+    @Param({"10", "1000"})
+    int pending;
+
+    private PendingTable<String> table;
+    private SortedTable<String> sorted;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        table = new PendingTable<>(pending + 1);
+        sorted = new SortedTable<>(pending + 1);
+        for (int i = 0; i < pending; i++) {
+            table.put(FIRST_REQUEST_CODE + i, "callback" + i);
+            sorted.put(FIRST_REQUEST_CODE + i, "callback" + i);
+        }
+    }
+
+    private int nextRequestCode() {
+        next = (next + 7) % pending;
+        return FIRST_REQUEST_CODE + next;
+    }
+
+    @Benchmark
+    public String tableGet() {
+        return table.get(nextRequestCode());
+    }
+
+    @Benchmark
+    public String sortedGet() {
+        return sorted.get(nextRequestCode());
+    }
+
+    @Benchmark
+    public String tableRemovePut() {
+        int requestCode = nextRequestCode();
+        String value = table.remove(requestCode);
+        table.put(requestCode, value);
+        return value;
+    }
+
+    @Benchmark
+    public String sortedRemovePut() {
+        int requestCode = nextRequestCode();
+        String value = sorted.remove(requestCode);
+        sorted.put(requestCode, value);
+        return value;
+    }
+
+    private static final class SortedTable<V> {
+
+        private int[] keys;
+        private Object[] values;
+        private int size;
+
+        SortedTable(int capacity) {
+            keys = new int[capacity];
+            values = new Object[capacity];
+        }
+
+        @SuppressWarnings("unchecked")
+        V get(int key) {
+            int index = Arrays.binarySearch(keys, 0, size, key);
+            return index >= 0 ? (V) values[index] : null;
+        }
+
+        void put(int key, V value) {
+            int index = Arrays.binarySearch(keys, 0, size, key);
+            if (index >= 0) {
+                values[index] = value;
+                return;
+            }
+            index = ~index;
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            System.arraycopy(keys, index, keys, index + 1, size - index);
+            System.arraycopy(values, index, values, index + 1, size - index);
+            keys[index] = key;
+            values[index] = value;
+            size++;
+        }
+
+        @SuppressWarnings("unchecked")
+        V remove(int key) {
+            int index = Arrays.binarySearch(keys, 0, size, key);
+            if (index < 0) {
+                return null;
+            }
+            V value = (V) values[index];
+            System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+            System.arraycopy(values, index + 1, values, index, size - index - 1);
+            values[--size] = null;
+            return value;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package de.freiheit.activityresponsedelegate.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import de.freiheit.activityresponsedelegate.core.BitSetRequestCodeAllocator;
+
+/**
+ * allocation and release of a request code while other codes are in use
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RequestCodeAllocatorBenchmark {
+
+    @Param({"1", "10", "1000"})
+    int pending;
+
+    private BitSetRequestCodeAllocator allocator;
+
+    @Setup
+    public void setUp() {
+        allocator = new BitSetRequestCodeAllocator(100, 0x0FFF);
+        allocator.reserve(200, 299);
+        for (int i = 0; i < pending; i++) {
+            allocator.allocate();
+        }
+    }
+
+    @Benchmark
+    public int allocateAndRelease() {
+        int requestCode = allocator.allocate();
+        allocator.release(requestCode);
+        return requestCode;
+    }
+}
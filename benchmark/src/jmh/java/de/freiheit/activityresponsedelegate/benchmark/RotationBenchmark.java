@@ -0,0 +1,73 @@
+package de.freiheit.activityresponsedelegate.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import de.freiheit.activityresponsedelegate.core.PendingCallbacks;
+import de.freiheit.activityresponsedelegate.core.RetainedStates;
+import de.freiheit.activityresponsedelegate.core.StateCodec;
+
+/**
+ * hands the pending callbacks of a delegate to the owner recreated by a rotation.
+ * the parcel variant encodes and decodes the tables like save and restore,
+ * the retained variant only passes a token through the saved state
+ * <p>
+ * the parcel itself is not available on the jvm, the parcel variant is the lower bound of the real cost
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RotationBenchmark {
+
+    @Param({"1", "10", "1000"})
+    int pending;
+
+    private PendingCallbacks<String> callbacks;
+    private final RetainedStates<PendingCallbacks<String>> retainedStates = new RetainedStates<>(60 * 1000);
+
+    @Setup
+    public void setUp() {
+        String[] callbackClasses = {
+                "de.freiheit.MainActivity$PickContactCallback",
+                "de.freiheit.MainActivity$ShowCameraCallback",
+                "de.freiheit.MainActivity$ShowContactsCallback"};
+        callbacks = new PendingCallbacks<>(100 + pending, pending);
+        for (int i = 0; i < pending; i++) {
+            callbacks.put(100 + i, callbackClasses[i % callbackClasses.length]);
+        }
+    }
+
+    @Benchmark
+    public PendingCallbacks<String> parcelRotation() {
+        StateCodec.Encoder encoder = new StateCodec.Encoder();
+        encoder.beginTable(StateCodec.TABLE_ACTIVITY_RESULT, callbacks.getCursor(), callbacks.size());
+        for (int i = 0; i < callbacks.size(); i++) {
+            encoder.addEntry(callbacks.keyAt(i), callbacks.valueAt(i), StateCodec.FLAG_CREATED_AT);
+        }
+        encoder.beginTable(StateCodec.TABLE_PERMISSION, 0, 0);
+        byte[] state = encoder.encode();
+
+        StateCodec.Decoder decoder = new StateCodec.Decoder(state);
+        int size = decoder.size(StateCodec.TABLE_ACTIVITY_RESULT);
+        PendingCallbacks<String> restored = new PendingCallbacks<>(decoder.getNextRequestCode(StateCodec.TABLE_ACTIVITY_RESULT), size);
+        for (int i = 0; i < size; i++) {
+            restored.put(decoder.getRequestCode(StateCodec.TABLE_ACTIVITY_RESULT, i),
+                    decoder.getClassName(StateCodec.TABLE_ACTIVITY_RESULT, i));
+        }
+        return restored;
+    }
+
+    @Benchmark
+    public PendingCallbacks<String> retainedRotation() {
+        long token = retainedStates.retain(callbacks);
+        return retainedStates.take(token);
+    }
+}
@@ -0,0 +1,132 @@
+package de.freiheit.activityresponsedelegate.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import de.freiheit.activityresponsedelegate.core.PendingCallbacks;
+import de.freiheit.activityresponsedelegate.core.SnapshotCache;
+import de.freiheit.activityresponsedelegate.core.StateCodec;
+
+/**
+ * repeated saves of a delegate without new requests.
+ * save writes the snapshot and the data of every entry like the delegate does, cached copies the last saved state.
+ * a parcel is not available on the jvm, a byte stream stands in for it and for its appendFrom
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SnapshotCacheBenchmark {
+
+    private static final int PARCEL_MAGIC = 0xDE1E6A7E;
+
+    /**
+     * the parts of a pending callback which are saved
+     */
+    static final class Entry {
+
+        final String className;
+        final byte[] arguments;
+        final long createdAt;
+
+        Entry(String className, byte[] arguments, long createdAt) {
+            this.className = className;
+            this.arguments = arguments;
+            this.createdAt = createdAt;
+        }
+    }
+
+    private static final StateCodec.EntryAdapter<Entry> ENTRY_ADAPTER = new StateCodec.EntryAdapter<Entry>() {
+        @Override
+        public boolean isSaved(Entry entry) {
+            return true;
+        }
+
+        @Override
+        public String getName(Entry entry) {
+            return entry.className;
+        }
+
+        @Override
+        public int getFlags(PendingCallbacks<? extends Entry> table, Entry entry) {
+            return StateCodec.FLAG_ARGUMENTS | StateCodec.FLAG_CREATED_AT;
+        }
+    };
+
+    @Param({"1", "10", "1000"})
+    int pending;
+
+    private PendingCallbacks<Entry> activityResults;
+    private PendingCallbacks<Entry> permissions;
+    private final SnapshotCache<byte[]> cache = new SnapshotCache<>();
+    private final ByteArrayOutputStream dest = new ByteArrayOutputStream();
+
+    @Setup
+    public void setUp() {
+        String[] callbackClasses = {
+                "de.freiheit.MainActivity$PickContactCallback",
+                "de.freiheit.MainActivity$ShowCameraCallback",
+                "de.freiheit.MainActivity$ShowContactsCallback"};
+        // about the size of a bundle with two short strings
+        byte[] arguments = new byte[96];
+        activityResults = new PendingCallbacks<>(100 + pending, pending);
+        for (int i = 0; i < pending; i++) {
+            activityResults.put(100 + i, new Entry(callbackClasses[i % callbackClasses.length], arguments, i));
+        }
+        permissions = new PendingCallbacks<>(0);
+    }
+
+    @Benchmark
+    public int save() throws IOException {
+        dest.reset();
+        writeSnapshot(dest);
+        return dest.size();
+    }
+
+    @Benchmark
+    public int cached() throws IOException {
+        byte[] snapshot = cache.get(activityResults, permissions, null);
+        if (snapshot == null) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            writeSnapshot(out);
+            snapshot = out.toByteArray();
+            cache.put(snapshot, activityResults, permissions, null);
+        }
+        dest.reset();
+        dest.write(snapshot, 0, snapshot.length);
+        return dest.size();
+    }
+
+    private void writeSnapshot(ByteArrayOutputStream out) throws IOException {
+        StateCodec.Encoder encoder = new StateCodec.Encoder();
+        encoder.addTable(StateCodec.TABLE_ACTIVITY_RESULT, activityResults, ENTRY_ADAPTER);
+        encoder.addTable(StateCodec.TABLE_PERMISSION, permissions, ENTRY_ADAPTER);
+        byte[] tables = encoder.encode();
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(PARCEL_MAGIC);
+        data.writeInt(tables.length);
+        data.write(tables);
+        writeEntryData(data, activityResults);
+        writeEntryData(data, permissions);
+        data.flush();
+    }
+
+    private static void writeEntryData(DataOutputStream data, PendingCallbacks<Entry> callbacks) throws IOException {
+        for (int i = 0, size = callbacks.size(); i < size; i++) {
+            Entry entry = callbacks.valueAt(i);
+            data.writeInt(entry.arguments.length);
+            data.write(entry.arguments);
+            data.writeLong(entry.createdAt);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package de.freiheit.activityresponsedelegate.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import de.freiheit.activityresponsedelegate.core.StateCodec;
+
+/**
+ * save and restore of pending callbacks with the compact format
+ * compared to the old layout which stored every callback class with java serialization
+ * <p>
+ * the parcel itself is not available on the jvm.
+ * the legacy variant runs the java serialization which Parcel#writeSerializable uses
+ * and the sizes of both formats are calculated with the parcel padding rules
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class StateCodecBenchmark {
+
+    private static final String HOLDER_CLASS_NAME = "de.freiheit.activityresponsedelegate.CallbackHolder";
+
+    @Param({"1", "10", "1000"})
+    int pending;
+
+    private Class<?>[] classes;
+    private int[] requestCodes;
+
+    @Setup
+    public void setUp() {
+        Class<?>[] callbackClasses = {PickContactCallback.class, ShowCameraCallback.class, ShowContactsCallback.class};
+        classes = new Class<?>[pending];
+        requestCodes = new int[pending];
+        for (int i = 0; i < pending; i++) {
+            classes[i] = callbackClasses[i % callbackClasses.length];
+            requestCodes[i] = 100 + i;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void printSizes() throws IOException {
+        int legacy = 4 + 4 + 4 + 4;
+        for (Class<?> clazz : classes) {
+            // key, VAL_PARCELABLE, creator name, serializable name and bytes, null bundle
+            legacy += 4 + 4 + parcelStringSize(HOLDER_CLASS_NAME) + parcelStringSize(clazz.getName())
+                    + parcelByteArraySize(serialize(clazz).length) + 4;
+        }
+        int compact = 4 + parcelByteArraySize(encode().length);
+        System.out.println();
+        System.out.println("parcel size with " + pending + " pending callbacks: legacy " + legacy + " bytes, compact " + compact + " bytes");
+    }
+
+    @Benchmark
+    public Object compactRoundTrip() {
+        StateCodec.Decoder decoder = new StateCodec.Decoder(encode());
+        String last = null;
+        for (int i = 0; i < decoder.size(StateCodec.TABLE_ACTIVITY_RESULT); i++) {
+            last = decoder.getClassName(StateCodec.TABLE_ACTIVITY_RESULT, i);
+        }
+        return last;
+    }
+
+    @Benchmark
+    public Object legacyRoundTrip() throws IOException, ClassNotFoundException {
+        Object last = null;
+        for (Class<?> clazz : classes) {
+            ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialize(clazz)));
+            last = in.readObject();
+        }
+        return last;
+    }
+
+    private byte[] encode() {
+        StateCodec.Encoder encoder = new StateCodec.Encoder();
+        encoder.beginTable(StateCodec.TABLE_ACTIVITY_RESULT, 100 + pending, pending);
+        for (int i = 0; i < pending; i++) {
+            encoder.addEntry(requestCodes[i], classes[i].getName(), 0);
+        }
+        encoder.beginTable(StateCodec.TABLE_PERMISSION, 0, 0);
+        return encoder.encode();
+    }
+
+    private static byte[] serialize(Class<?> clazz) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(clazz);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    // parcel strings are utf-16 with a length prefix and a null terminator padded to 4 bytes
+    private static int parcelStringSize(String string) {
+        return 4 + pad((string.length() + 1) * 2);
+    }
+
+    private static int parcelByteArraySize(int length) {
+        return 4 + pad(length);
+    }
+
+    private static int pad(int length) {
+        return (length + 3) & ~3;
+    }
+
+    public static class PickContactCallback {
+    }
+
+    public static class ShowCameraCallback {
+    }
+
+    public static class ShowContactsCallback {
+    }
+}
@@ -0,0 +1,359 @@
+package de.freiheit.activityresponsedelegate.compiler;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * generates a CallbackFactory which creates every ActivityResponseCallback of the compilation unit
+ * without reflection
+ * <p>
+ * for every class with OnActivityResult or OnPermissionResult methods a ResultBinder is generated
+ * next to the class. the index also creates these binders
+ * <p>
+ * the name of the generated index is passed with the processor option {@value #OPTION_INDEX}.
+ * without the option no index is generated
+ */
+public class CallbackFactoryProcessor extends AbstractProcessor {
+
+    public static final String OPTION_INDEX = "activityResponseDelegateIndex";
+
+    private static final String CALLBACK_CLASS = "de.freiheit.activityresponsedelegate.ActivityResponseCallback";
+    private static final String FACTORY_CLASS = "de.freiheit.activityresponsedelegate.CallbackFactory";
+    private static final String BINDER_CLASS = "de.freiheit.activityresponsedelegate.ResultBinder";
+    private static final String BINDER_FACTORY_CLASS = BINDER_CLASS + ".Factory";
+    private static final String ON_ACTIVITY_RESULT = "de.freiheit.activityresponsedelegate.OnActivityResult";
+    private static final String ON_PERMISSION_RESULT = "de.freiheit.activityresponsedelegate.OnPermissionResult";
+
+    // binary name -> canonical name
+    private final Map<String, String> callbacks = new TreeMap<>();
+    // binary name of the owner -> canonical name of the binder
+    private final Map<String, String> binders = new TreeMap<>();
+    private boolean written = false;
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return Collections.singleton("*");
+    }
+
+    @Override
+    public Set<String> getSupportedOptions() {
+        return Collections.singleton(OPTION_INDEX);
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        TypeElement callbackType = processingEnv.getElementUtils().getTypeElement(CALLBACK_CLASS);
+        if (callbackType == null) {
+            // the library is not on the classpath
+            return false;
+        }
+        processResultMethods(roundEnv);
+
+        String index = processingEnv.getOptions().get(OPTION_INDEX);
+        if (index == null || written) {
+            return false;
+        }
+        TypeMirror callbackMirror = processingEnv.getTypeUtils().erasure(callbackType.asType());
+        for (TypeElement type : ElementFilter.typesIn(roundEnv.getRootElements())) {
+            collect(type, callbackMirror);
+        }
+        // the index is written in the first round.
+        // callbacks in sources generated by other processors are created with reflection
+        write(index);
+        written = true;
+        // do not claim any annotations
+        return false;
+    }
+
+    private void collect(TypeElement type, TypeMirror callbackMirror) {
+        Types types = processingEnv.getTypeUtils();
+        if (type.getKind() == ElementKind.CLASS
+                && types.isSubtype(types.erasure(type.asType()), callbackMirror)
+                && isInstantiable(type)) {
+            Elements elements = processingEnv.getElementUtils();
+            callbacks.put(elements.getBinaryName(type).toString(), type.getQualifiedName().toString());
+        }
+        for (TypeElement nested : ElementFilter.typesIn(type.getEnclosedElements())) {
+            collect(nested, callbackMirror);
+        }
+    }
+
+    /**
+     * only classes which can be created from every package are part of the index.
+     * all others are still created with reflection
+     */
+    private boolean isInstantiable(TypeElement type) {
+        if (type.getModifiers().contains(Modifier.ABSTRACT)) {
+            return false;
+        }
+        Element element = type;
+        while (element instanceof TypeElement) {
+            TypeElement current = (TypeElement) element;
+            if (!current.getModifiers().contains(Modifier.PUBLIC)) {
+                return false;
+            }
+            if (current.getNestingKind() == NestingKind.MEMBER && !current.getModifiers().contains(Modifier.STATIC)) {
+                return false;
+            }
+            element = current.getEnclosingElement();
+        }
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+            if (constructor.getParameters().isEmpty()) {
+                return constructor.getModifiers().contains(Modifier.PUBLIC);
+            }
+        }
+        return false;
+    }
+
+    private void processResultMethods(RoundEnvironment roundEnv) {
+        // owner -> result methods by annotation
+        Map<TypeElement, List<ResultMethod>> owners = new LinkedHashMap<>();
+        collectResultMethods(roundEnv, ON_ACTIVITY_RESULT, owners, "int", "android.content.Intent");
+        collectResultMethods(roundEnv, ON_PERMISSION_RESULT, owners, "java.lang.String[]", "int[]");
+        for (Map.Entry<TypeElement, List<ResultMethod>> owner : owners.entrySet()) {
+            writeBinder(owner.getKey(), owner.getValue());
+        }
+    }
+
+    private void collectResultMethods(RoundEnvironment roundEnv, String annotationName,
+                                      Map<TypeElement, List<ResultMethod>> owners, String... parameterTypes) {
+        TypeElement annotation = processingEnv.getElementUtils().getTypeElement(annotationName);
+        if (annotation == null) {
+            return;
+        }
+        Messager messager = processingEnv.getMessager();
+        for (ExecutableElement method : ElementFilter.methodsIn(roundEnv.getElementsAnnotatedWith(annotation))) {
+            TypeElement owner = (TypeElement) method.getEnclosingElement();
+            if (method.getModifiers().contains(Modifier.PRIVATE) || method.getModifiers().contains(Modifier.STATIC)) {
+                messager.printMessage(Diagnostic.Kind.ERROR, "result methods must not be private or static", method);
+                continue;
+            }
+            if (!isVisibleInPackage(owner)) {
+                messager.printMessage(Diagnostic.Kind.ERROR, "the class of a result method and its enclosing classes"
+                        + " must not be private", method);
+                continue;
+            }
+            if (!hasParameters(method, parameterTypes)) {
+                messager.printMessage(Diagnostic.Kind.ERROR, "result method must have the parameters ("
+                        + join(parameterTypes) + ")", method);
+                continue;
+            }
+            String key = getKey(method, annotation);
+            List<ResultMethod> methods = owners.get(owner);
+            if (methods == null) {
+                methods = new ArrayList<>();
+                owners.put(owner, methods);
+            }
+            boolean duplicate = false;
+            for (ResultMethod other : methods) {
+                if (other.annotation.equals(annotationName) && other.key.equals(key)) {
+                    messager.printMessage(Diagnostic.Kind.ERROR, "duplicate result key \"" + key + "\"", method);
+                    duplicate = true;
+                }
+            }
+            if (!duplicate) {
+                methods.add(new ResultMethod(annotationName, key, method.getSimpleName().toString()));
+            }
+        }
+    }
+
+    /**
+     * the binder is generated in the package of the owner and has to name it
+     */
+    private static boolean isVisibleInPackage(TypeElement owner) {
+        Element element = owner;
+        while (element instanceof TypeElement) {
+            TypeElement current = (TypeElement) element;
+            if (current.getModifiers().contains(Modifier.PRIVATE)) {
+                return false;
+            }
+            element = current.getEnclosingElement();
+        }
+        return true;
+    }
+
+    private static boolean hasParameters(ExecutableElement method, String[] parameterTypes) {
+        List<? extends VariableElement> parameters = method.getParameters();
+        if (parameters.size() != parameterTypes.length) {
+            return false;
+        }
+        for (int i = 0; i < parameterTypes.length; i++) {
+            if (!parameters.get(i).asType().toString().equals(parameterTypes[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String getKey(ExecutableElement method, TypeElement annotation) {
+        for (javax.lang.model.element.AnnotationMirror mirror : method.getAnnotationMirrors()) {
+            if (mirror.getAnnotationType().asElement().equals(annotation)) {
+                for (Map.Entry<? extends ExecutableElement, ? extends javax.lang.model.element.AnnotationValue> value
+                        : mirror.getElementValues().entrySet()) {
+                    if (value.getKey().getSimpleName().contentEquals("value")) {
+                        return (String) value.getValue().getValue();
+                    }
+                }
+            }
+        }
+        throw new IllegalStateException("missing key of " + method);
+    }
+
+    private static String join(String[] strings) {
+        StringBuilder builder = new StringBuilder();
+        for (String string : strings) {
+            if (builder.length() > 0) {
+                builder.append(", ");
+            }
+            builder.append(string);
+        }
+        return builder.toString();
+    }
+
+    private void writeBinder(TypeElement owner, List<ResultMethod> methods) {
+        Elements elements = processingEnv.getElementUtils();
+        String packageName = elements.getPackageOf(owner).getQualifiedName().toString();
+        String binaryName = elements.getBinaryName(owner).toString();
+        String className = (packageName.isEmpty() ? binaryName : binaryName.substring(packageName.length() + 1))
+                .replace('$', '_') + "_ResultBinder";
+        String qualifiedName = packageName.isEmpty() ? className : packageName + "." + className;
+        String ownerName = processingEnv.getTypeUtils().erasure(owner.asType()).toString();
+
+        StringBuilder source = new StringBuilder();
+        if (!packageName.isEmpty()) {
+            source.append("package ").append(packageName).append(";\n\n");
+        }
+        source.append("/**\n")
+                .append(" * generated by ").append(getClass().getName()).append(". do not edit\n")
+                .append(" */\n")
+                .append("public final class ").append(className).append(" implements ").append(BINDER_CLASS).append(" {\n\n")
+                .append("    @Override\n")
+                .append("    public boolean onActivityResult(Object owner, String key, int resultCode, android.content.Intent data) {\n");
+        appendSwitch(source, ownerName, methods, ON_ACTIVITY_RESULT, "resultCode, data");
+        source.append("    }\n\n")
+                .append("    @Override\n")
+                .append("    public boolean onRequestPermissionsResult(Object owner, String key, String[] permissions, int[] grantResults) {\n");
+        appendSwitch(source, ownerName, methods, ON_PERMISSION_RESULT, "permissions, grantResults");
+        source.append("    }\n")
+                .append("}\n");
+
+        writeSource(qualifiedName, source.toString(), owner);
+        binders.put(binaryName, qualifiedName);
+    }
+
+    private static void appendSwitch(StringBuilder source, String ownerName, List<ResultMethod> methods,
+                                     String annotation, String arguments) {
+        source.append("        switch (key) {\n");
+        for (ResultMethod method : methods) {
+            if (method.annotation.equals(annotation)) {
+                source.append("            case \"").append(escape(method.key)).append("\":\n")
+                        .append("                ((").append(ownerName).append(") owner).").append(method.name)
+                        .append("(").append(arguments).append(");\n")
+                        .append("                return true;\n");
+            }
+        }
+        source.append("            default:\n")
+                .append("                return false;\n")
+                .append("        }\n");
+    }
+
+    private static String escape(String string) {
+        return string.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    private void write(String index) {
+        int lastDot = index.lastIndexOf('.');
+        String packageName = lastDot > 0 ? index.substring(0, lastDot) : null;
+        String className = index.substring(lastDot + 1);
+
+        StringBuilder source = new StringBuilder();
+        if (packageName != null) {
+            source.append("package ").append(packageName).append(";\n\n");
+        }
+        source.append("/**\n")
+                .append(" * generated by ").append(getClass().getName()).append(". do not edit\n")
+                .append(" */\n")
+                .append("public final class ").append(className).append(" implements ").append(FACTORY_CLASS)
+                .append(", ").append(BINDER_FACTORY_CLASS).append(" {\n\n")
+                .append("    @Override\n")
+                .append("    @SuppressWarnings(\"rawtypes\")\n")
+                .append("    public ").append(CALLBACK_CLASS).append("<?> newCallback(Class<?> callbackClass) {\n")
+                .append("        switch (callbackClass.getName()) {\n");
+        for (Map.Entry<String, String> callback : callbacks.entrySet()) {
+            source.append("            case \"").append(callback.getKey()).append("\":\n")
+                    .append("                return new ").append(callback.getValue()).append("();\n");
+        }
+        source.append("            default:\n")
+                .append("                return null;\n")
+                .append("        }\n")
+                .append("    }\n\n")
+                .append("    @Override\n")
+                .append("    public ").append(BINDER_CLASS).append(" getResultBinder(Class<?> ownerClass) {\n")
+                .append("        switch (ownerClass.getName()) {\n");
+        for (Map.Entry<String, String> binder : binders.entrySet()) {
+            source.append("            case \"").append(binder.getKey()).append("\":\n")
+                    .append("                return new ").append(binder.getValue()).append("();\n");
+        }
+        source.append("            default:\n")
+                .append("                return null;\n")
+                .append("        }\n")
+                .append("    }\n")
+                .append("}\n");
+
+        writeSource(index, source.toString());
+    }
+
+    private void writeSource(String name, String source, Element... originatingElements) {
+        try {
+            JavaFileObject file = processingEnv.getFiler().createSourceFile(name, originatingElements);
+            try (Writer writer = file.openWriter()) {
+                writer.write(source);
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "could not write " + name + ": " + e.getMessage());
+        }
+    }
+
+    private static final class ResultMethod {
+
+        final String annotation;
+        final String key;
+        final String name;
+
+        ResultMethod(String annotation, String key, String name) {
+            this.annotation = annotation;
+            this.key = key;
+            this.name = name;
+        }
+    }
+}
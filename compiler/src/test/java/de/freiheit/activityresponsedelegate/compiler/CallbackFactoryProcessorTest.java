@@ -0,0 +1,167 @@
+package de.freiheit.activityresponsedelegate.compiler;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * compiles small owners with the processor and the library classes it looks up
+ */
+public class CallbackFactoryProcessorTest {
+
+    private static final String[] LIBRARY = {
+            "package android.content; public class Intent {}",
+            "package de.freiheit.activityresponsedelegate; public abstract class ActivityResponseCallback<T> {}",
+            "package de.freiheit.activityresponsedelegate; public interface CallbackFactory {"
+                    + " ActivityResponseCallback<?> newCallback(Class<?> callbackClass); }",
+            "package de.freiheit.activityresponsedelegate; public interface ResultBinder {"
+                    + " interface Factory { ResultBinder getResultBinder(Class<?> ownerClass); }"
+                    + " boolean onActivityResult(Object owner, String key, int resultCode, android.content.Intent data);"
+                    + " boolean onRequestPermissionsResult(Object owner, String key, String[] permissions, int[] grantResults); }",
+            "package de.freiheit.activityresponsedelegate; public @interface OnActivityResult { String value(); }",
+            "package de.freiheit.activityresponsedelegate; public @interface OnPermissionResult { String value(); }",
+    };
+
+    private static final String IMPORTS = "package app;"
+            + " import android.content.Intent;"
+            + " import de.freiheit.activityresponsedelegate.OnActivityResult;"
+            + " import de.freiheit.activityresponsedelegate.OnPermissionResult;";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void generatesBinderForPackagePrivateOwner() throws IOException {
+        List<String> errors = compile(IMPORTS + " class Owner {"
+                + " @OnActivityResult(\"pick\") void onPicked(int resultCode, Intent data) {}"
+                + " @OnPermissionResult(\"pick\") protected void onCamera(String[] permissions, int[] grantResults) {}"
+                + " static class Nested { @OnActivityResult(\"pick\") void onPicked(int resultCode, Intent data) {} } }");
+
+        assertEquals(Collections.<String>emptyList(), errors);
+        assertTrue(new File(folder.getRoot(), "classes/app/Owner_ResultBinder.class").exists());
+        assertTrue(new File(folder.getRoot(), "classes/app/Owner_Nested_ResultBinder.class").exists());
+    }
+
+    @Test
+    public void rejectsPrivateAndStaticMethods() throws IOException {
+        List<String> errors = compile(IMPORTS + " class Owner {"
+                + " @OnActivityResult(\"private\") private void onPrivate(int resultCode, Intent data) {}"
+                + " @OnActivityResult(\"static\") static void onStatic(int resultCode, Intent data) {} }");
+
+        assertEquals(Arrays.asList(
+                "result methods must not be private or static",
+                "result methods must not be private or static"), errors);
+    }
+
+    @Test
+    public void rejectsWrongParameters() throws IOException {
+        List<String> errors = compile(IMPORTS + " class Owner {"
+                + " @OnActivityResult(\"pick\") void onPicked(Intent data) {}"
+                + " @OnPermissionResult(\"camera\") void onCamera(String[] permissions, int grantResult) {} }");
+
+        assertEquals(Arrays.asList(
+                "result method must have the parameters (int, android.content.Intent)",
+                "result method must have the parameters (java.lang.String[], int[])"), errors);
+    }
+
+    @Test
+    public void rejectsDuplicateKeys() throws IOException {
+        List<String> errors = compile(IMPORTS + " class Owner {"
+                + " @OnActivityResult(\"pick\") void onPicked(int resultCode, Intent data) {}"
+                + " @OnActivityResult(\"pick\") void onPickedAgain(int resultCode, Intent data) {}"
+                // the same key of the other annotation is no duplicate
+                + " @OnPermissionResult(\"pick\") void onCamera(String[] permissions, int[] grantResults) {} }");
+
+        assertEquals(Collections.singletonList("duplicate result key \"pick\""), errors);
+    }
+
+    @Test
+    public void rejectsMethodsInPrivateClasses() throws IOException {
+        String expected = "the class of a result method and its enclosing classes must not be private";
+        List<String> errors = compile(IMPORTS + " class Owner {"
+                + " private static class Hidden { @OnActivityResult(\"pick\") void onPicked(int resultCode, Intent data) {}"
+                + " public static class Nested { @OnActivityResult(\"pick\") void onPicked(int resultCode, Intent data) {} } } }");
+
+        // the generated binders would not compile
+        assertEquals(Arrays.asList(expected, expected), errors);
+    }
+
+    /**
+     * @return the messages of all errors. errors in generated sources are part of them
+     */
+    private List<String> compile(String source) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        File classes = folder.newFolder("classes");
+        File generated = folder.newFolder("generated");
+        List<JavaFileObject> sources = new ArrayList<>();
+        for (String library : LIBRARY) {
+            sources.add(new Source(library));
+        }
+        sources.add(new Source(source));
+        try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics, Locale.ROOT, null)) {
+            JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, diagnostics,
+                    Arrays.asList("-d", classes.getPath(), "-s", generated.getPath(),
+                            "-A" + CallbackFactoryProcessor.OPTION_INDEX + "=app.Index"),
+                    null, sources);
+            task.setProcessors(Collections.singletonList(new CallbackFactoryProcessor()));
+            task.call();
+        }
+        List<String> errors = new ArrayList<>();
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+            if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+                errors.add(diagnostic.getMessage(Locale.ROOT));
+            }
+        }
+        return errors;
+    }
+
+    /**
+     * a source in memory. the name of the file is taken from the package and the first type
+     */
+    private static final class Source extends SimpleJavaFileObject {
+
+        private final String content;
+
+        Source(String content) {
+            super(URI.create("string:///" + fileName(content)), Kind.SOURCE);
+            this.content = content;
+        }
+
+        private static String fileName(String content) {
+            String packageName = content.substring("package ".length(), content.indexOf(';'));
+            String[] words = content.substring(content.indexOf(';') + 1).split("[\\s<{]+");
+            for (int i = 0; i < words.length - 1; i++) {
+                if (words[i].equals("class") || words[i].equals("interface") || words[i].equals("@interface")) {
+                    return packageName.replace('.', '/') + "/" + words[i + 1] + ".java";
+                }
+            }
+            throw new IllegalArgumentException("no type in " + content);
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return content;
+        }
+    }
+}
@@ -4,6 +4,7 @@ import android.content.Intent;
 import android.os.Bundle;
 
 import androidx.annotation.NonNull;
+import androidx.fragment.app.Fragment;
 
 /**
  * callback which handles
@@ -17,6 +18,8 @@ public abstract class ActivityResponseCallback<T> {
 
     private T mOwner;
     private Bundle mArguments;
+    // set when the owner is a fragment whose requests are kept by the delegate of its activity
+    private String mFragmentKey;
 
     public void setOwner(@NonNull T owner){
         mOwner = owner;
@@ -34,9 +37,61 @@ public abstract class ActivityResponseCallback<T> {
         this.mArguments = arguments;
     }
 
-    @SuppressWarnings("unchecked")
+    /**
+     * removes the references of a {@link ReusableCallback} after the call
+     */
+    void clear() {
+        clearOwner();
+        mArguments = null;
+        mFragmentKey = null;
+    }
+
+    /**
+     * removes the owner while the callback runs in the background
+     */
+    void clearOwner() {
+        mOwner = null;
+    }
+
+    /**
+     * @return true when the callback waits for the user after the call.
+     * the delegate keeps it pending and saves it with the state
+     */
+    boolean isWaiting() {
+        return false;
+    }
+
+    /**
+     * @see FragmentResultRouter
+     */
+    String getFragmentKey() {
+        return mFragmentKey;
+    }
+
+    void setFragmentKey(String fragmentKey) {
+        mFragmentKey = fragmentKey;
+    }
+
+    /**
+     * @return the delegate which keeps the requests of the callback.
+     * the delegate of the activity for a routed request of a fragment, null when the fragment has been detached
+     */
+    ActivityResponseDelegate<?> getDelegate() {
+        Object owner = getOwner();
+        if (mFragmentKey != null && owner instanceof Fragment) {
+            owner = ((Fragment) owner).getActivity();
+        }
+        return owner != null ? ActivityResponseDelegate.fromRaw(owner) : null;
+    }
+
+    /**
+     * asks again for the permissions without a rationale. the result is passed to a new instance of this callback class
+     */
     public void requestPermissions(final @NonNull String[] permissions, final int requestCode) {
-        ActivityResponseDelegate.fromRaw(getOwner()).requestPermissions(permissions, requestCode, (Class<? extends ActivityResponseCallback<T>>) getClass(), getArguments(), false);
+        ActivityResponseDelegate<?> delegate = getDelegate();
+        if (delegate != null) {
+            delegate.requestPermissionsAgain(permissions, requestCode, this);
+        }
     }
 
     /**
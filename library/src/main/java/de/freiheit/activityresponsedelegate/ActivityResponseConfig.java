@@ -1,30 +1,545 @@
 package de.freiheit.activityresponsedelegate;
 
+import android.content.Intent;
+import android.os.AsyncTask;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+import de.freiheit.activityresponsedelegate.core.BitSetRequestCodeAllocator;
+import de.freiheit.activityresponsedelegate.core.CallbackInstantiator;
+import de.freiheit.activityresponsedelegate.core.CallbackPreloader;
+import de.freiheit.activityresponsedelegate.core.PendingCallbacks;
+import de.freiheit.activityresponsedelegate.core.RequestCodeAllocator;
+import de.freiheit.activityresponsedelegate.core.TraceSink;
+
 /**
  *
  * Created by timfreiheit on 19.11.15.
  */
 public class ActivityResponseConfig {
 
+    // use 100 as start request code
+    // try to avoid other request codes used in the app
+    public final static int DEFAULT_FIRST_ACTIVITY_RESULT_REQUEST_CODE = 100;
+    public final static int DEFAULT_LAST_ACTIVITY_RESULT_REQUEST_CODE = 0x0FFF;
+    public final static int DEFAULT_FIRST_PERMISSION_REQUEST_CODE = 0;
+    public final static int DEFAULT_LAST_PERMISSION_REQUEST_CODE = 0xFF;
+    // fragments only support request codes with 16 bits
+    private final static int MAX_REQUEST_CODE = 0xFFFF;
+    private final static int MAX_GENERATION_BITS = 4;
+
     private boolean enableDebugLogs = false;
+    private final CallbackInstantiator<ActivityResponseCallback<?>> callbackInstantiator;
+    private final CallbackPreloader<ActivityResponseCallback<?>> callbackPreloader;
+    private final boolean enableCallbackWarmUp;
+    private final boolean enableStateSnapshotCache;
+    private final boolean enableRequestCodeGenerations;
+    private final boolean enableRequestDeduplication;
+    private final ResultBinder.Factory[] resultBinderFactories;
+    // binders of the class and its super classes
+    private final ConcurrentHashMap<Class<?>, ResultBinder[]> resultBinders = new ConcurrentHashMap<>();
+    private final ArgumentStore argumentStore;
+    private final PermanentDenialStore permanentDenialStore;
+    private final boolean enablePermissionCache;
+    private final boolean enablePermissionCoalescing;
+    private final RequestCodeAllocator.Factory requestCodeAllocatorFactory;
+    private final ActivityResponseListener listener;
+    private final Executor executor;
+    private final TraceSink traceSink;
+    private final long maxPendingCallbackAgeMillis;
+    private final int maxPendingCallbacks;
+    // first and last code
+    private final int[] activityResultRequestCodes;
+    private final int[] permissionRequestCodes;
+    // pairs of first and last code
+    private final int[] reservedRequestCodes;
 
     ActivityResponseConfig(Builder builder) {
         enableDebugLogs = builder.enableDebugLogs;
+        callbackInstantiator = newCallbackInstantiator(builder.callbackFactories);
+        callbackPreloader = newCallbackPreloader(callbackInstantiator);
+        enableCallbackWarmUp = builder.enableCallbackWarmUp;
+        enableStateSnapshotCache = builder.enableStateSnapshotCache;
+        enableRequestCodeGenerations = builder.enableRequestCodeGenerations;
+        enableRequestDeduplication = builder.enableRequestDeduplication;
+        resultBinderFactories = builder.resultBinderFactories.toArray(new ResultBinder.Factory[builder.resultBinderFactories.size()]);
+        argumentStore = builder.argumentStore;
+        permanentDenialStore = builder.permanentDenialStore;
+        enablePermissionCache = builder.enablePermissionCache;
+        enablePermissionCoalescing = builder.enablePermissionCoalescing;
+        requestCodeAllocatorFactory = builder.requestCodeAllocatorFactory;
+        listener = builder.listener;
+        executor = builder.executor;
+        traceSink = builder.traceSink;
+        maxPendingCallbackAgeMillis = builder.maxPendingCallbackAgeMillis;
+        maxPendingCallbacks = builder.maxPendingCallbacks;
+        activityResultRequestCodes = builder.activityResultRequestCodes.clone();
+        permissionRequestCodes = builder.permissionRequestCodes.clone();
+        reservedRequestCodes = toArray(builder.reservedRequestCodes);
+        if (argumentStore != null) {
+            // files of states which can not be restored anymore
+            argumentStore.cleanUpOnce(getExecutor());
+        }
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
     }
 
     public boolean isDebugLogsEnabled(){
         return enableDebugLogs;
     }
 
+    CallbackInstantiator<ActivityResponseCallback<?>> getCallbackInstantiator() {
+        return callbackInstantiator;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static CallbackInstantiator<ActivityResponseCallback<?>> newCallbackInstantiator(List<CallbackFactory> callbackFactories) {
+        CallbackInstantiator.Factory<ActivityResponseCallback<?>>[] factories = new CallbackInstantiator.Factory[callbackFactories.size()];
+        for (int i = 0; i < factories.length; i++) {
+            final CallbackFactory factory = callbackFactories.get(i);
+            factories[i] = new CallbackInstantiator.Factory<ActivityResponseCallback<?>>() {
+                @Override
+                public ActivityResponseCallback<?> newInstance(Class<?> type) {
+                    return factory.newCallback(type);
+                }
+            };
+        }
+        return new CallbackInstantiator<>(factories, ReusableCallback.class);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static CallbackPreloader<ActivityResponseCallback<?>> newCallbackPreloader(CallbackInstantiator<ActivityResponseCallback<?>> instantiator) {
+        Class<ActivityResponseCallback<?>> baseType = (Class<ActivityResponseCallback<?>>) (Class<?>) ActivityResponseCallback.class;
+        return new CallbackPreloader<>(baseType, instantiator, CallbackHolder.class.getClassLoader());
+    }
+
+    CallbackPreloader<ActivityResponseCallback<?>> getCallbackPreloader() {
+        return callbackPreloader;
+    }
+
+    boolean isCallbackWarmUpEnabled() {
+        return enableCallbackWarmUp;
+    }
+
+    boolean isStateSnapshotCacheEnabled() {
+        return enableStateSnapshotCache;
+    }
+
+    boolean isRequestDeduplicationEnabled() {
+        return enableRequestDeduplication;
+    }
+
+    /**
+     * loads, initializes and creates the callback classes once on the executor
+     * so that their first result is not slowed down by the class loading.
+     * call it from {@link android.app.Application#onCreate()} with the callbacks which are expected after a restart.
+     * the constructors of the callbacks must not depend on the main thread
+     *
+     * @param callbackClassNames the binary names of the callback classes
+     * @see Builder#setEnableCallbackWarmUp(boolean)
+     */
+    public void warmUp(String... callbackClassNames) {
+        callbackPreloader.preload(Arrays.asList(callbackClassNames), getExecutor());
+    }
+
+    /**
+     * @return the counters of the warm-up. {@link CallbackPreloader.Stats#getUsedPreloadNanos()} is the time
+     * the executor spent on the classes which results have taken
+     */
+    public CallbackPreloader.Stats getWarmUpStats() {
+        return callbackPreloader.getStats();
+    }
+
+    /**
+     * @return true when a class of the owner has annotated result methods
+     */
+    boolean hasResultBinder(Class<?> ownerClass) {
+        return getResultBinders(ownerClass).length > 0;
+    }
+
+    /**
+     * @return false when no class of the owner has a method for the key
+     */
+    boolean dispatchActivityResult(Object owner, String key, int resultCode, Intent data) {
+        for (ResultBinder binder : getResultBinders(owner.getClass())) {
+            if (binder.onActivityResult(owner, key, resultCode, data)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return false when no class of the owner has a method for the key
+     */
+    boolean dispatchPermissionsResult(Object owner, String key, String[] permissions, int[] grantResults) {
+        for (ResultBinder binder : getResultBinders(owner.getClass())) {
+            if (binder.onRequestPermissionsResult(owner, key, permissions, grantResults)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private ResultBinder[] getResultBinders(Class<?> ownerClass) {
+        ResultBinder[] binders = resultBinders.get(ownerClass);
+        if (binders == null) {
+            List<ResultBinder> list = new ArrayList<>();
+            for (Class<?> type = ownerClass; type != null && type != Object.class; type = type.getSuperclass()) {
+                for (ResultBinder.Factory factory : resultBinderFactories) {
+                    ResultBinder binder = factory.getResultBinder(type);
+                    if (binder != null) {
+                        list.add(binder);
+                        break;
+                    }
+                }
+            }
+            binders = list.toArray(new ResultBinder[list.size()]);
+            resultBinders.put(ownerClass, binders);
+        }
+        return binders;
+    }
+
+    ArgumentStore getArgumentStore() {
+        return argumentStore;
+    }
+
+    PermanentDenialStore getPermanentDenialStore() {
+        return permanentDenialStore;
+    }
+
+    public boolean isPermissionCacheEnabled() {
+        return enablePermissionCache;
+    }
+
+    public boolean isPermissionCoalescingEnabled() {
+        return enablePermissionCoalescing;
+    }
+
+    ActivityResponseListener getListener() {
+        return listener;
+    }
+
+    Executor getExecutor() {
+        return executor != null ? executor : AsyncTask.THREAD_POOL_EXECUTOR;
+    }
+
+    TraceSink getTraceSink() {
+        return traceSink;
+    }
+
+    /**
+     * @return the age after which pending callbacks are evicted or 0
+     */
+    long getMaxPendingCallbackAgeMillis() {
+        return maxPendingCallbackAgeMillis;
+    }
+
+    /**
+     * @return the maximum number of pending callbacks per table and delegate
+     */
+    int getMaxPendingCallbacks() {
+        return maxPendingCallbacks;
+    }
+
+    /**
+     * stamps the activity result request codes with generations when they are enabled
+     */
+    void enableActivityResultGenerations(PendingCallbacks<?> callbacks) {
+        enableGenerations(callbacks, activityResultRequestCodes[1], MAX_REQUEST_CODE);
+    }
+
+    /**
+     * stamps the permission request codes with generations when they are enabled.
+     * the stamped codes stay below the codes of the coalescer
+     */
+    void enablePermissionGenerations(PendingCallbacks<?> callbacks) {
+        enableGenerations(callbacks, permissionRequestCodes[1],
+                enablePermissionCoalescing ? PermissionRequestCoalescer.FIRST_REQUEST_CODE - 1 : MAX_REQUEST_CODE);
+    }
+
+    private void enableGenerations(PendingCallbacks<?> callbacks, int last, int maxRequestCode) {
+        if (!enableRequestCodeGenerations) {
+            return;
+        }
+        int shift = 32 - Integer.numberOfLeadingZeros(last);
+        int bits = MAX_GENERATION_BITS;
+        while (bits > 0 && (((1 << bits) - 1) << shift | last) > maxRequestCode) {
+            bits--;
+        }
+        callbacks.enableGenerations(shift, bits);
+    }
+
+    RequestCodeAllocator newActivityResultRequestCodeAllocator() {
+        return newAllocator(activityResultRequestCodes);
+    }
+
+    RequestCodeAllocator newPermissionRequestCodeAllocator() {
+        RequestCodeAllocator allocator = newAllocator(permissionRequestCodes);
+        if (enablePermissionCoalescing) {
+            allocator.reserve(PermissionRequestCoalescer.FIRST_REQUEST_CODE, PermissionRequestCoalescer.LAST_REQUEST_CODE);
+        }
+        return allocator;
+    }
+
+    private RequestCodeAllocator newAllocator(int[] range) {
+        RequestCodeAllocator allocator = requestCodeAllocatorFactory.create(range[0], range[1]);
+        for (int i = 0; i < reservedRequestCodes.length; i += 2) {
+            allocator.reserve(reservedRequestCodes[i], reservedRequestCodes[i + 1]);
+        }
+        return allocator;
+    }
+
     public static class Builder {
 
         boolean enableDebugLogs = false;
+        final List<CallbackFactory> callbackFactories = new ArrayList<>();
+        final List<ResultBinder.Factory> resultBinderFactories = new ArrayList<>();
+        ArgumentStore argumentStore = null;
+        PermanentDenialStore permanentDenialStore = null;
+        boolean enablePermissionCache = false;
+        boolean enablePermissionCoalescing = false;
+        RequestCodeAllocator.Factory requestCodeAllocatorFactory = BitSetRequestCodeAllocator.FACTORY;
+        final int[] activityResultRequestCodes = {DEFAULT_FIRST_ACTIVITY_RESULT_REQUEST_CODE, DEFAULT_LAST_ACTIVITY_RESULT_REQUEST_CODE};
+        final int[] permissionRequestCodes = {DEFAULT_FIRST_PERMISSION_REQUEST_CODE, DEFAULT_LAST_PERMISSION_REQUEST_CODE};
+        final List<Integer> reservedRequestCodes = new ArrayList<>();
+        ActivityResponseListener listener = null;
+        Executor executor = null;
+        TraceSink traceSink = new AndroidTraceSink();
+        long maxPendingCallbackAgeMillis = 0;
+        int maxPendingCallbacks = Integer.MAX_VALUE;
+        boolean enableCallbackWarmUp = false;
+        boolean enableStateSnapshotCache = false;
+        boolean enableRequestCodeGenerations = false;
+        boolean enableRequestDeduplication = false;
 
         public Builder setEnableDebugLogs(boolean enable){
             this.enableDebugLogs = enable;
             return this;
         }
 
+        /**
+         * callbacks created by a factory do not need reflection.
+         * classes unknown to all factories are still created with their constructor without parameters
+         */
+        public Builder addCallbackFactory(CallbackFactory factory){
+            if (factory != null) {
+                this.callbackFactories.add(factory);
+            }
+            return this;
+        }
+
+        /**
+         * enables the {@link OnActivityResult} and {@link OnPermissionResult} methods.
+         * the factory is generated by the activityresponsedelegate compiler
+         */
+        public Builder addResultBinderFactory(ResultBinder.Factory factory){
+            if (factory != null) {
+                this.resultBinderFactories.add(factory);
+            }
+            return this;
+        }
+
+        /**
+         * big callback arguments are moved out of the saved instance state into this store
+         * to avoid a TransactionTooLargeException.
+         * the old files of the store are deleted on the executor when the config is built
+         */
+        public Builder setArgumentStore(ArgumentStore store){
+            this.argumentStore = store;
+            return this;
+        }
+
+        /**
+         * permissions which the user denied with "never ask again" are not requested from the system again.
+         * the callback gets the denial without leaving the app
+         */
+        public Builder setPermanentDenialStore(PermanentDenialStore store){
+            this.permanentDenialStore = store;
+            return this;
+        }
+
+        /**
+         * checks permissions through the {@link PermissionCache}
+         */
+        public Builder setEnablePermissionCache(boolean enable){
+            this.enablePermissionCache = enable;
+            return this;
+        }
+
+        /**
+         * permission requests of an activity and its fragments which are started in the same frame
+         * are merged into one system request.
+         * the activity must forward onRequestPermissionsResult to its delegate
+         */
+        public Builder setEnablePermissionCoalescing(boolean enable){
+            this.enablePermissionCoalescing = enable;
+            return this;
+        }
+
+        /**
+         * request codes which are chosen by the delegate are taken from this range
+         */
+        public Builder setActivityResultRequestCodes(int first, int last){
+            checkRange(first, last);
+            activityResultRequestCodes[0] = first;
+            activityResultRequestCodes[1] = last;
+            return this;
+        }
+
+        /**
+         * request codes which are chosen by the delegate are taken from this range
+         */
+        public Builder setPermissionRequestCodes(int first, int last){
+            checkRange(first, last);
+            permissionRequestCodes[0] = first;
+            permissionRequestCodes[1] = last;
+            return this;
+        }
+
+        /**
+         * the delegate never chooses request codes of this range.
+         * use it for request codes which are used by the app itself
+         */
+        public Builder reserveRequestCodes(int first, int last){
+            checkRange(first, last);
+            reservedRequestCodes.add(first);
+            reservedRequestCodes.add(last);
+            return this;
+        }
+
+        public Builder setRequestCodeAllocatorFactory(RequestCodeAllocator.Factory factory){
+            if (factory != null) {
+                this.requestCodeAllocatorFactory = factory;
+            }
+            return this;
+        }
+
+        /**
+         * receives events about all requests.
+         * without a listener no events are created
+         */
+        public Builder setListener(ActivityResponseListener listener){
+            this.listener = listener;
+            return this;
+        }
+
+        /**
+         * runs {@link BackgroundActivityResponseCallback#process(android.content.Context, int, int, android.content.Intent)}.
+         * defaults to {@link AsyncTask#THREAD_POOL_EXECUTOR}
+         */
+        public Builder setExecutor(Executor executor){
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * receives the sections around the creation of a delegate, save, restore, callback creation, callbacks,
+         * permission checks and rationale checks of the delegates.
+         * defaults to {@link AndroidTraceSink}
+         * <p>
+         * {@link ActivityResponseDelegate#from(android.app.Activity)} and the restore
+         * use the sink of the global config
+         *
+         * @param traceSink the sink or null to disable the sections
+         */
+        public Builder setTraceSink(TraceSink traceSink){
+            this.traceSink = traceSink != null ? traceSink : TraceSink.NONE;
+            return this;
+        }
+
+        /**
+         * pending callbacks older than this are removed when the state is saved or a new request is started.
+         * every removed callback is reported as {@link ActivityResponseListener#DROP_EVICTED}.
+         * a result which arrives later is ignored
+         *
+         * @param maxAgeMillis the maximum age or 0 to keep the callbacks until their result arrives
+         */
+        public Builder setMaxPendingCallbackAge(long maxAgeMillis){
+            if (maxAgeMillis < 0) {
+                throw new IllegalArgumentException("maxAgeMillis must not be negative");
+            }
+            this.maxPendingCallbackAgeMillis = maxAgeMillis;
+            return this;
+        }
+
+        /**
+         * the oldest pending callbacks are removed when a delegate has more pending activity results
+         * or more pending permission requests
+         */
+        public Builder setMaxPendingCallbacks(int maxPendingCallbacks){
+            if (maxPendingCallbacks < 1) {
+                throw new IllegalArgumentException("maxPendingCallbacks must be at least 1");
+            }
+            this.maxPendingCallbacks = maxPendingCallbacks;
+            return this;
+        }
+
+        /**
+         * the callback classes of a restored delegate are warmed up on the executor
+         * while the activity is recreated.
+         * their constructors must not depend on the main thread
+         *
+         * @see ActivityResponseConfig#warmUp(String...)
+         */
+        public Builder setEnableCallbackWarmUp(boolean enable){
+            this.enableCallbackWarmUp = enable;
+            return this;
+        }
+
+        /**
+         * every delegate keeps its last saved state including the arguments and copies it
+         * while no request has been started or finished since then.
+         * useful for screens which are saved often without new requests.
+         * the arguments of a pending request must not be changed after the request
+         */
+        public Builder setEnableStateSnapshotCache(boolean enable){
+            this.enableStateSnapshotCache = enable;
+            return this;
+        }
+
+        /**
+         * a request which equals a request of the same owner which is still waiting for its result is not started again.
+         * activity requests are equal when their intents are equal for {@link android.content.Intent#filterEquals(android.content.Intent)}
+         * and have the same extras,
+         * permission requests when they ask for the same permissions. both need the same callback class or result key
+         * <p>
+         * the duplicate gets the result of the first request with its own request code and arguments.
+         * only requests with a request code chosen by the delegate are deduplicated
+         */
+        public Builder setEnableRequestDeduplication(boolean enable){
+            this.enableRequestDeduplication = enable;
+            return this;
+        }
+
+        /**
+         * the request codes chosen by the delegate carry a generation in up to 4 bits above their range,
+         * for example 0x1064 and 0x2064 for the code 100 of the default range.
+         * a late result of an evicted or cancelled request is then dropped as
+         * {@link ActivityResponseListener#DROP_STALE_REQUEST_CODE} instead of reaching the request which reuses the code.
+         * the app must not use request codes above the ranges for itself
+         */
+        public Builder setEnableRequestCodeGenerations(boolean enable){
+            this.enableRequestCodeGenerations = enable;
+            return this;
+        }
+
+        private static void checkRange(int first, int last){
+            if (first < 0 || last > MAX_REQUEST_CODE || first > last) {
+                throw new IllegalArgumentException("invalid request code range " + first + ".." + last);
+            }
+        }
+
         public ActivityResponseConfig build(){
             return new ActivityResponseConfig(this);
         }
@@ -2,23 +2,35 @@ package de.freiheit.activityresponsedelegate;
 
 import android.annotation.TargetApi;
 import android.app.Activity;
+import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.util.Log;
 import android.util.SparseArray;
 
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.WeakHashMap;
+import java.util.Collections;
+import java.util.List;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.core.app.ActivityCompat;
 import androidx.fragment.app.Fragment;
+import de.freiheit.activityresponsedelegate.core.OwnerRegistry;
+import de.freiheit.activityresponsedelegate.core.PendingCallbacks;
+import de.freiheit.activityresponsedelegate.core.RetainedStates;
+import de.freiheit.activityresponsedelegate.core.SnapshotCache;
+import de.freiheit.activityresponsedelegate.core.StateCodec;
+import de.freiheit.activityresponsedelegate.core.SubmissionQueue;
+import de.freiheit.activityresponsedelegate.core.TraceSink;
 
 /**
  * the core class to start activities or ask for permissions
@@ -28,6 +40,12 @@ import androidx.fragment.app.Fragment;
  * {@link #onSaveInstanceState(Bundle)}
  * {@link #onActivityResult(int, int, Intent)} (Bundle)}
  * {@link #onRequestPermissionsResult(int, String[], int[])} (Bundle)}s
+ * {@link #onDestroy()}
+ * <p>
+ * {@link ResponseDelegateInstaller} sends all of them except the results automatically
+ * <p>
+ * requests can be started from any thread. requests of background threads are started on the main thread.
+ * all other methods must be called on the main thread
  * <p>
  * Created by timfreiheit on 21.10.15.
  */
@@ -35,10 +53,24 @@ public final class ActivityResponseDelegate<T> implements Parcelable {
 
     private final static String TAG = ActivityResponseDelegate.class.getSimpleName();
 
-    private final static String BUNDLE_KEY = ActivityResponseDelegate.class.getName() + "_BUNDLE_KEY";
-    private final static WeakHashMap<Object, ActivityResponseDelegate> cache = new WeakHashMap<>();
+    final static String BUNDLE_KEY = ActivityResponseDelegate.class.getName() + "_BUNDLE_KEY";
+    private final static String RETAINED_KEY = ActivityResponseDelegate.class.getName() + "_RETAINED_KEY";
+    private final static String MERGED_PERMISSIONS_KEY = ActivityResponseDelegate.class.getName() + "_MERGED_PERMISSIONS_KEY";
+    // the new owner is created right after the old one has been destroyed
+    private final static long RETAINED_TIMEOUT_MILLIS = 60 * 1000;
+
+    // marks the compact parcel layout
+    // the old layout starts with the next activity result request code which is never negative
+    private final static int PARCEL_MAGIC = 0xDE1E6A7E;
+    private final static OwnerRegistry<ActivityResponseDelegate> registry = new OwnerRegistry<>();
+    // pending tables which are handed over to the owner recreated by a configuration change
+    private final static RetainedStates<ActivityResponseDelegate> retainedStates = new RetainedStates<>(RETAINED_TIMEOUT_MILLIS);
+    private final static Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // the request code is chosen on the main thread
+    private final static int NEXT_REQUEST_CODE = -1;
 
-    private static ActivityResponseConfig globalConfig = new ActivityResponseConfig.Builder().build();
+    private static volatile ActivityResponseConfig globalConfig = new ActivityResponseConfig.Builder().build();
 
     public static void setGlobalConfig(ActivityResponseConfig config) {
         if (config != null) {
@@ -56,36 +88,94 @@ public final class ActivityResponseDelegate<T> implements Parcelable {
 
     @SuppressWarnings("unchecked")
     protected static <T> ActivityResponseDelegate<T> fromRaw(T owner) {
-        ActivityResponseDelegate<T> ret;
-        if (cache.containsKey(owner)) {
-            ret = cache.get(owner);
-        } else {
-            synchronized (cache) {
+        if (owner instanceof ResponseDelegateOwner) {
+            ActivityResponseDelegate<T> held = (ActivityResponseDelegate<T>) ((ResponseDelegateOwner) owner).getResponseDelegate();
+            if (held != null) {
+                return held;
+            }
+        }
+        ActivityResponseDelegate<T> ret = registry.get(owner);
+        if (ret == null) {
+            // only the creation is traced, a lookup is too short for a section
+            TraceSink trace = globalConfig.getTraceSink();
+            trace.beginSection(TraceSink.SECTION_FROM_RAW);
+            try {
+                // the registry compares owners by identity so the owner of a delegate never changes
                 ActivityResponseDelegate<T> delegate = new ActivityResponseDelegate<>();
-                cache.put(owner, delegate);
-                ret = delegate;
+                delegate.mOwner = new WeakReference<>(owner);
+                ret = registry.putIfAbsent(owner, delegate);
+            } finally {
+                trace.endSection();
             }
         }
-        ret.mOwner = new WeakReference(owner);
+        if (owner instanceof ResponseDelegateOwner) {
+            // concurrent calls get the same delegate from the registry
+            ((ResponseDelegateOwner) owner).setResponseDelegate(ret);
+        }
         return ret;
     }
 
+    /**
+     * @return the delegate of the owner or null when it has not been created yet
+     */
+    @SuppressWarnings("unchecked")
+    static ActivityResponseDelegate<?> peek(Object owner) {
+        if (owner instanceof ResponseDelegateOwner) {
+            ActivityResponseDelegate<?> held = ((ResponseDelegateOwner) owner).getResponseDelegate();
+            if (held != null) {
+                return held;
+            }
+        }
+        return registry.get(owner);
+    }
+
+    /**
+     * @return true when the saved instance state contains a delegate
+     */
+    static boolean hasSavedState(@Nullable Bundle savedInstanceState) {
+        return savedInstanceState != null
+                && (savedInstanceState.containsKey(BUNDLE_KEY) || savedInstanceState.containsKey(RETAINED_KEY));
+    }
+
     /// end static members
     ///---------------------------------------------------------------------------------------------
 
 
+    // set once before the delegate is published by the registry
     WeakReference<T> mOwner;
 
-    // use 100 as start request code
-    // try to avoid other request codes used in the app
-    private int uniqueActivityResultRequestCode = 100;
-    private int uniquePermissionRequestCode = 0;
+    // the CallbackHolder<T> of the used responses by request code. only used on the main thread
+    // the request code allocators are attached on first use because they depend on the config
+    private PendingCallbacks<CallbackHolder<T>> mActivityResultCallbacks =
+            new PendingCallbacks<>(ActivityResponseConfig.DEFAULT_FIRST_ACTIVITY_RESULT_REQUEST_CODE);
+    private PendingCallbacks<CallbackHolder<T>> mPermissionCallbacks =
+            new PendingCallbacks<>(ActivityResponseConfig.DEFAULT_FIRST_PERMISSION_REQUEST_CODE);
+    private volatile ActivityResponseConfig config;
+    // the installer and a base class may pass the same state
+    private WeakReference<Bundle> mRestoredState;
+    // set when the tables have been handed over to the recreated owner
+    private Long mRetainedToken;
+    // holds the handed over tables. it is saved with the token in case the token is not found anymore
+    private ActivityResponseDelegate<T> mRetained;
+    // created on the first save when the config enables it
+    private SnapshotCache<Parcel> mSnapshotCache;
+    // the parts of the merged permission requests of the activity by merged request code. only used on the main thread
+    private SparseArray<ArrayList<PermissionRequestCoalescer.Part>> mMergedPermissionRequests = new SparseArray<>();
 
-    // SparseArray to store the CallbackHolder<T> of the used responses
-    // declare the SparseArray with generic type Object to store it in Parcel
-    private SparseArray<Object> mActivityResultCallbacks = new SparseArray<>();
-    private SparseArray<Object> mPermissionCallbacks = new SparseArray<>();
-    private ActivityResponseConfig config;
+    // requests of background threads
+    private final SubmissionQueue<Submission<T>> submissions = new SubmissionQueue<>();
+    private final SubmissionQueue.Consumer<Submission<T>> submissionStarter = new SubmissionQueue.Consumer<Submission<T>>() {
+        @Override
+        public void accept(Submission<T> submission) {
+            startSubmission(submission);
+        }
+    };
+    private final Runnable drainSubmissions = new Runnable() {
+        @Override
+        public void run() {
+            submissions.drain(submissionStarter);
+        }
+    };
 
     public void setConfig(ActivityResponseConfig config) {
         if (config != null) {
@@ -102,14 +192,113 @@ public final class ActivityResponseDelegate<T> implements Parcelable {
 
     /**
      * stores the delegate state to the bundle
+     * <p>
+     * during a configuration change the recreated owner takes the pending callbacks from memory
+     * with a token without a parcel round trip.
+     * the callbacks are saved as well and only parcelled when the system parcels the state.
+     * they are read when the token is unknown because the process died or the timeout passed
      *
      * @param outState outState
      * @see Activity#onSaveInstanceState(Bundle)
      */
     public void onSaveInstanceState(Bundle outState) {
-        if (outState != null) {
+        if (outState == null) {
+            return;
+        }
+        if (mRetainedToken == null && isReplacedByConfigurationChange(mOwner.get())) {
+            mRetained = retainCallbacks();
+            mRetainedToken = retainedStates.retain(mRetained);
+        }
+        if (mRetainedToken != null) {
+            // the installer and a base class may save the same owner
+            outState.putLong(RETAINED_KEY, mRetainedToken);
+            outState.putParcelable(BUNDLE_KEY, mRetained);
+        } else {
             outState.putParcelable(BUNDLE_KEY, this);
         }
+        if (mMergedPermissionRequests.size() > 0) {
+            outState.putBundle(MERGED_PERMISSIONS_KEY, saveMergedPermissionRequests());
+        }
+    }
+
+    private Bundle saveMergedPermissionRequests() {
+        Bundle merged = new Bundle();
+        for (int i = 0; i < mMergedPermissionRequests.size(); i++) {
+            merged.putParcelableArrayList(String.valueOf(mMergedPermissionRequests.keyAt(i)), mMergedPermissionRequests.valueAt(i));
+        }
+        return merged;
+    }
+
+    private static SparseArray<ArrayList<PermissionRequestCoalescer.Part>> restoreMergedPermissionRequests(Bundle merged) {
+        merged.setClassLoader(PermissionRequestCoalescer.Part.class.getClassLoader());
+        SparseArray<ArrayList<PermissionRequestCoalescer.Part>> requests = new SparseArray<>();
+        for (String requestCode : merged.keySet()) {
+            ArrayList<PermissionRequestCoalescer.Part> parts = merged.getParcelableArrayList(requestCode);
+            requests.put(Integer.parseInt(requestCode), parts);
+        }
+        return requests;
+    }
+
+    /**
+     * keeps the parts of a merged permission request of the activity until its result arrives
+     */
+    void putMergedPermissionRequest(int requestCode, List<PermissionRequestCoalescer.Part> parts) {
+        mMergedPermissionRequests.put(requestCode, new ArrayList<>(parts));
+    }
+
+    boolean hasMergedPermissionRequest(int requestCode) {
+        return mMergedPermissionRequests.get(requestCode) != null;
+    }
+
+    /**
+     * @return the parts of the merged permission request or null when the request code does not belong to one
+     */
+    @Nullable
+    List<PermissionRequestCoalescer.Part> takeMergedPermissionRequest(int requestCode) {
+        List<PermissionRequestCoalescer.Part> parts = mMergedPermissionRequests.get(requestCode);
+        if (parts != null) {
+            mMergedPermissionRequests.remove(requestCode);
+        }
+        return parts;
+    }
+
+    /**
+     * a retained fragment keeps its instance and is never restored.
+     * a fragment which is not added may be restored from the back stack long after the timeout,
+     * both keep the parcel
+     */
+    private static boolean isReplacedByConfigurationChange(Object owner) {
+        Activity activity;
+        if (owner instanceof Fragment) {
+            Fragment fragment = (Fragment) owner;
+            if (fragment.getRetainInstance() || !fragment.isAdded()) {
+                return false;
+            }
+            activity = fragment.getActivity();
+        } else {
+            activity = (Activity) owner;
+        }
+        return activity != null && activity.isChangingConfigurations();
+    }
+
+    /**
+     * moves the pending callbacks into a new delegate. this delegate is not used anymore
+     */
+    private ActivityResponseDelegate<T> retainCallbacks() {
+        int maxPendingCallbacks = getConfig().getMaxPendingCallbacks();
+        evictPendingCallbacks(mActivityResultCallbacks, ActivityResponseListener.TYPE_ACTIVITY_RESULT, maxPendingCallbacks);
+        evictPendingCallbacks(mPermissionCallbacks, ActivityResponseListener.TYPE_PERMISSION, maxPendingCallbacks);
+        // the listeners of the futures belong to the old owner
+        cancelFutures(mActivityResultCallbacks);
+        cancelFutures(mPermissionCallbacks);
+
+        ActivityResponseDelegate<T> retained = new ActivityResponseDelegate<>();
+        retained.config = config;
+        retained.mActivityResultCallbacks = mActivityResultCallbacks;
+        retained.mPermissionCallbacks = mPermissionCallbacks;
+        mActivityResultCallbacks = new PendingCallbacks<>(ActivityResponseConfig.DEFAULT_FIRST_ACTIVITY_RESULT_REQUEST_CODE);
+        mPermissionCallbacks = new PendingCallbacks<>(ActivityResponseConfig.DEFAULT_FIRST_PERMISSION_REQUEST_CODE);
+        return retained;
     }
 
     /**
@@ -120,24 +309,84 @@ public final class ActivityResponseDelegate<T> implements Parcelable {
      */
     @SuppressWarnings("unchecked")
     public void onRestoreInstanceState(Bundle savedInstanceState) {
-        if (savedInstanceState != null) {
-            ActivityResponseDelegate delegate = savedInstanceState.getParcelable(BUNDLE_KEY);
+        if (savedInstanceState != null && (mRestoredState == null || mRestoredState.get() != savedInstanceState)) {
+            mRestoredState = new WeakReference<>(savedInstanceState);
+            Bundle merged = savedInstanceState.getBundle(MERGED_PERMISSIONS_KEY);
+            if (merged != null) {
+                mMergedPermissionRequests = restoreMergedPermissionRequests(merged);
+            }
+            ActivityResponseDelegate delegate = null;
+            if (savedInstanceState.containsKey(RETAINED_KEY)) {
+                // null when the process has been killed during the configuration change or the timeout passed
+                delegate = retainedStates.take(savedInstanceState.getLong(RETAINED_KEY));
+            }
+            if (delegate == null) {
+                delegate = savedInstanceState.getParcelable(BUNDLE_KEY);
+            }
             if (delegate != null) {
-                uniqueActivityResultRequestCode = delegate.uniqueActivityResultRequestCode;
-                uniquePermissionRequestCode = delegate.uniquePermissionRequestCode;
                 mActivityResultCallbacks = delegate.mActivityResultCallbacks;
                 mPermissionCallbacks = delegate.mPermissionCallbacks;
+                takeOverProcessing(mActivityResultCallbacks);
+                if (getConfig().isCallbackWarmUpEnabled()) {
+                    warmUpCallbacks();
+                }
+            }
+        }
+    }
+
+    /**
+     * results of the previous owner which are still processed in the background are delivered to this owner
+     */
+    private void takeOverProcessing(PendingCallbacks<CallbackHolder<T>> callbacks) {
+        for (int i = 0, size = callbacks.size(); i < size; i++) {
+            CallbackHolder<T> holder = callbacks.valueAt(i);
+            if (holder.getProcessingDelegate() != null) {
+                holder.setProcessingDelegate(this);
+            }
+        }
+    }
+
+    /**
+     * preloads the restored callback classes before their results arrive
+     */
+    private void warmUpCallbacks() {
+        List<String> classNames = new ArrayList<>();
+        addUnloadedClassNames(classNames, mActivityResultCallbacks);
+        addUnloadedClassNames(classNames, mPermissionCallbacks);
+        if (!classNames.isEmpty()) {
+            ActivityResponseConfig config = getConfig();
+            config.getCallbackPreloader().preload(classNames, config.getExecutor());
+        }
+    }
+
+    private static void addUnloadedClassNames(List<String> classNames, PendingCallbacks<? extends CallbackHolder<?>> callbacks) {
+        for (int i = 0, size = callbacks.size(); i < size; i++) {
+            CallbackHolder<?> holder = callbacks.valueAt(i);
+            if (!holder.isClassLoaded()) {
+                classNames.add(holder.getClassName());
             }
         }
     }
 
+    /**
+     * checks denied permissions again when the permission cache is enabled
+     * because the user may have granted them in the settings
+     *
+     * @see Activity#onResume()
+     */
+    public void onResume() {
+        if (getConfig().isPermissionCacheEnabled()) {
+            PermissionCache.getInstance().invalidateDenied();
+        }
+    }
+
     /**
      * @see ActivityResponseDelegate#startActivityForResult(Intent, int, Bundle, Class, Bundle)
      */
     public void startActivityForResult(
             Intent intent,
             final Class<? extends ActivityResponseCallback<? super T>> callback) {
-        startActivityForResult(intent, nextActivityResultRequestCode(), callback);
+        startActivityForResult(intent, NEXT_REQUEST_CODE, callback);
     }
 
     /**
@@ -146,7 +395,7 @@ public final class ActivityResponseDelegate<T> implements Parcelable {
     public void startActivityForResult(
             Intent intent,
             final Class<? extends ActivityResponseCallback<? super T>> callback, @Nullable Bundle callbackArguments) {
-        startActivityForResult(intent, nextActivityResultRequestCode(), callback, callbackArguments);
+        startActivityForResult(intent, NEXT_REQUEST_CODE, callback, callbackArguments);
     }
 
     /**
@@ -185,12 +434,62 @@ public final class ActivityResponseDelegate<T> implements Parcelable {
             Log.d(TAG, "startActivityForResult from " + mOwner + " with callback " + callback.getSimpleName());
         }
 
+        startActivityForResult(intent, requestCode, options, new CallbackHolder<T>(callback, callbackArguments));
+    }
+
+    /**
+     * starts the activity without a callback class
+     *
+     * @return the future which receives the result. it is cancelled when the owner does not exist anymore
+     * @see android.app.Activity#startActivityForResult(Intent, int)
+     */
+    public ResponseFuture<ResponseFuture.ActivityResult> startActivityForResult(Intent intent) {
+        ResponseFuture<ResponseFuture.ActivityResult> future = new ResponseFuture<>();
+        if (!startActivityForResult(intent, NEXT_REQUEST_CODE, null, CallbackHolder.<T>forFuture(future))) {
+            future.cancel();
+        }
+        return future;
+    }
+
+    /**
+     * starts the activity. the result is passed to the method of the owner
+     * which is annotated with {@link OnActivityResult} and the key
+     *
+     * @throws IllegalStateException when the config has no {@link ResultBinder} for the owner
+     * @see android.app.Activity#startActivityForResult(Intent, int)
+     */
+    public void startActivityForResult(Intent intent, @NonNull String resultKey) {
+        checkResultBinder();
+        startActivityForResult(intent, NEXT_REQUEST_CODE, null, CallbackHolder.<T>forResultKey(resultKey));
+    }
+
+    /**
+     * @return false when the owner does not exist anymore
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private boolean startActivityForResult(Intent intent, int requestCode, @Nullable Bundle options, CallbackHolder<T> callbackHolder) {
+        if (!isMainThread()) {
+            submit(new Submission<>(intent, options, null, false, requestCode, callbackHolder));
+            return true;
+        }
         T owner = mOwner.get();
         if (owner == null) {
-            return;
+            return false;
+        }
+        boolean deduplicate = requestCode == NEXT_REQUEST_CODE && getConfig().isRequestDeduplicationEnabled();
+        if (requestCode == NEXT_REQUEST_CODE) {
+            requestCode = nextActivityResultRequestCode();
         }
 
-        mActivityResultCallbacks.put(requestCode, new CallbackHolder<>(callback, callbackArguments));
+        putCallbackHolder(activityResultCallbacks(), ActivityResponseListener.TYPE_ACTIVITY_RESULT, requestCode, callbackHolder);
+        if (deduplicate) {
+            // the caller may change the intent later
+            Intent request = new Intent(intent);
+            if (linkToPrimary(activityResultCallbacks(), requestCode, request, callbackHolder)) {
+                return true;
+            }
+            callbackHolder.setInFlightRequest(request);
+        }
 
         if (owner instanceof Activity) {
             if (options != null) {
@@ -207,40 +506,253 @@ public final class ActivityResponseDelegate<T> implements Parcelable {
         } else {
             throw new ClassCastException("owner must be an Activity or Fragment");
         }
+        return true;
     }
 
     /**
-     * @see Activity#onActivityResult(int, int, Intent)
+     * starts the request of a fragment of the owner
+     *
+     * @see FragmentResultRouter
      */
     @SuppressWarnings("unchecked")
-    public void onActivityResult(int requestCode, int resultCode, Intent data) {
+    void startRoutedActivityForResult(Intent intent, CallbackHolder<?> callbackHolder) {
+        startActivityForResult(intent, NEXT_REQUEST_CODE, null, (CallbackHolder<T>) callbackHolder);
+    }
+
+    /**
+     * asks for permissions for a fragment of the owner
+     *
+     * @see FragmentResultRouter
+     */
+    @SuppressWarnings("unchecked")
+    void requestRoutedPermissions(String[] permissions, CallbackHolder<?> callbackHolder) {
+        requestPermissions(permissions, NEXT_REQUEST_CODE, (CallbackHolder<T>) callbackHolder, true);
+    }
+
+    /**
+     * asks again for the permissions of the callback without a rationale.
+     * the request of a routed callback stays with its fragment
+     */
+    void requestPermissionsAgain(String[] permissions, int requestCode, ActivityResponseCallback<?> callback) {
+        if (getConfig().isDebugLogsEnabled()) {
+            Log.d(TAG, "requestPermissions from " + mOwner + " with callback " + callback.getClass().getSimpleName() + ". Permissions: " + Arrays.asList(permissions).toString());
+        }
+        requestPermissions(permissions, requestCode, CallbackHolder.<T>forCallback(callback), false);
+    }
+
+    /**
+     * starts the activity for another result of the callback.
+     * the request of a routed callback stays with its fragment
+     */
+    void startActivityForCallback(Intent intent, ActivityResponseCallback<?> callback) {
+        if (getConfig().isDebugLogsEnabled()) {
+            Log.d(TAG, "startActivityForResult from " + mOwner + " with callback " + callback.getClass().getSimpleName());
+        }
+        startActivityForResult(intent, NEXT_REQUEST_CODE, null, CallbackHolder.<T>forCallback(callback));
+    }
+
+    /**
+     * @return the owner of the callback. for a routed request the fragment or null when it does not exist anymore
+     */
+    @SuppressWarnings("unchecked")
+    private T getCallbackOwner(@Nullable CallbackHolder<T> callbackHolder) {
         T owner = mOwner.get();
-        if (owner == null) {
+        if (owner == null || callbackHolder == null || callbackHolder.getFragmentKey() == null) {
+            return owner;
+        }
+        // the callback class accepts the fragment as owner
+        return (T) FragmentResultRouter.findFragment(owner, callbackHolder.getFragmentKey());
+    }
+
+    /**
+     * cancels the pending futures because their listeners usually reference the owner
+     *
+     * @see Activity#onDestroy()
+     */
+    public void onDestroy() {
+        cancelFutures(mActivityResultCallbacks);
+        cancelFutures(mPermissionCallbacks);
+        // the handoff belongs to this owner only
+        mRetainedToken = null;
+        mRetained = null;
+    }
+
+    private static void cancelFutures(PendingCallbacks<? extends CallbackHolder<?>> callbacks) {
+        for (int i = callbacks.size() - 1; i >= 0; i--) {
+            ResponseFuture<?> future = callbacks.valueAt(i).getFuture();
+            if (future != null) {
+                callbacks.remove(callbacks.keyAt(i));
+                future.cancel();
+            }
+        }
+    }
+
+    /**
+     * @see Activity#onActivityResult(int, int, Intent)
+     */
+    public void onActivityResult(int requestCode, int resultCode, Intent data) {
+        CallbackHolder<T> callbackHolder = mActivityResultCallbacks.get(requestCode);
+        if (callbackHolder == null || !getConfig().isRequestDeduplicationEnabled()) {
+            dispatchToActivityResultCallback(requestCode, resultCode, data);
             return;
         }
+        // a request started by the callback must not wait for this result
+        callbackHolder.setInFlightRequest(null);
+        dispatchToActivityResultCallback(requestCode, resultCode, data);
+        for (int duplicate : duplicatesOf(mActivityResultCallbacks, callbackHolder)) {
+            dispatchToActivityResultCallback(duplicate, resultCode, data);
+        }
+    }
 
-        CallbackHolder<T> callbackHolder = (CallbackHolder<T>) mActivityResultCallbacks.get(requestCode);
-        if (callbackHolder == null) {
+    @SuppressWarnings("unchecked")
+    private void dispatchToActivityResultCallback(int requestCode, int resultCode, Intent data) {
+        ActivityResponseListener listener = getConfig().getListener();
+        long dispatchAt = listener != null ? System.nanoTime() : 0;
+
+        CallbackHolder<T> callbackHolder = mActivityResultCallbacks.get(requestCode);
+        T owner = getCallbackOwner(callbackHolder);
+        if (callbackHolder != null && callbackHolder.getFuture() != null) {
+            completeFuture(activityResultCallbacks(), ActivityResponseListener.TYPE_ACTIVITY_RESULT, requestCode, callbackHolder,
+                    owner != null ? new ResponseFuture.ActivityResult(requestCode, resultCode, data) : null, dispatchAt);
             return;
         }
-        ActivityResponseCallback<T> callback = callbackHolder.newCallback(owner);
+        if (owner != null && callbackHolder != null && callbackHolder.getResultKey() != null) {
+            activityResultCallbacks().remove(requestCode);
+            TraceSink trace = getConfig().getTraceSink();
+            trace.beginSection(TraceSink.SECTION_CALLBACK);
+            boolean dispatched;
+            try {
+                dispatched = getConfig().dispatchActivityResult(owner, callbackHolder.getResultKey(), resultCode, data);
+            } finally {
+                trace.endSection();
+            }
+            notifyResultKeyDispatched(listener, ActivityResponseListener.TYPE_ACTIVITY_RESULT, requestCode, callbackHolder, dispatched, dispatchAt);
+            return;
+        }
+        if (owner == null || callbackHolder == null) {
+            if (listener != null) {
+                notifyDropped(listener, ActivityResponseListener.TYPE_ACTIVITY_RESULT, requestCode, callbackHolder,
+                        owner == null ? ActivityResponseListener.DROP_OWNER_DESTROYED : unknownReason(mActivityResultCallbacks, requestCode));
+            }
+            return;
+        }
+        ActivityResponseCallback<T> callback = callbackHolder.newCallback(owner, getConfig());
 
         if (getConfig().isDebugLogsEnabled()) {
             Log.d(TAG, "onActivityResult from " + mOwner + " with callback " + callback);
         }
 
-        if (callback != null) {
-            callback.onActivityResult(requestCode, resultCode, data);
-            mActivityResultCallbacks.remove(requestCode);
+        if (callback instanceof BackgroundActivityResponseCallback) {
+            processInBackground((BackgroundActivityResponseCallback<T, Object>) callback, callbackHolder,
+                    ((owner instanceof Fragment) ? ((Fragment) owner).getContext() : (Activity) owner).getApplicationContext(),
+                    requestCode, resultCode, data, dispatchAt);
+        } else if (callback != null) {
+            TraceSink trace = getConfig().getTraceSink();
+            trace.beginSection(TraceSink.SECTION_CALLBACK);
+            try {
+                callback.onActivityResult(requestCode, resultCode, data);
+            } finally {
+                trace.endSection();
+            }
+            callbackHolder.recycle(callback, getConfig());
+            activityResultCallbacks().remove(requestCode);
+            callbackHolder.releaseArguments(getConfig());
+            if (listener != null) {
+                listener.onResultDispatched(ActivityResponseListener.TYPE_ACTIVITY_RESULT, requestCode, callbackHolder.getClazz(),
+                        callbackHolder.getRequestedAtNanos(), dispatchAt, System.nanoTime());
+            }
+        } else if (listener != null) {
+            notifyDropped(listener, ActivityResponseListener.TYPE_ACTIVITY_RESULT, requestCode, callbackHolder,
+                    ActivityResponseListener.DROP_MISSING_CALLBACK_CLASS);
         }
     }
 
+    /**
+     * the holder stays pending until the result has been delivered.
+     * it is handed over with the tables when the owner is recreated by a configuration change
+     * and the result is delivered to the recreated owner
+     */
+    private void processInBackground(final BackgroundActivityResponseCallback<T, Object> callback,
+                                     final CallbackHolder<T> callbackHolder, final Context context,
+                                     final int requestCode, final int resultCode, final Intent data, final long dispatchAt) {
+        // the owner may be destroyed while the result is processed
+        callback.clearOwner();
+        callbackHolder.setProcessingDelegate(this);
+        // put again so that a cached snapshot which contains the holder is not reused
+        activityResultCallbacks().put(requestCode, callbackHolder);
+        final TraceSink trace = getConfig().getTraceSink();
+        getConfig().getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                final Object result;
+                trace.beginSection(TraceSink.SECTION_CALLBACK);
+                try {
+                    result = callback.process(context, requestCode, resultCode, data);
+                } finally {
+                    trace.endSection();
+                }
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callbackHolder.getProcessingDelegate().deliver(callback, callbackHolder, requestCode, result, dispatchAt);
+                    }
+                });
+            }
+        });
+    }
+
+    private void deliver(BackgroundActivityResponseCallback<T, Object> callback, CallbackHolder<T> callbackHolder,
+                         int requestCode, Object result, long dispatchAt) {
+        callbackHolder.setProcessingDelegate(null);
+        if (mActivityResultCallbacks.get(requestCode) != callbackHolder) {
+            // evicted in the meantime
+            return;
+        }
+        activityResultCallbacks().remove(requestCode);
+        callbackHolder.releaseArguments(getConfig());
+        ActivityResponseListener listener = getConfig().getListener();
+        T owner = getCallbackOwner(callbackHolder);
+        if (!isAlive(owner)) {
+            if (listener != null) {
+                notifyDropped(listener, ActivityResponseListener.TYPE_ACTIVITY_RESULT, requestCode, callbackHolder,
+                        ActivityResponseListener.DROP_OWNER_DESTROYED);
+            }
+            return;
+        }
+        callback.setOwner(owner);
+        TraceSink trace = getConfig().getTraceSink();
+        trace.beginSection(TraceSink.SECTION_CALLBACK);
+        try {
+            callback.deliver(requestCode, result);
+        } finally {
+            trace.endSection();
+        }
+        callbackHolder.recycle(callback, getConfig());
+        if (listener != null) {
+            listener.onResultDispatched(ActivityResponseListener.TYPE_ACTIVITY_RESULT, requestCode, callbackHolder.getClazz(),
+                    callbackHolder.getRequestedAtNanos(), dispatchAt, System.nanoTime());
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
+    private static boolean isAlive(Object owner) {
+        if (owner instanceof Activity) {
+            Activity activity = (Activity) owner;
+            return !activity.isFinishing()
+                    && (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR1 || !activity.isDestroyed());
+        }
+        if (owner instanceof Fragment) {
+            return ((Fragment) owner).isAdded();
+        }
+        return false;
+    }
+
     /**
      * @see ActivityResponseDelegate#requestPermissions(String[], int, Class, Bundle, boolean)
      */
     public void requestPermissions(final @NonNull String[] permissions,
                                    final Class<? extends ActivityResponseCallback<? super T>> callback) {
-        requestPermissions(permissions, nextPermissionRequestCode(), callback);
+        requestPermissions(permissions, NEXT_REQUEST_CODE, callback);
     }
 
     /**
@@ -249,7 +761,7 @@ public final class ActivityResponseDelegate<T> implements Parcelable {
     public void requestPermissions(final @NonNull String[] permissions,
                                    final Class<? extends ActivityResponseCallback<? super T>> callback,
                                    @Nullable Bundle callbackArguments) {
-        requestPermissions(permissions, nextPermissionRequestCode(), callback, callbackArguments);
+        requestPermissions(permissions, NEXT_REQUEST_CODE, callback, callbackArguments);
     }
 
     /**
@@ -287,9 +799,61 @@ public final class ActivityResponseDelegate<T> implements Parcelable {
             Log.d(TAG, "requestPermissions from " + mOwner + " with callback " + callback.getSimpleName() + ". Permissions: " + Arrays.asList(permissions).toString());
         }
 
+        requestPermissions(permissions, requestCode, new CallbackHolder<T>(callback, callbackArguments), showRational);
+    }
+
+    /**
+     * asks for the permissions without a callback class.
+     * no rationale is shown, check {@link PermissionUtils#getShowRequestPermissionRationale(Activity, String...)} before
+     *
+     * @return the future which receives the result. it is cancelled when the owner does not exist anymore
+     * @see android.app.Activity#requestPermissions(String[], int)
+     */
+    public ResponseFuture<ResponseFuture.PermissionResult> requestPermissions(final @NonNull String[] permissions) {
+        ResponseFuture<ResponseFuture.PermissionResult> future = new ResponseFuture<>();
+        if (!requestPermissions(permissions, NEXT_REQUEST_CODE, CallbackHolder.<T>forFuture(future), false)) {
+            future.cancel();
+        }
+        return future;
+    }
+
+    /**
+     * asks for the permissions. the result is passed to the method of the owner
+     * which is annotated with {@link OnPermissionResult} and the key
+     *
+     * @throws IllegalStateException when the config has no {@link ResultBinder} for the owner
+     * @see android.app.Activity#requestPermissions(String[], int)
+     */
+    public void requestPermissions(final @NonNull String[] permissions, @NonNull String resultKey) {
+        checkResultBinder();
+        requestPermissions(permissions, NEXT_REQUEST_CODE, CallbackHolder.<T>forResultKey(resultKey), false);
+    }
+
+    private void checkResultBinder() {
+        T owner = mOwner.get();
+        if (owner != null && !getConfig().hasResultBinder(owner.getClass())) {
+            throw new IllegalStateException("no ResultBinder for " + owner.getClass().getName()
+                    + ". set the annotation processor option activityResponseDelegateIndex"
+                    + " and register the index with ActivityResponseConfig.Builder#addResultBinderFactory");
+        }
+    }
+
+    /**
+     * @return false when the owner does not exist anymore
+     */
+    private boolean requestPermissions(@NonNull String[] permissions, int requestCode,
+                                       CallbackHolder<T> callbackHolder, boolean showRational) {
+        if (!isMainThread()) {
+            submit(new Submission<>(null, null, permissions, showRational, requestCode, callbackHolder));
+            return true;
+        }
         T owner = mOwner.get();
         if (owner == null) {
-            return;
+            return false;
+        }
+        boolean deduplicate = requestCode == NEXT_REQUEST_CODE && getConfig().isRequestDeduplicationEnabled();
+        if (requestCode == NEXT_REQUEST_CODE) {
+            requestCode = nextPermissionRequestCode();
         }
         Activity context;
         if (owner instanceof Activity) {
@@ -300,37 +864,69 @@ public final class ActivityResponseDelegate<T> implements Parcelable {
             throw new ClassCastException("owner must be an Activity or Fragment");
         }
 
-        mPermissionCallbacks.put(requestCode, new CallbackHolder<>(callback, callbackArguments));
+        putCallbackHolder(permissionCallbacks(), ActivityResponseListener.TYPE_PERMISSION, requestCode, callbackHolder);
+        String[] request = null;
+        if (deduplicate) {
+            request = permissions.clone();
+            Arrays.sort(request);
+            if (linkToPrimary(permissionCallbacks(), requestCode, request, callbackHolder)) {
+                return true;
+            }
+        }
 
         // check if we already have all permissions required
-        if (PermissionUtils.hasSelfPermissions(context, permissions)) {
+        if (hasSelfPermissions(context, permissions)) {
             int[] grantResults = new int[permissions.length];
             Arrays.fill(grantResults, PackageManager.PERMISSION_GRANTED);
             onRequestPermissionsResult(requestCode, permissions, grantResults);
-            return;
+            return true;
         }
 
-        String[] showRationalPermissions;
-        if (showRational && (showRationalPermissions = PermissionUtils.getShowRequestPermissionRationale(context, permissions)).length > 0) {
+        PermanentDenialStore denialStore = getConfig().getPermanentDenialStore();
+        int[] knownResults;
+        if (denialStore != null && (knownResults = getKnownResults(denialStore, context, permissions)) != null) {
+            // the system would deny the request without asking the user
+            dispatchPermissionsResult(requestCode, permissions, knownResults);
+            return true;
+        }
 
-            @SuppressWarnings("unchecked")
-            CallbackHolder<T> callbackHolder = (CallbackHolder<T>) mPermissionCallbacks.get(requestCode);
-            if (callbackHolder == null) {
-                return;
-            }
-            ActivityResponseCallback<T> callbackObject = callbackHolder.newCallback(owner);
+        String[] showRationalPermissions;
+        if (showRational && (showRationalPermissions = getShowRequestPermissionRationale(context, permissions)).length > 0) {
+            T callbackOwner = getCallbackOwner(callbackHolder);
+            ActivityResponseCallback<T> callbackObject = callbackOwner != null ? callbackHolder.newCallback(callbackOwner, getConfig()) : null;
             if (callbackObject != null) {
-                callbackObject.setOwner(owner);
-                callbackObject.showRationale(requestCode, showRationalPermissions);
-                return;
+                ActivityResponseListener listener = getConfig().getListener();
+                if (listener != null) {
+                    listener.onRationaleShown(requestCode, callbackHolder.getClazz(), System.nanoTime());
+                }
+                callbackObject.setOwner(callbackOwner);
+                // not recycled. the rationale may keep the callback until the user answers
+                TraceSink trace = getConfig().getTraceSink();
+                trace.beginSection(TraceSink.SECTION_CALLBACK);
+                try {
+                    callbackObject.showRationale(requestCode, showRationalPermissions);
+                } finally {
+                    trace.endSection();
+                }
+                return true;
             }
         }
 
-        if (owner instanceof Activity) {
+        if (request != null) {
+            callbackHolder.setInFlightRequest(request);
+        }
+        if (denialStore != null) {
+            // a denial is only permanent when the rationale disappears with this request
+            callbackHolder.setRationaleBeforeRequest(getRationalePermissions(owner, permissions));
+        }
+        if (getConfig().isPermissionCoalescingEnabled()) {
+            PermissionRequestCoalescer.forHost(context).enqueue(this, permissions, requestCode);
+        } else if (owner instanceof Activity) {
             ActivityCompat.requestPermissions((Activity) owner, permissions, requestCode);
         } else {
             ((Fragment) owner).requestPermissions(permissions, requestCode);
         }
+        return true;
     }
 
     /**
@@ -338,33 +934,443 @@ public final class ActivityResponseDelegate<T> implements Parcelable {
      */
     @SuppressWarnings("unchecked")
     public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
-        T owner = mOwner.get();
-        if (owner == null) {
+        if (getConfig().isPermissionCacheEnabled()) {
+            PermissionCache.getInstance().update(permissions, grantResults);
+        }
+        if (PermissionRequestCoalescer.dispatch(this, requestCode, permissions, grantResults)) {
+            // the parts of the merged request have been passed to their delegates
+            return;
+        }
+        PermanentDenialStore denialStore = getConfig().getPermanentDenialStore();
+        if (denialStore != null) {
+            updatePermanentDenials(denialStore, mPermissionCallbacks.get(requestCode), permissions, grantResults);
+        }
+        dispatchPermissionsResult(requestCode, permissions, grantResults);
+    }
+
+    private void dispatchPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
+        CallbackHolder<T> callbackHolder = mPermissionCallbacks.get(requestCode);
+        if (callbackHolder == null || !getConfig().isRequestDeduplicationEnabled()) {
+            dispatchToPermissionCallback(requestCode, permissions, grantResults);
             return;
         }
+        // a request started by the callback must not wait for this result
+        callbackHolder.setInFlightRequest(null);
+        dispatchToPermissionCallback(requestCode, permissions, grantResults);
+        for (int duplicate : duplicatesOf(mPermissionCallbacks, callbackHolder)) {
+            dispatchToPermissionCallback(duplicate, permissions, grantResults);
+        }
+    }
 
-        CallbackHolder<T> callbackHolder = (CallbackHolder<T>) mPermissionCallbacks.get(requestCode);
-        if (callbackHolder == null) {
+    @SuppressWarnings("unchecked")
+    private void dispatchToPermissionCallback(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
+        ActivityResponseListener listener = getConfig().getListener();
+        long dispatchAt = listener != null ? System.nanoTime() : 0;
+
+        CallbackHolder<T> callbackHolder = mPermissionCallbacks.get(requestCode);
+        T owner = getCallbackOwner(callbackHolder);
+        if (callbackHolder != null && callbackHolder.getFuture() != null) {
+            completeFuture(permissionCallbacks(), ActivityResponseListener.TYPE_PERMISSION, requestCode, callbackHolder,
+                    owner != null ? new ResponseFuture.PermissionResult(requestCode, permissions, grantResults) : null, dispatchAt);
+            return;
+        }
+        if (owner != null && callbackHolder != null && callbackHolder.getResultKey() != null) {
+            permissionCallbacks().remove(requestCode);
+            TraceSink trace = getConfig().getTraceSink();
+            trace.beginSection(TraceSink.SECTION_CALLBACK);
+            boolean dispatched;
+            try {
+                dispatched = getConfig().dispatchPermissionsResult(owner, callbackHolder.getResultKey(), permissions, grantResults);
+            } finally {
+                trace.endSection();
+            }
+            notifyResultKeyDispatched(listener, ActivityResponseListener.TYPE_PERMISSION, requestCode, callbackHolder, dispatched, dispatchAt);
             return;
         }
-        ActivityResponseCallback<T> callback = callbackHolder.newCallback(owner);
+        if (owner == null || callbackHolder == null) {
+            if (listener != null) {
+                notifyDropped(listener, ActivityResponseListener.TYPE_PERMISSION, requestCode, callbackHolder,
+                        owner == null ? ActivityResponseListener.DROP_OWNER_DESTROYED : unknownReason(mPermissionCallbacks, requestCode));
+            }
+            return;
+        }
+        ActivityResponseCallback<T> callback = callbackHolder.newCallback(owner, getConfig());
 
         if (getConfig().isDebugLogsEnabled()) {
             Log.d(TAG, "onRequestPermissionsResult from " + mOwner + " with callback " + callback + ". Permissions: " + Arrays.asList(permissions).toString());
         }
 
         if (callback != null) {
-            callback.onRequestPermissionsResult(requestCode, permissions, grantResults);
-            mPermissionCallbacks.remove(requestCode);
+            // the callback may request the permissions again with the same request code
+            permissionCallbacks().remove(requestCode);
+            TraceSink trace = getConfig().getTraceSink();
+            trace.beginSection(TraceSink.SECTION_CALLBACK);
+            try {
+                callback.onRequestPermissionsResult(requestCode, permissions, grantResults);
+            } finally {
+                trace.endSection();
+            }
+            if (callback.isWaiting() && mPermissionCallbacks.get(requestCode) == null) {
+                // the callback continues after the answer of the user, its state must survive until then
+                addPendingCallback(permissionCallbacks(), ActivityResponseListener.TYPE_PERMISSION, requestCode, callbackHolder);
+            } else {
+                callbackHolder.recycle(callback, getConfig());
+                callbackHolder.releaseArguments(getConfig());
+            }
+            if (listener != null) {
+                listener.onResultDispatched(ActivityResponseListener.TYPE_PERMISSION, requestCode, callbackHolder.getClazz(),
+                        callbackHolder.getRequestedAtNanos(), dispatchAt, System.nanoTime());
+            }
+        } else if (listener != null) {
+            notifyDropped(listener, ActivityResponseListener.TYPE_PERMISSION, requestCode, callbackHolder,
+                    ActivityResponseListener.DROP_MISSING_CALLBACK_CLASS);
+        }
+    }
+
+    /**
+     * links the holder to a pending holder which waits for the same request
+     *
+     * @return false when no pending holder waits for the request and it has to be started
+     */
+    private boolean linkToPrimary(PendingCallbacks<CallbackHolder<T>> callbacks, int requestCode,
+                                  Object request, CallbackHolder<T> holder) {
+        for (int i = 0; i < callbacks.size(); i++) {
+            CallbackHolder<T> pending = callbacks.valueAt(i);
+            if (pending.isWaitingFor(request, holder)) {
+                holder.setPrimary(pending, callbacks.keyAt(i));
+                if (getConfig().isDebugLogsEnabled()) {
+                    Log.d(TAG, "request " + requestCode + " of " + mOwner + " waits for the result of request " + callbacks.keyAt(i));
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the request codes of the holders which get the result of the primary
+     */
+    private static int[] duplicatesOf(PendingCallbacks<? extends CallbackHolder<?>> callbacks, CallbackHolder<?> primary) {
+        int[] requestCodes = new int[callbacks.size()];
+        int count = 0;
+        for (int i = 0; i < callbacks.size(); i++) {
+            if (callbacks.valueAt(i).getPrimary() == primary) {
+                requestCodes[count++] = callbacks.keyAt(i);
+            }
+        }
+        return Arrays.copyOf(requestCodes, count);
+    }
+
+    /**
+     * @return false when the primary of the holder has been removed without a result
+     */
+    private static boolean isLinked(PendingCallbacks<? extends CallbackHolder<?>> callbacks, CallbackHolder<?> holder) {
+        return holder.getPrimary() != null && callbacks.get(holder.getPrimaryRequestCode()) == holder.getPrimary();
+    }
+
+    private void putCallbackHolder(PendingCallbacks<CallbackHolder<T>> callbacks, int type, int requestCode,
+                                   CallbackHolder<T> holder) {
+        ActivityResponseListener listener = getConfig().getListener();
+        if (listener != null) {
+            holder.setRequestedAtNanos(System.nanoTime());
+            listener.onRequestStarted(type, requestCode, holder.getClazz(), holder.getRequestedAtNanos());
+        }
+        addPendingCallback(callbacks, type, requestCode, holder);
+    }
+
+    /**
+     * adds the holder without reporting a new request
+     */
+    private void addPendingCallback(PendingCallbacks<CallbackHolder<T>> callbacks, int type, int requestCode,
+                                    CallbackHolder<T> holder) {
+        long createdAt = System.currentTimeMillis();
+        holder.setCreatedAtMillis(createdAt);
+        int maxPendingCallbacks = getConfig().getMaxPendingCallbacks();
+        evictPendingCallbacks(callbacks, type, callbacks.get(requestCode) == null ? maxPendingCallbacks - 1 : maxPendingCallbacks);
+        if (callbacks.size() == 0) {
+            callbacks.setOldestCreatedAt(createdAt);
+        }
+        callbacks.put(requestCode, holder);
+    }
+
+    /**
+     * removes the callbacks which are older than the max age of the config
+     * and the oldest callbacks while there are more than maxSize
+     * <p>
+     * the table is only scanned for old callbacks when its oldest creation time has expired.
+     * the time is not updated when a callback is removed, so a scan may find nothing and updates it
+     */
+    private void evictPendingCallbacks(PendingCallbacks<CallbackHolder<T>> callbacks, int type, int maxSize) {
+        long maxAge = getConfig().getMaxPendingCallbackAgeMillis();
+        if (maxAge > 0 && callbacks.getOldestCreatedAt() < System.currentTimeMillis() - maxAge) {
+            long createdBefore = System.currentTimeMillis() - maxAge;
+            long oldest = Long.MAX_VALUE;
+            for (int i = callbacks.size() - 1; i >= 0; i--) {
+                long createdAt = callbacks.valueAt(i).getCreatedAtMillis();
+                if (createdAt < createdBefore) {
+                    evictPendingCallback(callbacks, type, callbacks.keyAt(i));
+                } else {
+                    oldest = Math.min(oldest, createdAt);
+                }
+            }
+            callbacks.setOldestCreatedAt(oldest);
+        }
+        while (callbacks.size() > maxSize) {
+            int oldest = 0;
+            for (int i = 1; i < callbacks.size(); i++) {
+                if (callbacks.valueAt(i).getCreatedAtMillis() < callbacks.valueAt(oldest).getCreatedAtMillis()) {
+                    oldest = i;
+                }
+            }
+            evictPendingCallback(callbacks, type, callbacks.keyAt(oldest));
+        }
+    }
+
+    private void evictPendingCallback(PendingCallbacks<CallbackHolder<T>> callbacks, int type, int requestCode) {
+        if (getConfig().isDebugLogsEnabled()) {
+            Log.d(TAG, "evict pending callback " + requestCode + " of " + mOwner + " with callback " + callbacks.get(requestCode).getClassName());
+        }
+        dropPendingCallback(callbacks, type, requestCode, ActivityResponseListener.DROP_EVICTED);
+    }
+
+    /**
+     * removes the pending callback of a permission request which has not been passed to the system.
+     * the requests which wait for its result are removed too
+     */
+    void dropPermissionRequest(int requestCode) {
+        CallbackHolder<T> holder = mPermissionCallbacks.get(requestCode);
+        if (holder == null) {
+            return;
+        }
+        for (int duplicate : duplicatesOf(mPermissionCallbacks, holder)) {
+            dropPendingCallback(mPermissionCallbacks, ActivityResponseListener.TYPE_PERMISSION, duplicate,
+                    ActivityResponseListener.DROP_OWNER_DESTROYED);
+        }
+        dropPendingCallback(mPermissionCallbacks, ActivityResponseListener.TYPE_PERMISSION, requestCode,
+                ActivityResponseListener.DROP_OWNER_DESTROYED);
+    }
+
+    /**
+     * removes the pending permission callback of a flow which ended without a result.
+     * the arguments identify the flow, a newer request with the same request code is kept
+     */
+    void removePermissionCallback(int requestCode, @Nullable Bundle arguments) {
+        CallbackHolder<T> holder = mPermissionCallbacks.get(requestCode);
+        if (holder == null || arguments == null || holder.getArguments() != arguments) {
+            return;
+        }
+        permissionCallbacks().remove(requestCode);
+        holder.releaseArguments(getConfig());
+    }
+
+    private void dropPendingCallback(PendingCallbacks<CallbackHolder<T>> callbacks, int type, int requestCode, int reason) {
+        CallbackHolder<T> holder = callbacks.remove(requestCode);
+        holder.releaseArguments(getConfig());
+        if (holder.getFuture() != null) {
+            holder.getFuture().cancel();
+        }
+        ActivityResponseListener listener = getConfig().getListener();
+        if (listener != null) {
+            notifyDropped(listener, type, requestCode, holder, reason);
+        }
+    }
+
+    /**
+     * completes the future or cancels it when the result is null
+     */
+    @SuppressWarnings("unchecked")
+    private void completeFuture(PendingCallbacks<CallbackHolder<T>> callbacks, int type, int requestCode,
+                                CallbackHolder<T> holder, @Nullable Object result, long dispatchAt) {
+        callbacks.remove(requestCode);
+        ResponseFuture<Object> future = (ResponseFuture<Object>) holder.getFuture();
+        if (result == null) {
+            future.cancel();
+        } else {
+            future.complete(result);
+        }
+        ActivityResponseListener listener = getConfig().getListener();
+        if (listener == null) {
+            return;
+        }
+        if (result == null) {
+            notifyDropped(listener, type, requestCode, holder, ActivityResponseListener.DROP_OWNER_DESTROYED);
+        } else {
+            listener.onResultDispatched(type, requestCode, null, holder.getRequestedAtNanos(), dispatchAt, System.nanoTime());
+        }
+    }
+
+    private static void notifyResultKeyDispatched(@Nullable ActivityResponseListener listener, int type, int requestCode,
+                                                  CallbackHolder<?> holder, boolean dispatched, long dispatchAt) {
+        if (listener == null) {
+            return;
+        }
+        if (dispatched) {
+            listener.onResultDispatched(type, requestCode, null, holder.getRequestedAtNanos(), dispatchAt, System.nanoTime());
+        } else {
+            // the method has been removed or renamed
+            notifyDropped(listener, type, requestCode, holder, ActivityResponseListener.DROP_MISSING_CALLBACK_CLASS);
+        }
+    }
+
+    private static int unknownReason(PendingCallbacks<?> callbacks, int requestCode) {
+        return callbacks.isStale(requestCode)
+                ? ActivityResponseListener.DROP_STALE_REQUEST_CODE
+                : ActivityResponseListener.DROP_UNKNOWN_REQUEST_CODE;
+    }
+
+    private static void notifyDropped(ActivityResponseListener listener, int type, int requestCode,
+                                      CallbackHolder<?> holder, int reason) {
+        listener.onCallbackDropped(type, requestCode, holder != null ? holder.getClazz() : null, reason, System.nanoTime());
+    }
+
+    /**
+     * @return the results when every missing permission is known to be permanently denied
+     */
+    @Nullable
+    private int[] getKnownResults(PermanentDenialStore denialStore, Activity context, String[] permissions) {
+        int[] results = new int[permissions.length];
+        for (int i = 0; i < permissions.length; i++) {
+            String permission = permissions[i];
+            if (hasSelfPermissions(context, new String[]{permission})) {
+                // granted somewhere else
+                denialStore.remove(permission);
+                results[i] = PackageManager.PERMISSION_GRANTED;
+            } else if (denialStore.isPermanentlyDenied(permission)) {
+                results[i] = PackageManager.PERMISSION_DENIED;
+            } else {
+                return null;
+            }
+        }
+        return results;
+    }
+
+    /**
+     * a denied permission which had a rationale before the request and has none after it
+     * has been denied with "never ask again".
+     * a denial without rationale before the request may also be a dismissed dialog
+     */
+    private void updatePermanentDenials(PermanentDenialStore denialStore, @Nullable CallbackHolder<T> callbackHolder,
+                                        String[] permissions, int[] grantResults) {
+        T owner = mOwner.get();
+        if (owner == null) {
+            return;
+        }
+        String[] rationaleBeforeRequest = callbackHolder != null ? callbackHolder.getRationaleBeforeRequest() : null;
+        List<String> hadRationale = rationaleBeforeRequest != null
+                ? Arrays.asList(rationaleBeforeRequest) : Collections.<String>emptyList();
+        TraceSink trace = getConfig().getTraceSink();
+        trace.beginSection(TraceSink.SECTION_RATIONALE);
+        try {
+            for (int i = 0; i < permissions.length && i < grantResults.length; i++) {
+                String permission = permissions[i];
+                if (grantResults[i] == PackageManager.PERMISSION_GRANTED) {
+                    denialStore.remove(permission);
+                } else if (hadRationale.contains(permission) && !shouldShowRequestPermissionRationale(owner, permission)) {
+                    denialStore.setPermanentlyDenied(permission);
+                }
+            }
+        } finally {
+            trace.endSection();
+        }
+    }
+
+    private String[] getShowRequestPermissionRationale(Activity context, String[] permissions) {
+        TraceSink trace = getConfig().getTraceSink();
+        trace.beginSection(TraceSink.SECTION_RATIONALE);
+        try {
+            return PermissionUtils.getShowRequestPermissionRationale(context, permissions);
+        } finally {
+            trace.endSection();
+        }
+    }
+
+    /**
+     * @return the permissions for which the owner can show a rationale
+     */
+    private String[] getRationalePermissions(Object owner, String[] permissions) {
+        TraceSink trace = getConfig().getTraceSink();
+        trace.beginSection(TraceSink.SECTION_RATIONALE);
+        try {
+            List<String> rationale = new ArrayList<>(permissions.length);
+            for (String permission : permissions) {
+                if (shouldShowRequestPermissionRationale(owner, permission)) {
+                    rationale.add(permission);
+                }
+            }
+            return rationale.toArray(new String[rationale.size()]);
+        } finally {
+            trace.endSection();
+        }
+    }
+
+    static boolean shouldShowRequestPermissionRationale(Object owner, String permission) {
+        if (owner instanceof Fragment) {
+            return ((Fragment) owner).shouldShowRequestPermissionRationale(permission);
+        }
+        return PermissionUtils.shouldShowRequestPermissionRationale((Activity) owner, permission);
+    }
+
+    boolean hasSelfPermissions(Activity context, String[] permissions) {
+        TraceSink trace = getConfig().getTraceSink();
+        trace.beginSection(TraceSink.SECTION_PERMISSION_CHECK);
+        try {
+            if (getConfig().isPermissionCacheEnabled()) {
+                return PermissionCache.getInstance().hasSelfPermissions(context, permissions);
+            }
+            return PermissionUtils.hasSelfPermissions(context, permissions);
+        } finally {
+            trace.endSection();
+        }
+    }
+
+    private static boolean isMainThread() {
+        return Looper.myLooper() == Looper.getMainLooper();
+    }
+
+    /**
+     * queues a request of a background thread. the requests are started in batches on the main thread
+     */
+    private void submit(Submission<T> submission) {
+        if (submissions.offer(submission)) {
+            mainHandler.post(drainSubmissions);
+        }
+    }
+
+    private void startSubmission(Submission<T> submission) {
+        boolean started;
+        if (submission.permissions != null) {
+            started = requestPermissions(submission.permissions, submission.requestCode, submission.callbackHolder, submission.showRational);
+        } else {
+            started = startActivityForResult(submission.intent, submission.requestCode, submission.options, submission.callbackHolder);
+        }
+        ResponseFuture<?> future = submission.callbackHolder.getFuture();
+        if (!started && future != null) {
+            future.cancel();
         }
     }
 
     private int nextPermissionRequestCode() {
-        return uniquePermissionRequestCode++;
+        return permissionCallbacks().allocate();
     }
 
     private int nextActivityResultRequestCode() {
-        return uniqueActivityResultRequestCode++;
+        return activityResultCallbacks().allocate();
+    }
+
+    private PendingCallbacks<CallbackHolder<T>> activityResultCallbacks() {
+        if (!mActivityResultCallbacks.isAttached()) {
+            getConfig().enableActivityResultGenerations(mActivityResultCallbacks);
+            mActivityResultCallbacks.attach(getConfig().newActivityResultRequestCodeAllocator());
+        }
+        return mActivityResultCallbacks;
+    }
+
+    private PendingCallbacks<CallbackHolder<T>> permissionCallbacks() {
+        if (!mPermissionCallbacks.isAttached()) {
+            getConfig().enablePermissionGenerations(mPermissionCallbacks);
+            mPermissionCallbacks.attach(getConfig().newPermissionRequestCodeAllocator());
+        }
+        return mPermissionCallbacks;
     }
 
 
@@ -375,24 +1381,252 @@ public final class ActivityResponseDelegate<T> implements Parcelable {
         return 0;
     }
 
-    @SuppressWarnings("unchecked")
     @Override
     public void writeToParcel(Parcel dest, int flags) {
-        dest.writeInt(uniqueActivityResultRequestCode);
-        dest.writeInt(uniquePermissionRequestCode);
-        dest.writeSparseArray(mActivityResultCallbacks);
-        dest.writeSparseArray(mPermissionCallbacks);
+        TraceSink trace = getConfig().getTraceSink();
+        trace.beginSection(TraceSink.SECTION_SAVE);
+        try {
+            writeState(dest);
+        } finally {
+            trace.endSection();
+        }
+    }
+
+    private void writeState(Parcel dest) {
+        int maxPendingCallbacks = getConfig().getMaxPendingCallbacks();
+        evictPendingCallbacks(mActivityResultCallbacks, ActivityResponseListener.TYPE_ACTIVITY_RESULT, maxPendingCallbacks);
+        evictPendingCallbacks(mPermissionCallbacks, ActivityResponseListener.TYPE_PERMISSION, maxPendingCallbacks);
+
+        ArgumentStore argumentStore = getConfig().getArgumentStore();
+        SnapshotCache<Parcel> snapshotCache = getSnapshotCache();
+        if (snapshotCache == null) {
+            writeSnapshot(dest, argumentStore);
+            return;
+        }
+        // the whole state including the arguments is copied while no request has been started or finished
+        Parcel snapshot = snapshotCache.get(mActivityResultCallbacks, mPermissionCallbacks, argumentStore);
+        if (snapshot == null) {
+            snapshot = Parcel.obtain();
+            writeSnapshot(snapshot, argumentStore);
+            recycle(snapshotCache.put(snapshot, mActivityResultCallbacks, mPermissionCallbacks, argumentStore));
+        }
+        dest.appendFrom(snapshot, 0, snapshot.dataSize());
+    }
+
+    private void writeSnapshot(Parcel dest, ArgumentStore argumentStore) {
+        StateCodec.Encoder encoder = new StateCodec.Encoder();
+        encodeTable(encoder, StateCodec.TABLE_ACTIVITY_RESULT, mActivityResultCallbacks, argumentStore);
+        encodeTable(encoder, StateCodec.TABLE_PERMISSION, mPermissionCallbacks, argumentStore);
+        dest.writeInt(PARCEL_MAGIC);
+        dest.writeByteArray(encoder.encode());
+        // the arguments, creation times and fragment keys follow in the same order as the entries
+        writeEntryData(dest, mActivityResultCallbacks);
+        writeEntryData(dest, mPermissionCallbacks);
+    }
+
+    private SnapshotCache<Parcel> getSnapshotCache() {
+        if (!getConfig().isStateSnapshotCacheEnabled()) {
+            if (mSnapshotCache != null) {
+                recycle(mSnapshotCache.clear());
+                mSnapshotCache = null;
+            }
+        } else if (mSnapshotCache == null) {
+            mSnapshotCache = new SnapshotCache<>();
+        }
+        return mSnapshotCache;
+    }
+
+    private static void recycle(@Nullable Parcel parcel) {
+        if (parcel != null) {
+            parcel.recycle();
+        }
+    }
+
+    private static void encodeTable(StateCodec.Encoder encoder, int table,
+                                    PendingCallbacks<? extends CallbackHolder<?>> callbacks, ArgumentStore argumentStore) {
+        if (argumentStore != null) {
+            for (int i = 0, size = callbacks.size(); i < size; i++) {
+                CallbackHolder<?> holder = callbacks.valueAt(i);
+                if (isSaved(holder)) {
+                    holder.offloadArguments(argumentStore);
+                }
+            }
+        }
+        encoder.addTable(table, callbacks, ENTRY_ADAPTER);
+    }
+
+    private final static StateCodec.EntryAdapter<CallbackHolder<?>> ENTRY_ADAPTER = new StateCodec.EntryAdapter<CallbackHolder<?>>() {
+        @Override
+        public boolean isSaved(CallbackHolder<?> holder) {
+            return ActivityResponseDelegate.isSaved(holder);
+        }
+
+        @Override
+        public String getName(CallbackHolder<?> holder) {
+            // a restored class is saved again without loading it
+            return holder.getResultKey() != null ? holder.getResultKey() : holder.getClassName();
+        }
+
+        @Override
+        public int getFlags(PendingCallbacks<? extends CallbackHolder<?>> table, CallbackHolder<?> holder) {
+            return entryFlags(table, holder);
+        }
+    };
+
+    /**
+     * futures can not be restored. they are cancelled with their owner.
+     * a result which is processed in the background is lost with the process
+     */
+    private static boolean isSaved(CallbackHolder<?> holder) {
+        return holder.getFuture() == null && holder.getProcessingDelegate() == null;
+    }
+
+    private static int entryFlags(PendingCallbacks<? extends CallbackHolder<?>> callbacks, CallbackHolder<?> holder) {
+        int flags = holder.getCreatedAtMillis() != 0 ? StateCodec.FLAG_CREATED_AT : 0;
+        if (isLinked(callbacks, holder)) {
+            flags |= StateCodec.FLAG_DUPLICATE;
+        }
+        if (holder.getFragmentKey() != null) {
+            flags |= StateCodec.FLAG_FRAGMENT_KEY;
+        }
+        if (holder.getResultKey() != null) {
+            flags |= StateCodec.FLAG_RESULT_KEY;
+        }
+        if (holder.getArgumentsHandle() != null) {
+            return flags | StateCodec.FLAG_ARGUMENTS_HANDLE;
+        }
+        return holder.getArguments() != null ? flags | StateCodec.FLAG_ARGUMENTS : flags;
+    }
+
+    private static void writeEntryData(Parcel dest, PendingCallbacks<? extends CallbackHolder<?>> callbacks) {
+        for (int i = 0, size = callbacks.size(); i < size; i++) {
+            CallbackHolder<?> holder = callbacks.valueAt(i);
+            if (!isSaved(holder)) {
+                continue;
+            }
+            int flags = entryFlags(callbacks, holder);
+            if ((flags & StateCodec.FLAG_ARGUMENTS_HANDLE) != 0) {
+                dest.writeString(holder.getArgumentsHandle());
+            } else if ((flags & StateCodec.FLAG_ARGUMENTS) != 0) {
+                dest.writeBundle(holder.getArguments());
+            }
+            if ((flags & StateCodec.FLAG_CREATED_AT) != 0) {
+                dest.writeLong(holder.getCreatedAtMillis());
+            }
+            if ((flags & StateCodec.FLAG_FRAGMENT_KEY) != 0) {
+                dest.writeString(holder.getFragmentKey());
+            }
+            if ((flags & StateCodec.FLAG_DUPLICATE) != 0) {
+                dest.writeInt(holder.getPrimaryRequestCode());
+            }
+        }
     }
 
-    @SuppressWarnings("unchecked")
     protected ActivityResponseDelegate<T> readFromParcel(Parcel in) {
-        uniqueActivityResultRequestCode = in.readInt();
-        uniquePermissionRequestCode = in.readInt();
-        mActivityResultCallbacks = in.readSparseArray(CallbackHolder.class.getClassLoader());
-        mPermissionCallbacks = in.readSparseArray(CallbackHolder.class.getClassLoader());
+        TraceSink trace = getConfig().getTraceSink();
+        trace.beginSection(TraceSink.SECTION_RESTORE);
+        try {
+            readState(in);
+        } finally {
+            trace.endSection();
+        }
         return this;
     }
 
+    @SuppressWarnings("unchecked")
+    private void readState(Parcel in) {
+        int first = in.readInt();
+        if (first != PARCEL_MAGIC) {
+            // state written by an older version of the library
+            int uniquePermissionRequestCode = in.readInt();
+            mActivityResultCallbacks = fromSparseArray(first, in.readSparseArray(CallbackHolder.class.getClassLoader()));
+            mPermissionCallbacks = fromSparseArray(uniquePermissionRequestCode, in.readSparseArray(CallbackHolder.class.getClassLoader()));
+            return;
+        }
+        StateCodec.Decoder decoder = new StateCodec.Decoder(in.createByteArray());
+        mActivityResultCallbacks = decodeTable(in, decoder, StateCodec.TABLE_ACTIVITY_RESULT);
+        mPermissionCallbacks = decodeTable(in, decoder, StateCodec.TABLE_PERMISSION);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> PendingCallbacks<CallbackHolder<T>> fromSparseArray(int cursor, SparseArray<Object> array) {
+        int size = array != null ? array.size() : 0;
+        PendingCallbacks<CallbackHolder<T>> callbacks = new PendingCallbacks<>(cursor, size);
+        long restoredAt = System.currentTimeMillis();
+        for (int i = 0; i < size; i++) {
+            CallbackHolder<T> holder = (CallbackHolder<T>) array.valueAt(i);
+            // the old layout has no creation time
+            holder.setCreatedAtMillis(restoredAt);
+            callbacks.put(array.keyAt(i), holder);
+        }
+        return callbacks;
+    }
+
+    /**
+     * the classes of the entries are loaded when their result arrives.
+     * the argument bundles keep their parcelled data until they are accessed
+     */
+    private static <T> PendingCallbacks<CallbackHolder<T>> decodeTable(Parcel in, StateCodec.Decoder decoder, int table) {
+        ClassLoader classLoader = CallbackHolder.class.getClassLoader();
+        int size = decoder.size(table);
+        PendingCallbacks<CallbackHolder<T>> callbacks = new PendingCallbacks<>(decoder.getNextRequestCode(table), size);
+        long restoredAt = System.currentTimeMillis();
+        for (int i = 0; i < size; i++) {
+            int flags = decoder.getFlags(table, i);
+            Bundle arguments = null;
+            String argumentsHandle = null;
+            if ((flags & StateCodec.FLAG_ARGUMENTS_HANDLE) != 0) {
+                // loaded when the callback is created
+                argumentsHandle = in.readString();
+            } else if ((flags & StateCodec.FLAG_ARGUMENTS) != 0) {
+                arguments = in.readBundle(classLoader);
+            }
+            CallbackHolder<T> holder = (flags & StateCodec.FLAG_RESULT_KEY) != 0
+                    ? CallbackHolder.<T>forResultKey(decoder.getClassName(table, i))
+                    : CallbackHolder.<T>fromClassName(decoder.getClassName(table, i), arguments, argumentsHandle);
+            holder.setCreatedAtMillis((flags & StateCodec.FLAG_CREATED_AT) != 0 ? in.readLong() : restoredAt);
+            if ((flags & StateCodec.FLAG_FRAGMENT_KEY) != 0) {
+                holder.setFragmentKey(in.readString());
+            }
+            if ((flags & StateCodec.FLAG_DUPLICATE) != 0) {
+                // linked when all entries are known
+                holder.setPrimary(null, in.readInt());
+            }
+            callbacks.put(decoder.getRequestCode(table, i), holder);
+        }
+        for (int i = 0; i < callbacks.size(); i++) {
+            CallbackHolder<T> holder = callbacks.valueAt(i);
+            if (holder.getPrimaryRequestCode() != CallbackHolder.NO_REQUEST_CODE) {
+                holder.setPrimary(callbacks.get(holder.getPrimaryRequestCode()), holder.getPrimaryRequestCode());
+            }
+        }
+        return callbacks;
+    }
+
+    /**
+     * a request of a background thread
+     */
+    private static final class Submission<T> {
+
+        final Intent intent;
+        final Bundle options;
+        // null for activity results
+        final String[] permissions;
+        final boolean showRational;
+        final int requestCode;
+        final CallbackHolder<T> callbackHolder;
+
+        Submission(Intent intent, Bundle options, String[] permissions, boolean showRational,
+                   int requestCode, CallbackHolder<T> callbackHolder) {
+            this.intent = intent;
+            this.options = options;
+            this.permissions = permissions;
+            this.showRational = showRational;
+            this.requestCode = requestCode;
+            this.callbackHolder = callbackHolder;
+        }
+    }
+
     public static final Creator<ActivityResponseDelegate> CREATOR = new Creator<ActivityResponseDelegate>() {
         @Override
         public ActivityResponseDelegate createFromParcel(Parcel in) {
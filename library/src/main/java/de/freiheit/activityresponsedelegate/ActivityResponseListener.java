@@ -0,0 +1,76 @@
+package de.freiheit.activityresponsedelegate;
+
+import androidx.annotation.Nullable;
+
+/**
+ * receives events about the requests of all delegates
+ * <p>
+ * register it with {@link ActivityResponseConfig.Builder#setListener(ActivityResponseListener)}.
+ * all timestamps are taken from {@link System#nanoTime()}.
+ * the events are called on the main thread and should return fast.
+ * the callback class is null for requests with a {@link ResponseFuture} or an annotated result method
+ */
+public abstract class ActivityResponseListener {
+
+    public final static int TYPE_ACTIVITY_RESULT = 0;
+    public final static int TYPE_PERMISSION = 1;
+
+    /**
+     * the owner of the delegate does not exist anymore
+     */
+    public final static int DROP_OWNER_DESTROYED = 0;
+    /**
+     * no callback is registered for the request code
+     */
+    public final static int DROP_UNKNOWN_REQUEST_CODE = 1;
+    /**
+     * the callback class could not be restored or the owner has no method for the result key
+     */
+    public final static int DROP_MISSING_CALLBACK_CLASS = 2;
+    /**
+     * the pending callback has been removed by the eviction policy of the config
+     * before its result arrived
+     */
+    public final static int DROP_EVICTED = 3;
+    /**
+     * the request code belongs to an older request whose code has been given to a new request.
+     * only detected with {@link ActivityResponseConfig.Builder#setEnableRequestCodeGenerations(boolean)}
+     */
+    public final static int DROP_STALE_REQUEST_CODE = 4;
+
+    /**
+     * called when a callback has been registered for a request
+     */
+    public void onRequestStarted(int type, int requestCode, Class<?> callbackClass, long startedAtNanos) {
+
+    }
+
+    /**
+     * called before the callback is asked to show a rationale
+     */
+    public void onRationaleShown(int requestCode, Class<?> callbackClass, long shownAtNanos) {
+
+    }
+
+    /**
+     * called after the callback handled the result
+     *
+     * @param startedAtNanos  time of the request or 0 when the request has been restored after the process died
+     * @param dispatchAtNanos time at which the delegate received the result
+     * @param finishedAtNanos time at which the callback returned
+     */
+    public void onResultDispatched(int type, int requestCode, Class<?> callbackClass,
+                                   long startedAtNanos, long dispatchAtNanos, long finishedAtNanos) {
+
+    }
+
+    /**
+     * called when a result could not be passed to a callback
+     *
+     * @param callbackClass the class of the callback if known
+     * @param reason        one of the DROP constants
+     */
+    public void onCallbackDropped(int type, int requestCode, @Nullable Class<?> callbackClass, int reason, long droppedAtNanos) {
+
+    }
+}
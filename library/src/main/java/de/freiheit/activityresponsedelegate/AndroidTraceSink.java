@@ -0,0 +1,21 @@
+package de.freiheit.activityresponsedelegate;
+
+import androidx.core.os.TraceCompat;
+import de.freiheit.activityresponsedelegate.core.TraceSink;
+
+/**
+ * writes the sections to the system trace with {@link android.os.Trace}.
+ * the sections are only recorded while a trace is captured
+ */
+public final class AndroidTraceSink implements TraceSink {
+
+    @Override
+    public void beginSection(String name) {
+        TraceCompat.beginSection(name);
+    }
+
+    @Override
+    public void endSection() {
+        TraceCompat.endSection();
+    }
+}
@@ -0,0 +1,160 @@
+package de.freiheit.activityresponsedelegate;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Parcel;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * moves big callback arguments out of the saved instance state into app private files
+ * <p>
+ * only a handle of the arguments is stored in the state.
+ * the arguments are read again when the callback is created.
+ * files which are older than the max age are deleted because no saved state will use them again.
+ * they are deleted once on the executor of the config which uses the store, never during a save
+ */
+public class ArgumentStore {
+
+    private final static String TAG = ArgumentStore.class.getSimpleName();
+
+    private final static String DIRECTORY = "activityresponsedelegate_arguments";
+
+    public final static int DEFAULT_THRESHOLD_BYTES = 32 * 1024;
+    public final static long DEFAULT_MAX_AGE_MILLIS = 7 * 24 * 60 * 60 * 1000L;
+
+    private final File directory;
+    private final int thresholdBytes;
+    private final long maxAgeMillis;
+    private final AtomicBoolean cleanUpScheduled = new AtomicBoolean();
+
+    public ArgumentStore(@NonNull Context context) {
+        this(context, DEFAULT_THRESHOLD_BYTES, DEFAULT_MAX_AGE_MILLIS);
+    }
+
+    /**
+     * @param thresholdBytes arguments bigger than this are stored in a file
+     * @param maxAgeMillis   files older than this are deleted
+     */
+    public ArgumentStore(@NonNull Context context, int thresholdBytes, long maxAgeMillis) {
+        this.directory = new File(context.getApplicationContext().getFilesDir(), DIRECTORY);
+        this.thresholdBytes = thresholdBytes;
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * @return the handle of the stored arguments or null when they are small enough to stay in the state
+     */
+    @Nullable
+    String offload(@NonNull Bundle arguments) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeBundle(arguments);
+            if (parcel.dataSize() <= thresholdBytes) {
+                return null;
+            }
+            byte[] data = parcel.marshall();
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                return null;
+            }
+            String handle = UUID.randomUUID().toString();
+            File temp = new File(directory, handle + ".tmp");
+            // no sync, this runs in onSaveInstanceState. a torn file fails to load and the callback gets no arguments
+            FileOutputStream out = new FileOutputStream(temp);
+            try {
+                out.write(data);
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(new File(directory, handle))) {
+                temp.delete();
+                return null;
+            }
+            return handle;
+        } catch (IOException | RuntimeException e) {
+            // arguments with binders or file descriptors can not be marshalled
+            Log.w(TAG, "could not store arguments", e);
+            return null;
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    /**
+     * @return the arguments of the handle or null when the file does not exist anymore
+     */
+    @Nullable
+    Bundle load(@NonNull String handle) {
+        File file = new File(directory, handle);
+        if (!file.isFile()) {
+            return null;
+        }
+        Parcel parcel = Parcel.obtain();
+        try {
+            FileInputStream in = new FileInputStream(file);
+            byte[] data = new byte[(int) file.length()];
+            try {
+                int read = 0;
+                while (read < data.length) {
+                    int count = in.read(data, read, data.length - read);
+                    if (count < 0) {
+                        throw new IOException("unexpected end of " + handle);
+                    }
+                    read += count;
+                }
+            } finally {
+                in.close();
+            }
+            parcel.unmarshall(data, 0, data.length);
+            parcel.setDataPosition(0);
+            return parcel.readBundle(ArgumentStore.class.getClassLoader());
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "could not load arguments " + handle, e);
+            return null;
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    void remove(@NonNull String handle) {
+        new File(directory, handle).delete();
+    }
+
+    /**
+     * deletes the files which are older than the max age on the executor. only the first call has an effect
+     */
+    void cleanUpOnce(Executor executor) {
+        if (!cleanUpScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                cleanUp();
+            }
+        });
+    }
+
+    private void cleanUp() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        long deadline = System.currentTimeMillis() - maxAgeMillis;
+        for (File file : files) {
+            if (file.lastModified() < deadline) {
+                file.delete();
+            }
+        }
+    }
+}
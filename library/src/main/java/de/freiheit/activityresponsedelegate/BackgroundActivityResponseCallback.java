@@ -0,0 +1,45 @@
+package de.freiheit.activityresponsedelegate;
+
+import android.content.Context;
+import android.content.Intent;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+/**
+ * callback which handles the activity result in two phases
+ * <p>
+ * {@link #process(Context, int, int, Intent)} runs on the executor of the {@link ActivityResponseConfig}
+ * and may query a ContentResolver or decode data.
+ * {@link #deliver(int, Object)} gets its result on the main thread.
+ * the owner is only set for the delivery. when the owner has been recreated by a configuration change
+ * in the meantime the result is delivered to the recreated owner, when it has been finished the result is dropped
+ * <p>
+ * the delegate passes the result to these two methods instead of {@link #onActivityResult(int, int, Intent)}
+ */
+public abstract class BackgroundActivityResponseCallback<T, R> extends ActivityResponseCallback<T> {
+
+    /**
+     * called on a background thread. {@link #getOwner()} is null
+     *
+     * @param context the application context
+     */
+    @WorkerThread
+    @Nullable
+    public abstract R process(@NonNull Context context, int requestCode, int resultCode, @Nullable Intent data);
+
+    /**
+     * called on the main thread with the result of {@link #process(Context, int, int, Intent)}
+     */
+    @MainThread
+    public abstract void deliver(int requestCode, @Nullable R result);
+
+    /**
+     * not called by the delegate. the result is passed to {@link #process(Context, int, int, Intent)}
+     */
+    @Override
+    public final void onActivityResult(int requestCode, int resultCode, Intent data) {
+    }
+}
@@ -0,0 +1,20 @@
+package de.freiheit.activityresponsedelegate;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * creates callbacks without reflection
+ * <p>
+ * an implementation is generated by the activityresponsedelegate compiler
+ * when the annotation processor option {@code activityResponseDelegateIndex} is set.
+ * register it with {@link ActivityResponseConfig.Builder#addCallbackFactory(CallbackFactory)}
+ */
+public interface CallbackFactory {
+
+    /**
+     * @return a new instance of the callback class or null if this factory does not know the class
+     */
+    @Nullable
+    ActivityResponseCallback<?> newCallback(@NonNull Class<?> callbackClass);
+}
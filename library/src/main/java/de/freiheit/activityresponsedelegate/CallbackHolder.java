@@ -1,51 +1,347 @@
 package de.freiheit.activityresponsedelegate;
 
+import android.content.Intent;
 import android.os.Bundle;
 import android.os.Parcel;
 import android.os.Parcelable;
 
+import java.util.Arrays;
+
+import de.freiheit.activityresponsedelegate.core.CallbackInstantiator;
+import de.freiheit.activityresponsedelegate.core.TraceSink;
+
 /**
  * holds are important information about the callbacks
  * Created by timfreiheit on 26.11.15.
  */
 class CallbackHolder<T> implements Parcelable{
 
+    final static int NO_REQUEST_CODE = -1;
+
     private Class<? extends ActivityResponseCallback<? super T>> clazz;
+    // name of a restored class which has not been loaded yet
+    private String className;
     private Bundle arguments;
+    // set when the arguments are kept by the ArgumentStore
+    private String argumentsHandle;
+    // set when the arguments have been measured and fit into the saved state
+    private boolean argumentsFit;
+    // only known in the process which started the request
+    private long requestedAtNanos;
+    // wall clock time which survives the process
+    private long createdAtMillis;
+    // set instead of the class for requests without a callback class. never saved
+    private ResponseFuture<?> future;
+    // set instead of the class for annotated result methods of the owner
+    private String resultKey;
+    // set when the callback belongs to a fragment of the owner
+    private String fragmentKey;
+    // the intent or the sorted permissions while the request waits for its result. never saved
+    private Object inFlightRequest;
+    // set when the holder gets the result of another pending holder
+    private CallbackHolder<T> primary;
+    private int primaryRequestCode = NO_REQUEST_CODE;
+    // permissions which had a rationale when the system was asked. never saved
+    private String[] rationaleBeforeRequest;
+    // the delegate which delivers the result of a BackgroundActivityResponseCallback. never saved
+    private ActivityResponseDelegate<T> processingDelegate;
 
     public CallbackHolder(Class<? extends ActivityResponseCallback<? super T>> clazz, Bundle arguments){
         this.clazz = clazz;
         this.arguments = arguments;
     }
 
+    static <T> CallbackHolder<T> forFuture(ResponseFuture<?> future) {
+        CallbackHolder<T> holder = new CallbackHolder<>(null, null);
+        holder.future = future;
+        return holder;
+    }
+
+    static <T> CallbackHolder<T> forResultKey(String resultKey) {
+        CallbackHolder<T> holder = new CallbackHolder<>(null, null);
+        holder.resultKey = resultKey;
+        return holder;
+    }
+
+    /**
+     * creates the holder for another request of the callback with its class, arguments and fragment
+     */
+    @SuppressWarnings("unchecked")
+    static <T> CallbackHolder<T> forCallback(ActivityResponseCallback<?> callback) {
+        CallbackHolder<T> holder = new CallbackHolder<>(
+                (Class<? extends ActivityResponseCallback<? super T>>) callback.getClass(), callback.getArguments());
+        holder.fragmentKey = callback.getFragmentKey();
+        return holder;
+    }
+
+    /**
+     * creates the holder for a class restored by name.
+     * the class is loaded when the result arrives
+     */
+    static <T> CallbackHolder<T> fromClassName(String className, Bundle arguments, String argumentsHandle) {
+        CallbackHolder<T> holder = new CallbackHolder<>(null, arguments);
+        holder.className = className;
+        holder.argumentsHandle = argumentsHandle;
+        // they have been measured before they were saved
+        holder.argumentsFit = arguments != null;
+        return holder;
+    }
+
     @SuppressWarnings("unchecked")
     private CallbackHolder(Parcel in) {
         clazz = (Class<? extends ActivityResponseCallback<? super T>>) in.readSerializable();
         arguments = in.readBundle();
     }
 
+    /**
+     * @return the callback. a {@link ReusableCallback} must be passed to {@link #recycle(ActivityResponseCallback, ActivityResponseConfig)} after the call
+     */
+    public ActivityResponseCallback<T> newCallback(T owner, ActivityResponseConfig config){
+        TraceSink trace = config.getTraceSink();
+        trace.beginSection(TraceSink.SECTION_NEW_CALLBACK);
+        try {
+            return createCallback(owner, config);
+        } finally {
+            trace.endSection();
+        }
+    }
+
     @SuppressWarnings("unchecked")
-    public ActivityResponseCallback<T> newCallback(T owner){
+    private ActivityResponseCallback<T> createCallback(T owner, ActivityResponseConfig config) {
+        if (clazz == null && className != null) {
+            // first result after a restore
+            Class<?> preloaded = config.getCallbackPreloader().take(className);
+            if (preloaded != null) {
+                setClazz((Class<? extends ActivityResponseCallback<? super T>>) preloaded);
+            }
+        }
+        Class<? extends ActivityResponseCallback<? super T>> clazz = getClazz();
         if (clazz == null) {
             return null;
         }
-        try {
-            ActivityResponseCallback<T> callback = (ActivityResponseCallback < T >) clazz.newInstance();
-            callback.setOwner(owner);
-            callback.setArguments(arguments);
-            return callback;
-        } catch (Exception e) {
-            // rethrow any exception
-            throw new RuntimeException(e);
+        ActivityResponseCallback<T> callback = (ActivityResponseCallback<T>) config.getCallbackInstantiator().obtain(clazz);
+        callback.setOwner(owner);
+        callback.setArguments(getArguments(config));
+        callback.setFragmentKey(fragmentKey);
+        return callback;
+    }
+
+    /**
+     * clears the callback and keeps it for the next result when it is reusable
+     */
+    void recycle(ActivityResponseCallback<T> callback, ActivityResponseConfig config) {
+        CallbackInstantiator<ActivityResponseCallback<?>> instantiator = config.getCallbackInstantiator();
+        if (instantiator.isReusable(callback.getClass())) {
+            callback.clear();
+            instantiator.recycle(callback);
+        }
+    }
+
+    /**
+     * @return the arguments. loads them from the ArgumentStore when they have been stored before
+     */
+    Bundle getArguments(ActivityResponseConfig config) {
+        if (arguments == null && argumentsHandle != null) {
+            ArgumentStore store = config.getArgumentStore();
+            if (store != null) {
+                arguments = store.load(argumentsHandle);
+            }
+        }
+        return arguments;
+    }
+
+    String getResultKey() {
+        return resultKey;
+    }
+
+    /**
+     * @return the key of the fragment which receives the result or null for the owner itself
+     * @see FragmentResultRouter
+     */
+    String getFragmentKey() {
+        return fragmentKey;
+    }
+
+    void setFragmentKey(String fragmentKey) {
+        this.fragmentKey = fragmentKey;
+    }
+
+    /**
+     * marks the holder as waiting for the request which has been passed to the system
+     *
+     * @param request the intent or the sorted permissions. null when the result arrived
+     */
+    void setInFlightRequest(Object request) {
+        this.inFlightRequest = request;
+    }
+
+    /**
+     * @return true when this holder waits for the request and passes its result to the same callback as the other holder
+     */
+    boolean isWaitingFor(Object request, CallbackHolder<?> other) {
+        if (inFlightRequest == null || primary != null
+                || !equal(getClassName(), other.getClassName())
+                || !equal(resultKey, other.resultKey)
+                || !equal(fragmentKey, other.fragmentKey)
+                || (future == null) != (other.future == null)) {
+            return false;
+        }
+        if (inFlightRequest instanceof Intent) {
+            return request instanceof Intent && ((Intent) inFlightRequest).filterEquals((Intent) request)
+                    && equalExtras(((Intent) inFlightRequest).getExtras(), ((Intent) request).getExtras());
+        }
+        return request instanceof String[] && Arrays.equals((String[]) inFlightRequest, (String[]) request);
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * compares the values shallowly. arrays are compared by content, nested bundles by identity
+     */
+    private static boolean equalExtras(Bundle a, Bundle b) {
+        if (a == null || a.isEmpty()) {
+            return b == null || b.isEmpty();
         }
+        if (b == null || !a.keySet().equals(b.keySet())) {
+            return false;
+        }
+        for (String key : a.keySet()) {
+            if (!Arrays.deepEquals(new Object[]{a.get(key)}, new Object[]{b.get(key)})) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * the holder gets the result of the primary instead of an own result
+     */
+    void setPrimary(CallbackHolder<T> primary, int primaryRequestCode) {
+        this.primary = primary;
+        this.primaryRequestCode = primaryRequestCode;
+    }
+
+    /**
+     * @return the holder whose result is passed to this holder too or null
+     */
+    CallbackHolder<T> getPrimary() {
+        return primary;
     }
 
+    /**
+     * @return the request code of the primary when it was linked or {@link #NO_REQUEST_CODE}
+     */
+    int getPrimaryRequestCode() {
+        return primaryRequestCode;
+    }
+
+    /**
+     * @return the permissions which had a rationale when the system was asked or null when unknown
+     */
+    String[] getRationaleBeforeRequest() {
+        return rationaleBeforeRequest;
+    }
+
+    void setRationaleBeforeRequest(String[] rationaleBeforeRequest) {
+        this.rationaleBeforeRequest = rationaleBeforeRequest;
+    }
+
+    /**
+     * @return the delegate which delivers the result once it has been processed in the background
+     * or null when the result has not arrived yet
+     */
+    ActivityResponseDelegate<T> getProcessingDelegate() {
+        return processingDelegate;
+    }
+
+    void setProcessingDelegate(ActivityResponseDelegate<T> processingDelegate) {
+        this.processingDelegate = processingDelegate;
+    }
+
+    ResponseFuture<?> getFuture() {
+        return future;
+    }
+
+    long getCreatedAtMillis() {
+        return createdAtMillis;
+    }
+
+    void setCreatedAtMillis(long createdAtMillis) {
+        this.createdAtMillis = createdAtMillis;
+    }
+
+    long getRequestedAtNanos() {
+        return requestedAtNanos;
+    }
+
+    void setRequestedAtNanos(long requestedAtNanos) {
+        this.requestedAtNanos = requestedAtNanos;
+    }
+
+    String getArgumentsHandle() {
+        return argumentsHandle;
+    }
+
+    /**
+     * moves the arguments to the store when they are too big for the saved state.
+     * the arguments are still kept in memory.
+     * they are measured once, later saves reuse the result
+     */
+    void offloadArguments(ArgumentStore store) {
+        if (argumentsHandle == null && !argumentsFit && arguments != null) {
+            argumentsHandle = store.offload(arguments);
+            argumentsFit = argumentsHandle == null;
+        }
+    }
+
+    /**
+     * deletes stored arguments after the callback has been called
+     */
+    void releaseArguments(ActivityResponseConfig config) {
+        ArgumentStore store = config.getArgumentStore();
+        if (argumentsHandle != null && store != null) {
+            store.remove(argumentsHandle);
+        }
+    }
+
+    /**
+     * @return the class or null when a restored class does not exist anymore
+     */
+    @SuppressWarnings("unchecked")
     public Class<? extends ActivityResponseCallback<? super T>> getClazz() {
+        if (clazz == null && className != null) {
+            try {
+                clazz = (Class<? extends ActivityResponseCallback<? super T>>) Class.forName(className, false, CallbackHolder.class.getClassLoader());
+            } catch (ClassNotFoundException e) {
+                // the callback will be ignored
+            }
+            className = null;
+        }
         return clazz;
     }
 
     public void setClazz(Class<? extends ActivityResponseCallback<? super T>> clazz) {
         this.clazz = clazz;
+        this.className = null;
+    }
+
+    /**
+     * @return false for a restored class which has not been loaded yet
+     */
+    boolean isClassLoaded() {
+        return className == null;
+    }
+
+    /**
+     * @return the name of the class without loading a restored class
+     */
+    String getClassName() {
+        if (clazz != null) {
+            return clazz.getName();
+        }
+        return className;
     }
 
     public Bundle getArguments() {
@@ -54,6 +350,7 @@ class CallbackHolder<T> implements Parcelable{
 
     public void setArguments(Bundle arguments) {
         this.arguments = arguments;
+        this.argumentsFit = false;
     }
 
     @Override
@@ -63,7 +360,7 @@ class CallbackHolder<T> implements Parcelable{
 
     @Override
     public void writeToParcel(Parcel dest, int flags) {
-        dest.writeSerializable(clazz);
+        dest.writeSerializable(getClazz());
         dest.writeBundle(arguments);
     }
 
@@ -0,0 +1,194 @@
+package de.freiheit.activityresponsedelegate;
+
+import android.content.Intent;
+import android.os.Bundle;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.fragment.app.Fragment;
+import androidx.fragment.app.FragmentActivity;
+import androidx.fragment.app.FragmentManager;
+
+/**
+ * starts the requests of a fragment through the delegate of its activity.
+ * the pending callbacks of all fragments share the table and request codes of the activity,
+ * the fragments need no own delegate
+ * <p>
+ * the result is passed to the fragment which has the same tag or id path and the same class when it arrives,
+ * so it reaches the recreated fragment after a configuration change or process death.
+ * the fragment and all its parents need a tag or id. the activity must forward its results to its delegate.
+ * fragments which replace each other in one container share the id, the class tells them apart.
+ * the result is dropped when another fragment has taken the place
+ * <p>
+ * create the router on the main thread. it is not kept by the library
+ */
+public final class FragmentResultRouter<F extends Fragment> {
+
+    private final static char SEPARATOR = '/';
+    private final static char TAG = 't';
+    private final static char ID = 'i';
+    private final static char CLASS = '@';
+
+    private final ActivityResponseDelegate<FragmentActivity> host;
+    private final String fragmentKey;
+
+    private FragmentResultRouter(ActivityResponseDelegate<FragmentActivity> host, String fragmentKey) {
+        this.host = host;
+        this.fragmentKey = fragmentKey;
+    }
+
+    /**
+     * @throws IllegalStateException when the fragment is not attached or it or a parent has no tag and no id
+     */
+    public static <F extends Fragment> FragmentResultRouter<F> of(@NonNull F fragment) {
+        FragmentActivity activity = fragment.getActivity();
+        if (activity == null) {
+            throw new IllegalStateException("fragment " + fragment + " is not attached to an activity");
+        }
+        return new FragmentResultRouter<>(ActivityResponseDelegate.from(activity), keyOf(fragment));
+    }
+
+    /**
+     * @see ActivityResponseDelegate#startActivityForResult(Intent, int, Bundle, Class, Bundle)
+     */
+    public void startActivityForResult(Intent intent, Class<? extends ActivityResponseCallback<? super F>> callback) {
+        startActivityForResult(intent, callback, null);
+    }
+
+    /**
+     * @see ActivityResponseDelegate#startActivityForResult(Intent, int, Bundle, Class, Bundle)
+     */
+    public void startActivityForResult(Intent intent, Class<? extends ActivityResponseCallback<? super F>> callback,
+                                       @Nullable Bundle callbackArguments) {
+        host.startRoutedActivityForResult(intent, newHolder(callback, callbackArguments));
+    }
+
+    /**
+     * @see ActivityResponseDelegate#requestPermissions(String[], int, Class, Bundle, boolean)
+     */
+    public void requestPermissions(@NonNull String[] permissions, Class<? extends ActivityResponseCallback<? super F>> callback) {
+        requestPermissions(permissions, callback, null);
+    }
+
+    /**
+     * @see ActivityResponseDelegate#requestPermissions(String[], int, Class, Bundle, boolean)
+     */
+    public void requestPermissions(@NonNull String[] permissions, Class<? extends ActivityResponseCallback<? super F>> callback,
+                                   @Nullable Bundle callbackArguments) {
+        host.requestRoutedPermissions(permissions, newHolder(callback, callbackArguments));
+    }
+
+    ActivityResponseDelegate<FragmentActivity> getHost() {
+        return host;
+    }
+
+    private CallbackHolder<F> newHolder(Class<? extends ActivityResponseCallback<? super F>> callback, @Nullable Bundle callbackArguments) {
+        CallbackHolder<F> holder = new CallbackHolder<>(callback, callbackArguments);
+        holder.setFragmentKey(fragmentKey);
+        return holder;
+    }
+
+    /**
+     * @return the tag or id and the class of the fragment and its parents starting with the outermost fragment
+     */
+    static String keyOf(Fragment fragment) {
+        StringBuilder key = new StringBuilder();
+        for (Fragment f = fragment; f != null; f = f.getParentFragment()) {
+            StringBuilder segment = new StringBuilder();
+            if (f.getTag() != null) {
+                segment.append(TAG);
+                escape(segment, f.getTag());
+            } else if (f.getId() != 0) {
+                segment.append(ID).append(f.getId());
+            } else {
+                throw new IllegalStateException("fragment " + f + " needs a tag or id to receive routed results");
+            }
+            segment.append(CLASS).append(f.getClass().getName());
+            if (key.length() > 0) {
+                segment.append(SEPARATOR);
+            }
+            key.insert(0, segment);
+        }
+        return key.toString();
+    }
+
+    /**
+     * @return the key of the fragment or null when it or a parent has no tag and no id
+     */
+    @Nullable
+    static String keyOrNull(Fragment fragment) {
+        try {
+            return keyOf(fragment);
+        } catch (IllegalStateException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the added fragment of the host with the key or null
+     */
+    @Nullable
+    static Fragment findFragment(Object host, String key) {
+        if (!(host instanceof FragmentActivity)) {
+            return null;
+        }
+        FragmentManager fragmentManager = ((FragmentActivity) host).getSupportFragmentManager();
+        Fragment fragment = null;
+        int start = 0;
+        while (start < key.length()) {
+            int end = key.indexOf(SEPARATOR, start);
+            if (end < 0) {
+                end = key.length();
+            }
+            if (fragment != null) {
+                fragmentManager = fragment.getChildFragmentManager();
+            }
+            // class names contain no separator and no class marker, escaped tags neither
+            int classStart = key.lastIndexOf(CLASS, end - 1);
+            int nameEnd = classStart > start ? classStart : end;
+            if (key.charAt(start) == TAG) {
+                fragment = fragmentManager.findFragmentByTag(unescape(key, start + 1, nameEnd));
+            } else {
+                fragment = fragmentManager.findFragmentById(Integer.parseInt(key.substring(start + 1, nameEnd)));
+            }
+            if (fragment == null
+                    || (nameEnd < end && !fragment.getClass().getName().equals(key.substring(classStart + 1, end)))) {
+                // another fragment has taken the place
+                return null;
+            }
+            start = end + 1;
+        }
+        return fragment != null && fragment.isAdded() ? fragment : null;
+    }
+
+    // the separator, the class marker and the escape character are written as %2F, %40 and %25
+    private static void escape(StringBuilder out, String tag) {
+        for (int i = 0; i < tag.length(); i++) {
+            char c = tag.charAt(i);
+            if (c == SEPARATOR) {
+                out.append("%2F");
+            } else if (c == CLASS) {
+                out.append("%40");
+            } else if (c == '%') {
+                out.append("%25");
+            } else {
+                out.append(c);
+            }
+        }
+    }
+
+    private static String unescape(String key, int start, int end) {
+        StringBuilder tag = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            char c = key.charAt(i);
+            if (c == '%' && i + 2 < end) {
+                char code = key.charAt(i + 2);
+                tag.append(code == 'F' ? SEPARATOR : code == '0' ? CLASS : '%');
+                i += 2;
+            } else {
+                tag.append(c);
+            }
+        }
+        return tag.toString();
+    }
+}
@@ -0,0 +1,24 @@
+package de.freiheit.activityresponsedelegate;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * marks a method of an activity or fragment which handles the result of
+ * {@link ActivityResponseDelegate#startActivityForResult(android.content.Intent, String)}
+ * <p>
+ * the method must not be private or static and has the parameters {@code (int resultCode, Intent data)}.
+ * its class and the enclosing classes must not be private.
+ * the activityresponsedelegate compiler generates the {@link ResultBinder} which calls it
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.METHOD)
+public @interface OnActivityResult {
+
+    /**
+     * the key of the result. it is part of the saved state and must not change between app versions
+     */
+    String value();
+}
@@ -0,0 +1,66 @@
+package de.freiheit.activityresponsedelegate;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.annotation.NonNull;
+
+/**
+ * remembers permissions which the user denied with "never ask again"
+ * <p>
+ * the delegate does not start a system request for them, the callback gets the denial immediately.
+ * a permission is forgotten when it is granted or after the max age
+ * because the user may reset the decision in the settings without granting the permission
+ * <p>
+ * enable it with {@link ActivityResponseConfig.Builder#setPermanentDenialStore(PermanentDenialStore)}
+ */
+public class PermanentDenialStore {
+
+    private final static String PREFERENCES = "activityresponsedelegate_permanent_denials";
+
+    public final static long DEFAULT_MAX_AGE_MILLIS = 24 * 60 * 60 * 1000L;
+
+    private final SharedPreferences preferences;
+    private final long maxAgeMillis;
+
+    public PermanentDenialStore(@NonNull Context context) {
+        this(context, DEFAULT_MAX_AGE_MILLIS);
+    }
+
+    /**
+     * @param maxAgeMillis denials older than this are requested from the system again
+     */
+    public PermanentDenialStore(@NonNull Context context, long maxAgeMillis) {
+        this.preferences = context.getApplicationContext().getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    public boolean isPermanentlyDenied(@NonNull String permission) {
+        long deniedAt = preferences.getLong(permission, 0);
+        if (deniedAt == 0) {
+            return false;
+        }
+        if (System.currentTimeMillis() - deniedAt > maxAgeMillis) {
+            remove(permission);
+            return false;
+        }
+        return true;
+    }
+
+    void setPermanentlyDenied(@NonNull String permission) {
+        preferences.edit().putLong(permission, System.currentTimeMillis()).apply();
+    }
+
+    /**
+     * forgets the denial. the next request asks the system again
+     */
+    public void remove(@NonNull String permission) {
+        if (preferences.contains(permission)) {
+            preferences.edit().remove(permission).apply();
+        }
+    }
+
+    public void clear() {
+        preferences.edit().clear().apply();
+    }
+}
@@ -0,0 +1,95 @@
+package de.freiheit.activityresponsedelegate;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import androidx.annotation.NonNull;
+
+import static androidx.core.content.PermissionChecker.checkSelfPermission;
+
+/**
+ * remembers the state of permissions to avoid a call into the package manager for every check
+ * <p>
+ * the system kills the process when a permission gets revoked so granted permissions stay valid.
+ * denied permissions can be granted in the settings at any time.
+ * they are checked again after an owner resumed
+ * <p>
+ * enable it with {@link ActivityResponseConfig.Builder#setEnablePermissionCache(boolean)}
+ */
+public final class PermissionCache {
+
+    private static final PermissionCache INSTANCE = new PermissionCache();
+
+    public static PermissionCache getInstance() {
+        return INSTANCE;
+    }
+
+    private final ConcurrentHashMap<String, Boolean> granted = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private PermissionCache() {
+    }
+
+    /**
+     * @see PermissionUtils#hasSelfPermissions(Context, String...)
+     */
+    public boolean hasSelfPermissions(@NonNull Context context, @NonNull String... permissions) {
+        for (String permission : permissions) {
+            Boolean state = granted.get(permission);
+            if (state != null) {
+                hits.incrementAndGet();
+            } else {
+                misses.incrementAndGet();
+                state = checkSelfPermission(context, permission) == PackageManager.PERMISSION_GRANTED;
+                granted.put(permission, state);
+            }
+            if (!state) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * stores the result of a permission request
+     */
+    public void update(@NonNull String[] permissions, @NonNull int[] grantResults) {
+        for (int i = 0; i < permissions.length && i < grantResults.length; i++) {
+            granted.put(permissions[i], grantResults[i] == PackageManager.PERMISSION_GRANTED);
+        }
+    }
+
+    /**
+     * forgets all denied permissions. they will be checked again on the next request
+     */
+    public void invalidateDenied() {
+        Iterator<Map.Entry<String, Boolean>> iterator = granted.entrySet().iterator();
+        while (iterator.hasNext()) {
+            if (!iterator.next().getValue()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    public void invalidate(@NonNull String permission) {
+        granted.remove(permission);
+    }
+
+    public void invalidateAll() {
+        granted.clear();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+}
@@ -0,0 +1,309 @@
+package de.freiheit.activityresponsedelegate;
+
+import android.app.Activity;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.os.Bundle;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.fragment.app.Fragment;
+
+/**
+ * callback which runs the whole permission flow
+ * <p>
+ * request &rarr; rationale &rarr; request again &rarr; app settings &rarr; check again
+ * <p>
+ * the rationale is shown once, before the first request when the system suggests it
+ * or after the first denial. the flow ends with {@link #onDenied(String[])} after the second denial
+ * <p>
+ * the current step and the missing permissions are kept in the arguments of the callback
+ * which are part of the delegate state. the flow continues when the owner returns from the settings
+ * even when the process has been killed in the meantime.
+ * after the settings only the permissions which were missing are checked again
+ * <p>
+ * the rationale and the settings step are asynchronous.
+ * show a dialog and call {@link #proceed()} or {@link #cancel()} when the user answered.
+ * until then the request stays pending and is saved with the state of the delegate.
+ * a flow must not be a {@link ReusableCallback} because it is used after the call
+ */
+public abstract class PermissionFlow<T> extends ActivityResponseCallback<T> {
+
+    public final static int STEP_REQUEST = 0;
+    public final static int STEP_RATIONALE = 1;
+    public final static int STEP_SETTINGS = 2;
+
+    private final static String KEY_STEP = PermissionFlow.class.getName() + "_STEP";
+    private final static String KEY_PERMISSIONS = PermissionFlow.class.getName() + "_PERMISSIONS";
+    private final static String KEY_MISSING = PermissionFlow.class.getName() + "_MISSING";
+    // permissions which had a rationale before the last request
+    private final static String KEY_RATIONALE = PermissionFlow.class.getName() + "_RATIONALE";
+    private final static String KEY_RATIONALE_SHOWN = PermissionFlow.class.getName() + "_RATIONALE_SHOWN";
+
+    /**
+     * starts the flow for the permissions
+     *
+     * @param arguments the arguments passed to the flow. they must not use the keys of the flow
+     */
+    public static <T> void start(@NonNull ActivityResponseDelegate<T> delegate, @NonNull String[] permissions,
+                                 @NonNull Class<? extends PermissionFlow<? super T>> flow, @Nullable Bundle arguments) {
+        delegate.requestPermissions(permissions, flow, newArguments(delegate.mOwner.get(), permissions, arguments));
+    }
+
+    /**
+     * starts the flow for a fragment. all requests of the flow are kept by the delegate of its activity
+     *
+     * @param arguments the arguments passed to the flow. they must not use the keys of the flow
+     * @see FragmentResultRouter
+     */
+    public static <F extends Fragment> void start(@NonNull FragmentResultRouter<F> router, @NonNull String[] permissions,
+                                                  @NonNull Class<? extends PermissionFlow<? super F>> flow, @Nullable Bundle arguments) {
+        router.requestPermissions(permissions, flow, newArguments(router.getHost().mOwner.get(), permissions, arguments));
+    }
+
+    private static Bundle newArguments(@Nullable Object owner, String[] permissions, @Nullable Bundle arguments) {
+        Bundle flowArguments = arguments != null ? new Bundle(arguments) : new Bundle();
+        flowArguments.putInt(KEY_STEP, STEP_REQUEST);
+        flowArguments.putStringArray(KEY_PERMISSIONS, permissions);
+        flowArguments.putStringArray(KEY_MISSING, permissions);
+        flowArguments.putStringArray(KEY_RATIONALE, withRationale(owner, permissions));
+        return flowArguments;
+    }
+
+    private int requestCode;
+    // the rationale or the settings step waits for proceed or cancel
+    private boolean waiting;
+
+    /**
+     * called when all permissions of the flow are granted
+     */
+    public abstract void onGranted(@NonNull String[] permissions);
+
+    /**
+     * called when the flow ended without all permissions
+     *
+     * @param missing the permissions which are still denied
+     */
+    public abstract void onDenied(@NonNull String[] missing);
+
+    /**
+     * called before the permissions are requested again.
+     * per default the permissions are requested without explanation
+     */
+    public void onRationale(@NonNull String[] missing) {
+        proceed();
+    }
+
+    /**
+     * called when the missing permissions can only be granted in the app settings.
+     * call {@link #proceed()} to open the settings. per default the flow ends with {@link #onDenied(String[])}
+     */
+    public void onPermanentlyDenied(@NonNull String[] missing) {
+        cancel();
+    }
+
+    /**
+     * @return the current step of the flow
+     */
+    public int getStep() {
+        return getArguments().getInt(KEY_STEP, STEP_REQUEST);
+    }
+
+    /**
+     * @return the permissions which have not been granted yet
+     */
+    @NonNull
+    public String[] getMissingPermissions() {
+        return getArguments().getStringArray(KEY_MISSING);
+    }
+
+    /**
+     * continues after the rationale or opens the app settings
+     */
+    public void proceed() {
+        String[] missing = getMissingPermissions();
+        waiting = false;
+        switch (getStep()) {
+            case STEP_RATIONALE:
+                setStep(STEP_REQUEST);
+                getArguments().putStringArray(KEY_RATIONALE, withRationale(getOwner(), missing));
+                // replaces the pending request
+                requestPermissions(missing, requestCode);
+                break;
+            case STEP_SETTINGS:
+                // the flow continues with the result of the settings
+                removePendingRequest();
+                openSettings();
+                break;
+            default:
+                throw new IllegalStateException("nothing to proceed in step " + getStep());
+        }
+    }
+
+    /**
+     * ends the flow with {@link #onDenied(String[])}
+     */
+    public void cancel() {
+        waiting = false;
+        removePendingRequest();
+        onDenied(getMissingPermissions());
+    }
+
+    @Override
+    final boolean isWaiting() {
+        return waiting;
+    }
+
+    @Override
+    public final void showRationale(int requestCode, @NonNull String[] permissions) {
+        this.requestCode = requestCode;
+        showRationale(getMissingPermissions());
+    }
+
+    private void showRationale(String[] missing) {
+        setStep(STEP_RATIONALE);
+        getArguments().putBoolean(KEY_RATIONALE_SHOWN, true);
+        waiting = true;
+        onRationale(missing);
+    }
+
+    @Override
+    public final void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
+        this.requestCode = requestCode;
+        List<String> missing = new ArrayList<>();
+        for (int i = 0; i < permissions.length; i++) {
+            if (i >= grantResults.length || grantResults[i] != PackageManager.PERMISSION_GRANTED) {
+                missing.add(permissions[i]);
+            }
+        }
+        if (grantResults.length == 0) {
+            // the request has been cancelled
+            onDenied(getMissingPermissions());
+            return;
+        }
+        if (missing.isEmpty()) {
+            onGranted(getArguments().getStringArray(KEY_PERMISSIONS));
+            return;
+        }
+        String[] missingPermissions = missing.toArray(new String[missing.size()]);
+        getArguments().putStringArray(KEY_MISSING, missingPermissions);
+        if (isAnyPermanentlyDenied(missingPermissions)) {
+            setStep(STEP_SETTINGS);
+            waiting = true;
+            onPermanentlyDenied(missingPermissions);
+        } else if (!getArguments().getBoolean(KEY_RATIONALE_SHOWN)) {
+            // explain once and ask again
+            showRationale(missingPermissions);
+        } else {
+            onDenied(missingPermissions);
+        }
+    }
+
+    /**
+     * called when the owner returns from the settings
+     */
+    @Override
+    public final void onActivityResult(int requestCode, int resultCode, Intent data) {
+        Activity activity = getActivity();
+        String[] missing = getMissingPermissions();
+        if (activity == null) {
+            onDenied(missing);
+            return;
+        }
+        ActivityResponseDelegate<?> delegate = getDelegate();
+        // the cache does not know about changes in the settings
+        PermissionCache cache = PermissionCache.getInstance();
+        List<String> stillMissing = new ArrayList<>();
+        for (String permission : missing) {
+            cache.invalidate(permission);
+            if (!delegate.hasSelfPermissions(activity, new String[]{permission})) {
+                stillMissing.add(permission);
+            }
+        }
+        if (stillMissing.isEmpty()) {
+            onGranted(getArguments().getStringArray(KEY_PERMISSIONS));
+        } else {
+            String[] stillMissingPermissions = stillMissing.toArray(new String[stillMissing.size()]);
+            getArguments().putStringArray(KEY_MISSING, stillMissingPermissions);
+            onDenied(stillMissingPermissions);
+        }
+    }
+
+    private void openSettings() {
+        Activity activity = getActivity();
+        ActivityResponseDelegate<?> delegate = getDelegate();
+        if (activity == null || delegate == null) {
+            return;
+        }
+        Intent intent = PermissionUtils.newAppSettingsIntent(activity);
+        if (intent.resolveActivity(activity.getPackageManager()) == null) {
+            // the generic Apps page
+            intent = new Intent(android.provider.Settings.ACTION_MANAGE_APPLICATIONS_SETTINGS);
+        }
+        // the settings result reaches the fragment of a routed flow as well
+        delegate.startActivityForCallback(intent, this);
+    }
+
+    /**
+     * removes the request which waits for the rationale or the settings step
+     */
+    private void removePendingRequest() {
+        ActivityResponseDelegate<?> delegate = getDelegate();
+        if (delegate != null) {
+            delegate.removePermissionCallback(requestCode, getArguments());
+        }
+    }
+
+    /**
+     * a permission is permanently denied when it is known to the denial store
+     * or when its rationale disappeared with the request.
+     * a denial without rationale before the request may also be a dismissed dialog
+     */
+    private boolean isAnyPermanentlyDenied(String[] missing) {
+        T owner = getOwner();
+        ActivityResponseDelegate<?> delegate = getDelegate();
+        PermanentDenialStore denialStore = delegate != null ? delegate.getConfig().getPermanentDenialStore() : null;
+        String[] rationale = getArguments().getStringArray(KEY_RATIONALE);
+        List<String> hadRationale = rationale != null ? Arrays.asList(rationale) : Collections.<String>emptyList();
+        for (String permission : missing) {
+            if (denialStore != null && denialStore.isPermanentlyDenied(permission)) {
+                return true;
+            }
+            if (hadRationale.contains(permission) && !ActivityResponseDelegate.shouldShowRequestPermissionRationale(owner, permission)) {
+                // the user selected "don't ask again"
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String[] withRationale(@Nullable Object owner, String[] permissions) {
+        List<String> rationale = new ArrayList<>(permissions.length);
+        if (owner != null) {
+            for (String permission : permissions) {
+                if (ActivityResponseDelegate.shouldShowRequestPermissionRationale(owner, permission)) {
+                    rationale.add(permission);
+                }
+            }
+        }
+        return rationale.toArray(new String[rationale.size()]);
+    }
+
+    private void setStep(int step) {
+        getArguments().putInt(KEY_STEP, step);
+    }
+
+    @Nullable
+    private Activity getActivity() {
+        T owner = getOwner();
+        if (owner instanceof Fragment) {
+            return ((Fragment) owner).getActivity();
+        }
+        return (Activity) owner;
+    }
+}
@@ -0,0 +1,262 @@
+package de.freiheit.activityresponsedelegate;
+
+import android.app.Activity;
+import android.content.pm.PackageManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import androidx.annotation.Nullable;
+import androidx.core.app.ActivityCompat;
+import androidx.fragment.app.Fragment;
+import de.freiheit.activityresponsedelegate.core.OwnerRegistry;
+
+/**
+ * collects the permission requests of all owners of an activity for a short time
+ * and asks the system once for all of them
+ * <p>
+ * the result of the merged request is received by the activity and split into the results of
+ * the original requests. the activity must forward
+ * {@link Activity#onRequestPermissionsResult(int, String[], int[])} and its saved state to its delegate
+ * <p>
+ * the requests which are still queued when the activity finishes are removed from their delegates
+ * and reported as {@link ActivityResponseListener#DROP_OWNER_DESTROYED}.
+ * only used on the main thread, the delegates start the requests of background threads there
+ */
+final class PermissionRequestCoalescer {
+
+    // one frame
+    final static long WINDOW_MILLIS = 16;
+
+    final static int FIRST_REQUEST_CODE = 0xFF00;
+    final static int LAST_REQUEST_CODE = 0xFFFF;
+
+    private final static Handler handler = new Handler(Looper.getMainLooper());
+    private final static OwnerRegistry<PermissionRequestCoalescer> coalescers = new OwnerRegistry<>();
+
+    // not synchronized, only used on the main thread
+    private static int nextRequestCode = FIRST_REQUEST_CODE;
+
+    static PermissionRequestCoalescer forHost(Activity host) {
+        PermissionRequestCoalescer coalescer = coalescers.get(host);
+        if (coalescer == null) {
+            coalescer = coalescers.putIfAbsent(host, new PermissionRequestCoalescer(host));
+        }
+        return coalescer;
+    }
+
+    /**
+     * splits the result of a merged request and passes the parts to the original delegates
+     * <p>
+     * the parts are kept in the saved state of the delegate of the activity.
+     * the parts of the activity are passed to the receiver, the parts of fragments to the fragment
+     * which has the same key in the activity of the receiver. both survive a recreation of the activity
+     *
+     * @param receiver the delegate of the activity which received the result
+     * @return false when the request code does not belong to a merged request
+     */
+    static boolean dispatch(ActivityResponseDelegate<?> receiver, int requestCode, String[] permissions, int[] grantResults) {
+        List<Part> parts = receiver.takeMergedPermissionRequest(requestCode);
+        if (parts == null) {
+            return false;
+        }
+
+        Map<String, Integer> results = new HashMap<>(permissions.length);
+        for (int i = 0; i < permissions.length && i < grantResults.length; i++) {
+            results.put(permissions[i], grantResults[i]);
+        }
+        for (Part part : parts) {
+            ActivityResponseDelegate<?> delegate = part.fragmentKey == null ? receiver : fragmentDelegate(receiver, part.fragmentKey);
+            if (delegate == null) {
+                ActivityResponseListener listener = receiver.getConfig().getListener();
+                if (listener != null) {
+                    listener.onCallbackDropped(ActivityResponseListener.TYPE_PERMISSION, part.requestCode, null,
+                            ActivityResponseListener.DROP_OWNER_DESTROYED, System.nanoTime());
+                }
+                continue;
+            }
+            if (grantResults.length == 0) {
+                // the request has been cancelled
+                delegate.onRequestPermissionsResult(part.requestCode, new String[0], new int[0]);
+                continue;
+            }
+            int[] partResults = new int[part.permissions.length];
+            for (int i = 0; i < partResults.length; i++) {
+                Integer result = results.get(part.permissions[i]);
+                partResults[i] = result != null ? result : PackageManager.PERMISSION_DENIED;
+            }
+            delegate.onRequestPermissionsResult(part.requestCode, part.permissions, partResults);
+        }
+        return true;
+    }
+
+    @Nullable
+    private static ActivityResponseDelegate<?> fragmentDelegate(ActivityResponseDelegate<?> receiver, String fragmentKey) {
+        Fragment fragment = FragmentResultRouter.findFragment(receiver.mOwner.get(), fragmentKey);
+        return fragment != null ? ActivityResponseDelegate.from(fragment) : null;
+    }
+
+    private final WeakReference<Activity> host;
+    private final List<Request> pending = new ArrayList<>();
+
+    private final Runnable flush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    private PermissionRequestCoalescer(Activity host) {
+        this.host = new WeakReference<>(host);
+    }
+
+    /**
+     * a fragment without a tag or id can not be found again after a recreation,
+     * its request is not merged
+     */
+    void enqueue(ActivityResponseDelegate<?> delegate, String[] permissions, int requestCode) {
+        Object owner = delegate.mOwner.get();
+        String fragmentKey = null;
+        if (owner instanceof Fragment) {
+            fragmentKey = FragmentResultRouter.keyOrNull((Fragment) owner);
+            if (fragmentKey == null) {
+                new Request(delegate, new Part(requestCode, permissions, null)).requestDirectly();
+                return;
+            }
+        }
+        pending.add(new Request(delegate, new Part(requestCode, permissions, fragmentKey)));
+        if (pending.size() == 1) {
+            handler.postDelayed(flush, WINDOW_MILLIS);
+        }
+    }
+
+    private void flush() {
+        Activity activity = host.get();
+        List<Request> requests = new ArrayList<>(pending);
+        pending.clear();
+        if (activity == null || activity.isFinishing()) {
+            for (Request request : requests) {
+                request.drop();
+            }
+            return;
+        }
+        if (requests.isEmpty()) {
+            return;
+        }
+        if (requests.size() == 1) {
+            // nothing to merge
+            requests.get(0).requestDirectly();
+            return;
+        }
+
+        Set<String> permissions = new LinkedHashSet<>();
+        List<Part> parts = new ArrayList<>(requests.size());
+        for (Request request : requests) {
+            Collections.addAll(permissions, request.part.permissions);
+            parts.add(request.part);
+        }
+        // saved with the activity so that the parts are found after a recreation
+        ActivityResponseDelegate<Activity> hostDelegate = ActivityResponseDelegate.from(activity);
+        int requestCode = nextRequestCode(hostDelegate);
+        hostDelegate.putMergedPermissionRequest(requestCode, parts);
+        ActivityCompat.requestPermissions(activity, permissions.toArray(new String[permissions.size()]), requestCode);
+    }
+
+    private static int nextRequestCode(ActivityResponseDelegate<?> hostDelegate) {
+        int requestCode;
+        do {
+            requestCode = nextRequestCode;
+            nextRequestCode = requestCode == LAST_REQUEST_CODE ? FIRST_REQUEST_CODE : requestCode + 1;
+        } while (hostDelegate.hasMergedPermissionRequest(requestCode));
+        return requestCode;
+    }
+
+    private static final class Request {
+
+        // only used until the request is passed to the system
+        final WeakReference<ActivityResponseDelegate<?>> delegate;
+        final Part part;
+
+        Request(ActivityResponseDelegate<?> delegate, Part part) {
+            this.delegate = new WeakReference<ActivityResponseDelegate<?>>(delegate);
+            this.part = part;
+        }
+
+        /**
+         * the request is not passed to the system, its result never arrives
+         */
+        void drop() {
+            ActivityResponseDelegate<?> delegate = this.delegate.get();
+            if (delegate != null) {
+                delegate.dropPermissionRequest(part.requestCode);
+            }
+        }
+
+        void requestDirectly() {
+            ActivityResponseDelegate<?> delegate = this.delegate.get();
+            Object owner = delegate != null ? delegate.mOwner.get() : null;
+            if (owner instanceof Activity) {
+                ActivityCompat.requestPermissions((Activity) owner, part.permissions, part.requestCode);
+            } else if (owner instanceof Fragment) {
+                ((Fragment) owner).requestPermissions(part.permissions, part.requestCode);
+            }
+        }
+    }
+
+    /**
+     * one original request of a merged request
+     */
+    static final class Part implements Parcelable {
+
+        final int requestCode;
+        final String[] permissions;
+        // null for the activity itself
+        final String fragmentKey;
+
+        Part(int requestCode, String[] permissions, @Nullable String fragmentKey) {
+            this.requestCode = requestCode;
+            this.permissions = permissions;
+            this.fragmentKey = fragmentKey;
+        }
+
+        private Part(Parcel in) {
+            requestCode = in.readInt();
+            permissions = in.createStringArray();
+            fragmentKey = in.readString();
+        }
+
+        @Override
+        public int describeContents() {
+            return 0;
+        }
+
+        @Override
+        public void writeToParcel(Parcel dest, int flags) {
+            dest.writeInt(requestCode);
+            dest.writeStringArray(permissions);
+            dest.writeString(fragmentKey);
+        }
+
+        public static final Creator<Part> CREATOR = new Creator<Part>() {
+            @Override
+            public Part createFromParcel(Parcel in) {
+                return new Part(in);
+            }
+
+            @Override
+            public Part[] newArray(int size) {
+                return new Part[size];
+            }
+        };
+    }
+}
@@ -113,11 +113,19 @@ public class PermissionUtils {
         return false;
     }
 
+    /**
+     * @return the intent which opens the App Info page of the app
+     */
+    public static Intent newAppSettingsIntent(Context context) {
+        Intent intent = new Intent(android.provider.Settings.ACTION_APPLICATION_DETAILS_SETTINGS);
+        intent.setData(Uri.parse("package:" + context.getPackageName()));
+        return intent;
+    }
+
     public static void openAppSettings(Context context) {
         try {
             //Open the specific App Info page:
-            Intent intent = new Intent(android.provider.Settings.ACTION_APPLICATION_DETAILS_SETTINGS);
-            intent.setData(Uri.parse("package:" + context.getPackageName()));
+            Intent intent = newAppSettingsIntent(context);
             if (!(context instanceof Activity)) {
                 intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
             }
@@ -0,0 +1,123 @@
+package de.freiheit.activityresponsedelegate;
+
+import android.app.Activity;
+import android.app.Application;
+import android.os.Bundle;
+
+import androidx.fragment.app.Fragment;
+import androidx.fragment.app.FragmentActivity;
+import androidx.fragment.app.FragmentManager;
+
+/**
+ * sends the lifecycle events of all activities and their support fragments to their delegates.
+ * the owners only have to forward onActivityResult and onRequestPermissionsResult,
+ * these are not visible to lifecycle callbacks
+ * <p>
+ * a delegate is created when the owner starts its first request or restores a saved delegate.
+ * owners which implement {@link ResponseDelegateOwner} keep the delegate without a registry lookup
+ */
+public final class ResponseDelegateInstaller {
+
+    private ResponseDelegateInstaller() {
+    }
+
+    /**
+     * call it in {@link Application#onCreate()}.
+     * the base classes of the library still work with the installer
+     */
+    public static void install(Application application) {
+        application.registerActivityLifecycleCallbacks(new ActivityCallbacks());
+    }
+
+    private static void onCreated(Object owner, Bundle savedInstanceState) {
+        if (ActivityResponseDelegate.hasSavedState(savedInstanceState)) {
+            ActivityResponseDelegate.fromRaw(owner).onRestoreInstanceState(savedInstanceState);
+        }
+    }
+
+    private static void onResumed(Object owner) {
+        ActivityResponseDelegate<?> delegate = ActivityResponseDelegate.peek(owner);
+        if (delegate != null) {
+            delegate.onResume();
+        }
+    }
+
+    private static void onSaveInstanceState(Object owner, Bundle outState) {
+        ActivityResponseDelegate<?> delegate = ActivityResponseDelegate.peek(owner);
+        if (delegate != null) {
+            delegate.onSaveInstanceState(outState);
+        }
+    }
+
+    private static void onDestroyed(Object owner) {
+        ActivityResponseDelegate<?> delegate = ActivityResponseDelegate.peek(owner);
+        if (delegate != null) {
+            delegate.onDestroy();
+        }
+    }
+
+    private static final class ActivityCallbacks implements Application.ActivityLifecycleCallbacks {
+
+        private final FragmentCallbacks fragmentCallbacks = new FragmentCallbacks();
+
+        @Override
+        public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+            if (activity instanceof FragmentActivity) {
+                // nested fragments are included
+                ((FragmentActivity) activity).getSupportFragmentManager()
+                        .registerFragmentLifecycleCallbacks(fragmentCallbacks, true);
+            }
+            onCreated(activity, savedInstanceState);
+        }
+
+        @Override
+        public void onActivityStarted(Activity activity) {
+        }
+
+        @Override
+        public void onActivityResumed(Activity activity) {
+            onResumed(activity);
+        }
+
+        @Override
+        public void onActivityPaused(Activity activity) {
+        }
+
+        @Override
+        public void onActivityStopped(Activity activity) {
+        }
+
+        @Override
+        public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+            onSaveInstanceState(activity, outState);
+        }
+
+        @Override
+        public void onActivityDestroyed(Activity activity) {
+            onDestroyed(activity);
+        }
+    }
+
+    private static final class FragmentCallbacks extends FragmentManager.FragmentLifecycleCallbacks {
+
+        @Override
+        public void onFragmentCreated(FragmentManager fm, Fragment f, Bundle savedInstanceState) {
+            onCreated(f, savedInstanceState);
+        }
+
+        @Override
+        public void onFragmentResumed(FragmentManager fm, Fragment f) {
+            onResumed(f);
+        }
+
+        @Override
+        public void onFragmentSaveInstanceState(FragmentManager fm, Fragment f, Bundle outState) {
+            onSaveInstanceState(f, outState);
+        }
+
+        @Override
+        public void onFragmentDestroyed(FragmentManager fm, Fragment f) {
+            onDestroyed(f);
+        }
+    }
+}
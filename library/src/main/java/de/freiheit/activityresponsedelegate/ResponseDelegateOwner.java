@@ -0,0 +1,24 @@
+package de.freiheit.activityresponsedelegate;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * an activity or fragment which keeps its delegate in a field.
+ * {@link ActivityResponseDelegate#from(android.app.Activity)} then returns the field
+ * without a lookup in the global registry
+ */
+public interface ResponseDelegateOwner {
+
+    /**
+     * @return the delegate set before or null
+     */
+    @Nullable
+    ActivityResponseDelegate<?> getResponseDelegate();
+
+    /**
+     * called once with the delegate of the owner. the field should be volatile
+     * because requests can be started from background threads
+     */
+    void setResponseDelegate(@NonNull ActivityResponseDelegate<?> delegate);
+}
@@ -0,0 +1,184 @@
+package de.freiheit.activityresponsedelegate;
+
+import android.app.Activity;
+import android.content.Intent;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * result of a request started without a callback class
+ * <p>
+ * the future is completed on the main thread when the result is delivered to the delegate.
+ * it is cancelled when the owner is destroyed because the listener usually references the owner.
+ * futures are not part of the saved state, use a callback class when the result must survive
+ * the recreation of the owner
+ * <p>
+ * the future can be used from any thread. the listener is called on the main thread,
+ * or on the calling thread of {@link #setListener(Listener)} when the future is already done
+ */
+public final class ResponseFuture<R> {
+
+    public abstract static class Listener<R> {
+
+        public abstract void onResult(@NonNull R result);
+
+        /**
+         * called when the future has been cancelled before the result arrived
+         */
+        public void onCancelled() {
+
+        }
+    }
+
+    private R result;
+    private boolean cancelled;
+    private Listener<? super R> listener;
+
+    ResponseFuture() {
+    }
+
+    /**
+     * sets the listener. it is called immediately when the future is already done
+     */
+    public ResponseFuture<R> setListener(@Nullable Listener<? super R> listener) {
+        R result;
+        synchronized (this) {
+            if (!isDone()) {
+                this.listener = listener;
+                return this;
+            }
+            result = this.result;
+        }
+        // the listener is called outside of the lock
+        if (listener == null) {
+            return this;
+        }
+        if (result != null) {
+            listener.onResult(result);
+        } else {
+            listener.onCancelled();
+        }
+        return this;
+    }
+
+    public synchronized boolean isDone() {
+        return result != null || cancelled;
+    }
+
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return the result or null when the future is not completed
+     */
+    @Nullable
+    public synchronized R getResult() {
+        return result;
+    }
+
+    /**
+     * cancels the future. a result which arrives later is ignored
+     */
+    public void cancel() {
+        Listener<? super R> listener;
+        synchronized (this) {
+            if (isDone()) {
+                return;
+            }
+            cancelled = true;
+            listener = this.listener;
+            // the listener may reference the owner
+            this.listener = null;
+        }
+        if (listener != null) {
+            listener.onCancelled();
+        }
+    }
+
+    void complete(@NonNull R result) {
+        Listener<? super R> listener;
+        synchronized (this) {
+            if (isDone()) {
+                return;
+            }
+            this.result = result;
+            listener = this.listener;
+            this.listener = null;
+        }
+        if (listener != null) {
+            listener.onResult(result);
+        }
+    }
+
+    /**
+     * @see android.app.Activity#onActivityResult(int, int, android.content.Intent)
+     */
+    public static final class ActivityResult {
+
+        private final int requestCode;
+        private final int resultCode;
+        private final Intent data;
+
+        ActivityResult(int requestCode, int resultCode, @Nullable Intent data) {
+            this.requestCode = requestCode;
+            this.resultCode = resultCode;
+            this.data = data;
+        }
+
+        public int getRequestCode() {
+            return requestCode;
+        }
+
+        public int getResultCode() {
+            return resultCode;
+        }
+
+        @Nullable
+        public Intent getData() {
+            return data;
+        }
+
+        public boolean isOk() {
+            return resultCode == Activity.RESULT_OK;
+        }
+    }
+
+    /**
+     * @see android.app.Activity#onRequestPermissionsResult(int, String[], int[])
+     */
+    public static final class PermissionResult {
+
+        private final int requestCode;
+        private final String[] permissions;
+        private final int[] grantResults;
+
+        PermissionResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
+            this.requestCode = requestCode;
+            this.permissions = permissions;
+            this.grantResults = grantResults;
+        }
+
+        public int getRequestCode() {
+            return requestCode;
+        }
+
+        @NonNull
+        public String[] getPermissions() {
+            return permissions;
+        }
+
+        @NonNull
+        public int[] getGrantResults() {
+            return grantResults;
+        }
+
+        /**
+         * @return false when any permission has been denied or the request has been cancelled
+         */
+        public boolean isAllGranted() {
+            return grantResults.length > 0 && PermissionUtils.verifyPermissions(grantResults);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package de.freiheit.activityresponsedelegate;
+
+import android.content.Intent;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * calls the {@link OnActivityResult} and {@link OnPermissionResult} methods of one class
+ * <p>
+ * implementations are generated by the activityresponsedelegate compiler.
+ * the generated index creates them, register it with
+ * {@link ActivityResponseConfig.Builder#addResultBinderFactory(ResultBinder.Factory)}
+ */
+public interface ResultBinder {
+
+    interface Factory {
+
+        /**
+         * @return the binder of the methods declared in the class or null
+         */
+        @Nullable
+        ResultBinder getResultBinder(@NonNull Class<?> ownerClass);
+    }
+
+    /**
+     * @return false when the class has no method for the key
+     */
+    boolean onActivityResult(@NonNull Object owner, @NonNull String key, int resultCode, @Nullable Intent data);
+
+    /**
+     * @return false when the class has no method for the key
+     */
+    boolean onRequestPermissionsResult(@NonNull Object owner, @NonNull String key,
+                                       @NonNull String[] permissions, @NonNull int[] grantResults);
+}
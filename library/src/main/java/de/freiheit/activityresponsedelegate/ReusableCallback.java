@@ -0,0 +1,11 @@
+package de.freiheit.activityresponsedelegate;
+
+/**
+ * marks a callback which keeps no state besides the owner and the arguments
+ * <p>
+ * one instance of the class is reused for all results.
+ * the owner and the arguments are only set during the call to the callback
+ * and must not be used later, e.g. from a listener of a dialog
+ */
+public interface ReusableCallback {
+}
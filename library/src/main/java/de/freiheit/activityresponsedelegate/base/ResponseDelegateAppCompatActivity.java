@@ -4,15 +4,19 @@ import android.content.Intent;
 import android.os.Bundle;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
 import de.freiheit.activityresponsedelegate.ActivityResponseDelegate;
+import de.freiheit.activityresponsedelegate.ResponseDelegateOwner;
 
 /**
  * useful base class when using {@link ActivityResponseDelegate}
  *
  * Created by timfreiheit on 25.01.16.
  */
-public class ResponseDelegateAppCompatActivity extends AppCompatActivity {
+public class ResponseDelegateAppCompatActivity extends AppCompatActivity implements ResponseDelegateOwner {
+
+    private volatile ActivityResponseDelegate<?> responseDelegate;
 
     @Override
     protected void onActivityResult(int requestCode, int resultCode, Intent data) {
@@ -27,6 +31,19 @@ public class ResponseDelegateAppCompatActivity extends AppCompatActivity {
         ActivityResponseDelegate.from(this).onRequestPermissionsResult(requestCode, permissions, grantResults);
     }
 
+    @Override
+    protected void onResume() {
+        super.onResume();
+        ActivityResponseDelegate.from(this).onResume();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // cancels pending futures
+        ActivityResponseDelegate.from(this).onDestroy();
+    }
+
     @Override
     protected void onSaveInstanceState(Bundle outState) {
         super.onSaveInstanceState(outState);
@@ -41,4 +58,14 @@ public class ResponseDelegateAppCompatActivity extends AppCompatActivity {
         ActivityResponseDelegate.from(this).onRestoreInstanceState(savedInstanceState);
     }
 
+    @Nullable
+    @Override
+    public ActivityResponseDelegate<?> getResponseDelegate() {
+        return responseDelegate;
+    }
+
+    @Override
+    public void setResponseDelegate(@NonNull ActivityResponseDelegate<?> delegate) {
+        responseDelegate = delegate;
+    }
 }
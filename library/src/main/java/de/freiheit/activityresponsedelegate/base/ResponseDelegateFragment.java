@@ -4,15 +4,19 @@ import android.content.Intent;
 import android.os.Bundle;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.fragment.app.Fragment;
 import de.freiheit.activityresponsedelegate.ActivityResponseDelegate;
+import de.freiheit.activityresponsedelegate.ResponseDelegateOwner;
 
 /**
  * useful base class when using {@link ActivityResponseDelegate}
  *
  * Created by timfreiheit on 25.01.16.
  */
-public class ResponseDelegateFragment extends Fragment {
+public class ResponseDelegateFragment extends Fragment implements ResponseDelegateOwner {
+
+    private volatile ActivityResponseDelegate<?> responseDelegate;
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -33,10 +37,33 @@ public class ResponseDelegateFragment extends Fragment {
         ActivityResponseDelegate.from(this).onRequestPermissionsResult(requestCode, permissions, grantResults);
     }
 
+    @Override
+    public void onResume() {
+        super.onResume();
+        ActivityResponseDelegate.from(this).onResume();
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        // cancels pending futures
+        ActivityResponseDelegate.from(this).onDestroy();
+    }
+
     @Override
     public void onSaveInstanceState(Bundle outState) {
         super.onSaveInstanceState(outState);
         ActivityResponseDelegate.from(this).onSaveInstanceState(outState);
     }
 
+    @Nullable
+    @Override
+    public ActivityResponseDelegate<?> getResponseDelegate() {
+        return responseDelegate;
+    }
+
+    @Override
+    public void setResponseDelegate(@NonNull ActivityResponseDelegate<?> delegate) {
+        responseDelegate = delegate;
+    }
 }
@@ -0,0 +1,128 @@
+package de.freiheit.activityresponsedelegate.core;
+
+/**
+ * {@link RequestCodeAllocator} which keeps the used request codes of a range in a bitset
+ * <p>
+ * codes are handed out round robin so a released code is reused as late as possible
+ */
+public final class BitSetRequestCodeAllocator implements RequestCodeAllocator {
+
+    public static final Factory FACTORY = new Factory() {
+        @Override
+        public RequestCodeAllocator create(int first, int last) {
+            return new BitSetRequestCodeAllocator(first, last);
+        }
+    };
+
+    private final int first;
+    private final int size;
+    private final long[] used;
+    private final long[] reserved;
+    private int cursor = 0;
+    // codes which are used, reserved or both
+    private int takenCount = 0;
+
+    public BitSetRequestCodeAllocator(int first, int last) {
+        if (last < first) {
+            throw new IllegalArgumentException("empty range " + first + ".." + last);
+        }
+        this.first = first;
+        this.size = last - first + 1;
+        this.used = new long[(size + 63) >>> 6];
+        this.reserved = new long[used.length];
+    }
+
+    @Override
+    public int allocate() {
+        if (takenCount >= size) {
+            throw new IllegalStateException("all request codes are in use");
+        }
+        int index = findFree(cursor, size);
+        if (index < 0) {
+            index = findFree(0, cursor);
+        }
+        if (index < 0) {
+            throw new IllegalStateException("all request codes are in use");
+        }
+        set(used, index);
+        takenCount++;
+        cursor = index + 1 == size ? 0 : index + 1;
+        return first + index;
+    }
+
+    @Override
+    public void markUsed(int requestCode) {
+        int index = requestCode - first;
+        if (index >= 0 && index < size && !isSet(used, index)) {
+            set(used, index);
+            if (!isSet(reserved, index)) {
+                takenCount++;
+            }
+        }
+    }
+
+    @Override
+    public void release(int requestCode) {
+        int index = requestCode - first;
+        if (index >= 0 && index < size && isSet(used, index)) {
+            used[index >>> 6] &= ~(1L << index);
+            if (!isSet(reserved, index)) {
+                takenCount--;
+            }
+        }
+    }
+
+    @Override
+    public boolean isUsed(int requestCode) {
+        int index = requestCode - first;
+        return index >= 0 && index < size && (isSet(used, index) || isSet(reserved, index));
+    }
+
+    @Override
+    public void reserve(int first, int last) {
+        int from = Math.max(first - this.first, 0);
+        int to = Math.min(last - this.first, size - 1);
+        for (int index = from; index <= to; index++) {
+            if (!isSet(reserved, index)) {
+                set(reserved, index);
+                if (!isSet(used, index)) {
+                    takenCount++;
+                }
+            }
+        }
+    }
+
+    @Override
+    public int getCursor() {
+        return first + cursor;
+    }
+
+    @Override
+    public void setCursor(int cursor) {
+        int index = cursor - first;
+        this.cursor = index >= 0 && index < size ? index : 0;
+    }
+
+    // first free index in [from, to) or -1
+    private int findFree(int from, int to) {
+        int index = from;
+        while (index < to) {
+            int word = index >>> 6;
+            long free = ~(used[word] | reserved[word]) & (-1L << index);
+            if (free != 0) {
+                int found = (word << 6) + Long.numberOfTrailingZeros(free);
+                return found < to ? found : -1;
+            }
+            index = (word + 1) << 6;
+        }
+        return -1;
+    }
+
+    private static boolean isSet(long[] bits, int index) {
+        return (bits[index >>> 6] & (1L << index)) != 0;
+    }
+
+    private static void set(long[] bits, int index) {
+        bits[index >>> 6] |= 1L << index;
+    }
+}
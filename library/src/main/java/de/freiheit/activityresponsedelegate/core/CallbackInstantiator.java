@@ -0,0 +1,122 @@
+package de.freiheit.activityresponsedelegate.core;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * creates callback objects with the registered factories.
+ * classes which are unknown to all factories are created with reflection
+ * <p>
+ * instances of classes which extend the reusable type are cached after {@link #recycle(Object)}.
+ * an instance is taken out of the cache while it is in use,
+ * a nested call for the same class gets a new instance
+ */
+public final class CallbackInstantiator<C> {
+
+    public interface Factory<C> {
+
+        /**
+         * @return a new instance or null if the factory does not know the type
+         */
+        C newInstance(Class<?> type);
+    }
+
+    private final Factory<? extends C>[] factories;
+    private final Class<?> reusableType;
+    // one slot per class. the slot is empty while the instance is in use
+    private final ConcurrentHashMap<Class<?>, AtomicReference<C>> reusable = new ConcurrentHashMap<>();
+
+    public CallbackInstantiator(Factory<? extends C>[] factories) {
+        this(factories, null);
+    }
+
+    /**
+     * @param reusableType marker type of the reusable classes or null to create a new instance for every call
+     */
+    public CallbackInstantiator(Factory<? extends C>[] factories, Class<?> reusableType) {
+        this.factories = factories;
+        this.reusableType = reusableType;
+    }
+
+    /**
+     * @throws RuntimeException when the type can not be created
+     */
+    public C newInstance(Class<? extends C> type) {
+        for (Factory<? extends C> factory : factories) {
+            C instance = factory.newInstance(type);
+            if (instance != null) {
+                return instance;
+            }
+        }
+        // the class has not been processed by the compiler
+        try {
+            return type.getDeclaredConstructor().newInstance();
+        } catch (InvocationTargetException e) {
+            // thrown by the constructor
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        } catch (NoSuchMethodException e) {
+            throw new RuntimeException(type.getName() + " needs a constructor without parameters", e);
+        } catch (InstantiationException | IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return the cached instance of a reusable type or a new instance
+     * @throws RuntimeException when the type can not be created
+     */
+    public C obtain(Class<? extends C> type) {
+        if (isReusable(type)) {
+            AtomicReference<C> slot = reusable.get(type);
+            C instance = slot != null ? slot.getAndSet(null) : null;
+            if (instance != null) {
+                return instance;
+            }
+        }
+        return newInstance(type);
+    }
+
+    /**
+     * offers an instance from {@link #obtain(Class)} for the next call.
+     * the caller must not use it anymore
+     */
+    public void recycle(C instance) {
+        Class<?> type = instance.getClass();
+        if (isReusable(type)) {
+            AtomicReference<C> slot = reusable.get(type);
+            if (slot == null) {
+                AtomicReference<C> newSlot = new AtomicReference<>();
+                slot = reusable.putIfAbsent(type, newSlot);
+                if (slot == null) {
+                    slot = newSlot;
+                }
+            }
+            slot.compareAndSet(null, instance);
+        }
+    }
+
+    public boolean isReusable(Class<?> type) {
+        return reusableType != null && reusableType.isAssignableFrom(type);
+    }
+
+    /**
+     * @return number of cached instances
+     */
+    public int reusableCount() {
+        int count = 0;
+        for (AtomicReference<C> slot : reusable.values()) {
+            if (slot.get() != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
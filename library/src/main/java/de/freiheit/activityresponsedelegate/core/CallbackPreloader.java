@@ -0,0 +1,185 @@
+package de.freiheit.activityresponsedelegate.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * loads, initializes and instantiates callback classes once before their first result arrives.
+ * the first dispatch then finds a loaded class and a warm constructor
+ * <p>
+ * the time of every warm-up is measured on the preloading thread.
+ * the stats report it separately for the classes which a dispatch has taken
+ */
+public final class CallbackPreloader<C> {
+
+    private final Class<C> baseType;
+    private final CallbackInstantiator<C> instantiator;
+    private final ClassLoader classLoader;
+    private final ConcurrentHashMap<String, Preloaded> preloaded = new ConcurrentHashMap<>();
+
+    private final AtomicLong preloadedClasses = new AtomicLong();
+    private final AtomicLong preloadNanos = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong usedPreloadNanos = new AtomicLong();
+
+    public CallbackPreloader(Class<C> baseType, CallbackInstantiator<C> instantiator, ClassLoader classLoader) {
+        this.baseType = baseType;
+        this.instantiator = instantiator;
+        this.classLoader = classLoader;
+    }
+
+    /**
+     * preloads the classes with one task of the executor
+     */
+    public void preload(Collection<String> classNames, Executor executor) {
+        final List<String> names = new ArrayList<>(classNames.size());
+        for (String className : classNames) {
+            if (className != null && !preloaded.containsKey(className) && !names.contains(className)) {
+                names.add(className);
+            }
+        }
+        if (names.isEmpty()) {
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (String className : names) {
+                    preload(className);
+                }
+            }
+        });
+    }
+
+    /**
+     * preloads the class on the calling thread.
+     * unknown classes and classes which are no callbacks are ignored
+     */
+    public void preload(String className) {
+        if (preloaded.containsKey(className)) {
+            return;
+        }
+        long start = System.nanoTime();
+        Class<? extends C> type;
+        try {
+            Class<?> loaded = Class.forName(className, true, classLoader);
+            if (!baseType.isAssignableFrom(loaded)) {
+                return;
+            }
+            type = loaded.asSubclass(baseType);
+            C instance = instantiator.newInstance(type);
+            // the first result of a reusable class gets this instance
+            instantiator.recycle(instance);
+        } catch (ClassNotFoundException | RuntimeException | LinkageError e) {
+            // the class fails again on the main thread and the result is dropped there
+            return;
+        }
+        long nanos = System.nanoTime() - start;
+        if (preloaded.putIfAbsent(className, new Preloaded(type, nanos)) == null) {
+            preloadedClasses.incrementAndGet();
+            preloadNanos.addAndGet(nanos);
+        }
+    }
+
+    /**
+     * called on the first dispatch of a restored class
+     *
+     * @return the preloaded class or null when it has to be loaded by the caller
+     */
+    public Class<? extends C> take(String className) {
+        Preloaded entry = preloaded.get(className);
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        if (entry.taken.compareAndSet(false, true)) {
+            usedPreloadNanos.addAndGet(entry.nanos);
+        }
+        return entry.type;
+    }
+
+    public Stats getStats() {
+        return new Stats(preloadedClasses.get(), preloadNanos.get(), hits.get(), misses.get(), usedPreloadNanos.get());
+    }
+
+    private final class Preloaded {
+
+        final Class<? extends C> type;
+        final long nanos;
+        final AtomicBoolean taken = new AtomicBoolean();
+
+        Preloaded(Class<? extends C> type, long nanos) {
+            this.type = type;
+            this.nanos = nanos;
+        }
+    }
+
+    /**
+     * snapshot of the counters
+     */
+    public static final class Stats {
+
+        private final long preloadedClasses;
+        private final long preloadNanos;
+        private final long hits;
+        private final long misses;
+        private final long usedPreloadNanos;
+
+        Stats(long preloadedClasses, long preloadNanos, long hits, long misses, long usedPreloadNanos) {
+            this.preloadedClasses = preloadedClasses;
+            this.preloadNanos = preloadNanos;
+            this.hits = hits;
+            this.misses = misses;
+            this.usedPreloadNanos = usedPreloadNanos;
+        }
+
+        /**
+         * @return number of classes which have been loaded, initialized and instantiated
+         */
+        public long getPreloadedClasses() {
+            return preloadedClasses;
+        }
+
+        /**
+         * @return time spent on the preloading threads
+         */
+        public long getPreloadNanos() {
+            return preloadNanos;
+        }
+
+        /**
+         * @return dispatches of restored callbacks which found their class preloaded
+         */
+        public long getHits() {
+            return hits;
+        }
+
+        /**
+         * @return dispatches of restored callbacks which loaded their class on the main thread
+         */
+        public long getMisses() {
+            return misses;
+        }
+
+        /**
+         * @return time the preloading threads spent on the classes which have been taken by a dispatch,
+         * counted once per class. the dispatches did not load these classes themselves
+         */
+        public long getUsedPreloadNanos() {
+            return usedPreloadNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{preloadedClasses=" + preloadedClasses + ", preloadNanos=" + preloadNanos
+                    + ", hits=" + hits + ", misses=" + misses + ", usedPreloadNanos=" + usedPreloadNanos + "}";
+        }
+    }
+}
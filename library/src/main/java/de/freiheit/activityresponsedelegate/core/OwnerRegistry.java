@@ -0,0 +1,164 @@
+package de.freiheit.activityresponsedelegate.core;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * thread safe map from an owner to its value
+ * <p>
+ * owners are compared by identity and only weakly referenced.
+ * entries of collected owners are removed by the next call of any method,
+ * so at most the owners collected since the last call are still counted.
+ * lookups do not allocate
+ */
+public final class OwnerRegistry<V> {
+
+    private final ConcurrentHashMap<Object, V> map = new ConcurrentHashMap<>();
+    private final ReferenceQueue<Object> queue = new ReferenceQueue<>();
+
+    // reusable key per thread so that lookups do not need a new WeakReference
+    private final ThreadLocal<LookupKey> lookupKey = new ThreadLocal<LookupKey>() {
+        @Override
+        protected LookupKey initialValue() {
+            return new LookupKey();
+        }
+    };
+
+    /**
+     * @return the value registered for the owner or null
+     */
+    public V get(Object owner) {
+        // polling an empty queue does not lock
+        expungeStaleEntries();
+        if (owner == null) {
+            return null;
+        }
+        LookupKey key = lookupKey.get();
+        key.set(owner);
+        try {
+            return map.get(key);
+        } finally {
+            key.set(null);
+        }
+    }
+
+    /**
+     * registers the value for the owner if no other value has been registered before
+     *
+     * @return the value which is registered for the owner after this call
+     */
+    public V putIfAbsent(Object owner, V value) {
+        if (owner == null) {
+            throw new NullPointerException("owner == null");
+        }
+        expungeStaleEntries();
+        V existing = map.putIfAbsent(new WeakKey(owner, queue), value);
+        return existing != null ? existing : value;
+    }
+
+    /**
+     * @return the value which was registered for the owner or null
+     */
+    public V remove(Object owner) {
+        expungeStaleEntries();
+        if (owner == null) {
+            return null;
+        }
+        LookupKey key = lookupKey.get();
+        key.set(owner);
+        try {
+            return map.remove(key);
+        } finally {
+            key.set(null);
+        }
+    }
+
+    /**
+     * @return the number of registered owners including those which have been collected
+     * but not yet enqueued by the garbage collector
+     */
+    public int size() {
+        expungeStaleEntries();
+        return map.size();
+    }
+
+    public void clear() {
+        map.clear();
+        expungeStaleEntries();
+    }
+
+    private void expungeStaleEntries() {
+        Reference<?> reference;
+        while ((reference = queue.poll()) != null) {
+            map.remove(reference);
+        }
+    }
+
+    /**
+     * common base of both key types so that they are equal when they point to the same owner
+     */
+    private interface Key {
+        Object owner();
+    }
+
+    private static final class WeakKey extends WeakReference<Object> implements Key {
+
+        private final int hash;
+
+        WeakKey(Object owner, ReferenceQueue<Object> queue) {
+            super(owner, queue);
+            hash = System.identityHashCode(owner);
+        }
+
+        @Override
+        public Object owner() {
+            return get();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Object owner = get();
+            // a collected key is only equal to itself
+            return owner != null && owner == ((Key) o).owner();
+        }
+    }
+
+    private static final class LookupKey implements Key {
+
+        private Object owner;
+        private int hash;
+
+        void set(Object owner) {
+            this.owner = owner;
+            this.hash = owner == null ? 0 : System.identityHashCode(owner);
+        }
+
+        @Override
+        public Object owner() {
+            return owner;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && owner != null && owner == ((Key) o).owner();
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package de.freiheit.activityresponsedelegate.core;
+
+/**
+ * pending callbacks of a delegate by request code
+ * <p>
+ * the entries are kept in a {@link PendingTable}.
+ * the codes of all entries are marked as used in the attached {@link RequestCodeAllocator}
+ * <p>
+ * with {@link #enableGenerations(int, int)} every allocated code carries a generation in the bits
+ * above the allocated range. a result for an older request with the same allocated code
+ * then does not match the new entry and is detected with {@link #isStale(int)}
+ */
+public final class PendingCallbacks<V> {
+
+    private final PendingTable<V> table;
+
+    private RequestCodeAllocator allocator;
+    // used as cursor of the allocator once it is attached
+    private int cursor;
+    // changed by every put and remove
+    private int modCount;
+    // generation bits start at this bit, 0 when disabled
+    private int generationShift;
+    private int generationMask;
+    // last generation per allocated code
+    private byte[] generations;
+    private long oldestCreatedAt = Long.MIN_VALUE;
+
+    public PendingCallbacks(int initialCursor) {
+        this(initialCursor, 4);
+    }
+
+    public PendingCallbacks(int initialCursor, int capacity) {
+        cursor = initialCursor;
+        table = new PendingTable<>(capacity);
+    }
+
+    /**
+     * stamps the allocated codes with a generation.
+     * all codes above the allocated range are then owned by this table
+     *
+     * @param shift the first bit of the generation. all allocated codes must be below 1 &lt;&lt; shift
+     * @param bits  number of generation bits, at most 8
+     */
+    public void enableGenerations(int shift, int bits) {
+        if (bits <= 0) {
+            return;
+        }
+        if (bits > 8) {
+            throw new IllegalArgumentException("at most 8 generation bits are supported");
+        }
+        generationShift = shift;
+        generationMask = (1 << bits) - 1;
+        generations = new byte[1 << shift];
+    }
+
+    /**
+     * @return the allocated code without the generation
+     */
+    public int baseOf(int requestCode) {
+        return generations != null ? requestCode & ((1 << generationShift) - 1) : requestCode;
+    }
+
+    /**
+     * @return true when the request codes are already handled by an allocator
+     */
+    public boolean isAttached() {
+        return allocator != null;
+    }
+
+    /**
+     * takes over the request codes of all entries and the cursor
+     */
+    public void attach(RequestCodeAllocator allocator) {
+        allocator.setCursor(cursor);
+        for (int i = 0; i < table.size(); i++) {
+            allocator.markUsed(baseOf(table.keyAt(i)));
+        }
+        this.allocator = allocator;
+    }
+
+    /**
+     * @return a free request code. the table must be attached
+     */
+    public int allocate() {
+        int requestCode = allocator.allocate();
+        if (generations == null) {
+            return requestCode;
+        }
+        int generation = (generations[requestCode] + 1) & generationMask;
+        generations[requestCode] = (byte) generation;
+        return requestCode | generation << generationShift;
+    }
+
+    /**
+     * @return true when no entry has the request code
+     * but an entry has the same allocated code with another generation
+     */
+    public boolean isStale(int requestCode) {
+        if (generations == null || table.containsKey(requestCode)) {
+            return false;
+        }
+        int base = baseOf(requestCode);
+        for (int generation = 0; generation <= generationMask; generation++) {
+            if (table.containsKey(base | generation << generationShift)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int getCursor() {
+        return allocator != null ? allocator.getCursor() : cursor;
+    }
+
+    public V get(int requestCode) {
+        return table.get(requestCode);
+    }
+
+    public void put(int requestCode, V value) {
+        modCount++;
+        if (allocator != null) {
+            allocator.markUsed(baseOf(requestCode));
+        }
+        table.put(requestCode, value);
+    }
+
+    /**
+     * removes the entry and releases its request code
+     *
+     * @return the removed value or null
+     */
+    public V remove(int requestCode) {
+        V value = table.remove(requestCode);
+        if (value == null) {
+            return null;
+        }
+        modCount++;
+        if (allocator != null) {
+            allocator.release(baseOf(requestCode));
+        }
+        return value;
+    }
+
+    /**
+     * @return a time at or before the creation of every entry or {@link Long#MIN_VALUE} when it is unknown.
+     * the table does not know the creation times, the caller keeps the value up to date
+     */
+    public long getOldestCreatedAt() {
+        return oldestCreatedAt;
+    }
+
+    public void setOldestCreatedAt(long oldestCreatedAt) {
+        this.oldestCreatedAt = oldestCreatedAt;
+    }
+
+    /**
+     * @return a number which changes with every put and remove
+     */
+    public int getModCount() {
+        return modCount;
+    }
+
+    public int size() {
+        return table.size();
+    }
+
+    /**
+     * the order of the entries changes when an entry is removed.
+     * iterate backwards to remove entries while iterating
+     */
+    public int keyAt(int index) {
+        return table.keyAt(index);
+    }
+
+    public V valueAt(int index) {
+        return table.valueAt(index);
+    }
+}
@@ -0,0 +1,146 @@
+package de.freiheit.activityresponsedelegate.core;
+
+import java.util.Arrays;
+
+/**
+ * int keyed map with constant time lookup, insert and removal
+ * <p>
+ * the entries are kept in dense arrays which are iterated with {@link #keyAt(int)} and {@link #valueAt(int)}.
+ * an open addressed index with linear probing maps a key to its position.
+ * a removed entry is replaced by the last entry, so no array is shifted.
+ * the order of the entries is not sorted and changes with every removal
+ */
+public final class PendingTable<V> {
+
+    private int[] keys;
+    private Object[] values;
+    private int size;
+
+    // position + 1 of the entry, 0 marks a free slot. the length is a power of two
+    private int[] index;
+    private int indexShift;
+
+    public PendingTable(int capacity) {
+        int entries = Math.max(capacity, 1);
+        keys = new int[entries];
+        values = new Object[entries];
+        allocateIndex(entries);
+    }
+
+    public V get(int key) {
+        int slot = findSlot(key);
+        return slot >= 0 ? valueAt(index[slot] - 1) : null;
+    }
+
+    /**
+     * @return true when the table has an entry for the key
+     */
+    public boolean containsKey(int key) {
+        return findSlot(key) >= 0;
+    }
+
+    public void put(int key, V value) {
+        int slot = findSlot(key);
+        if (slot >= 0) {
+            values[index[slot] - 1] = value;
+            return;
+        }
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        keys[size] = key;
+        values[size] = value;
+        size++;
+        // at most half of the slots are used
+        if (size * 2 > index.length) {
+            allocateIndex(size);
+            for (int i = 0; i < size; i++) {
+                insertSlot(keys[i], i);
+            }
+        } else {
+            insertSlot(key, size - 1);
+        }
+    }
+
+    /**
+     * @return the removed value or null
+     */
+    public V remove(int key) {
+        int slot = findSlot(key);
+        if (slot < 0) {
+            return null;
+        }
+        int position = index[slot] - 1;
+        V value = valueAt(position);
+        deleteSlot(slot);
+
+        int last = size - 1;
+        if (position != last) {
+            // move the last entry into the gap
+            int lastSlot = findSlot(keys[last]);
+            keys[position] = keys[last];
+            values[position] = values[last];
+            index[lastSlot] = position + 1;
+        }
+        values[last] = null;
+        size = last;
+        return value;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int keyAt(int position) {
+        return keys[position];
+    }
+
+    @SuppressWarnings("unchecked")
+    public V valueAt(int position) {
+        return (V) values[position];
+    }
+
+    private void allocateIndex(int entries) {
+        int slots = Integer.highestOneBit(Math.max(entries, 2) * 2 - 1) << 1;
+        index = new int[slots];
+        indexShift = 32 - Integer.numberOfTrailingZeros(slots);
+    }
+
+    // fibonacci hashing spreads the sequential request codes over the slots
+    private int idealSlot(int key) {
+        return (key * 0x9E3779B9) >>> indexShift;
+    }
+
+    private int findSlot(int key) {
+        int mask = index.length - 1;
+        for (int slot = idealSlot(key); index[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[index[slot] - 1] == key) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private void insertSlot(int key, int position) {
+        int mask = index.length - 1;
+        int slot = idealSlot(key);
+        while (index[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        index[slot] = position + 1;
+    }
+
+    // moves the following entries of the probe sequence back so that no tombstone is needed
+    private void deleteSlot(int hole) {
+        int mask = index.length - 1;
+        for (int slot = (hole + 1) & mask; index[slot] != 0; slot = (slot + 1) & mask) {
+            int ideal = idealSlot(keys[index[slot] - 1]);
+            if (((slot - ideal) & mask) >= ((slot - hole) & mask)) {
+                index[hole] = index[slot];
+                hole = slot;
+            }
+        }
+        index[hole] = 0;
+    }
+}
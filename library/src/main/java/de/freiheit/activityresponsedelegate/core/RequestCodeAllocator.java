@@ -0,0 +1,48 @@
+package de.freiheit.activityresponsedelegate.core;
+
+/**
+ * hands out request codes which are not used by any pending request
+ * <p>
+ * implementations must not allocate memory in {@link #allocate()} and {@link #release(int)}
+ */
+public interface RequestCodeAllocator {
+
+    /**
+     * @return a free request code which is now in use
+     * @throws IllegalStateException when all request codes are in use
+     */
+    int allocate();
+
+    /**
+     * marks a request code which has been chosen by the caller as used
+     */
+    void markUsed(int requestCode);
+
+    /**
+     * makes the request code available again
+     */
+    void release(int requestCode);
+
+    boolean isUsed(int requestCode);
+
+    /**
+     * request codes in this range are never allocated
+     */
+    void reserve(int first, int last);
+
+    /**
+     * @return the position from which the next request code is searched
+     */
+    int getCursor();
+
+    void setCursor(int cursor);
+
+    interface Factory {
+
+        /**
+         * @param first the first request code which may be allocated
+         * @param last  the last request code which may be allocated
+         */
+        RequestCodeAllocator create(int first, int last);
+    }
+}
@@ -0,0 +1,69 @@
+package de.freiheit.activityresponsedelegate.core;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * keeps live objects in memory while their owner is recreated in the same process.
+ * only a token has to be saved instead of the serialized object
+ * <p>
+ * a token of a previous process is never found, the caller then has no retained value.
+ * values which are not taken within the timeout are dropped the next time a value is retained or taken
+ */
+public final class RetainedStates<V> {
+
+    private final long timeoutNanos;
+    private final Map<Long, Entry<V>> entries = new HashMap<>();
+    // starts at a different value in every process
+    private long nextToken = System.nanoTime();
+
+    public RetainedStates(long timeoutMillis) {
+        this.timeoutNanos = timeoutMillis * 1000000L;
+    }
+
+    /**
+     * @return the token to take the value again
+     */
+    public synchronized long retain(V value) {
+        long now = System.nanoTime();
+        removeExpired(now);
+        long token = nextToken++;
+        entries.put(token, new Entry<>(value, now));
+        return token;
+    }
+
+    /**
+     * @return the value of the token or null when it is unknown in this process or has expired
+     */
+    public synchronized V take(long token) {
+        removeExpired(System.nanoTime());
+        Entry<V> entry = entries.remove(token);
+        return entry != null ? entry.value : null;
+    }
+
+    private void removeExpired(long now) {
+        Iterator<Entry<V>> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            if (now - iterator.next().retainedAtNanos > timeoutNanos) {
+                // the owner has not been recreated
+                iterator.remove();
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private static final class Entry<V> {
+
+        final V value;
+        final long retainedAtNanos;
+
+        Entry(V value, long retainedAtNanos) {
+            this.value = value;
+            this.retainedAtNanos = retainedAtNanos;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package de.freiheit.activityresponsedelegate.core;
+
+/**
+ * keeps the last saved state of the tables of a delegate.
+ * the state is reused until a table is replaced, changed or its cursor moved
+ *
+ * @param <S> the saved state, including everything which is written for the entries
+ */
+public final class SnapshotCache<S> {
+
+    private final PendingCallbacks<?>[] tables = new PendingCallbacks<?>[StateCodec.TABLE_COUNT];
+    private final int[] modCounts = new int[StateCodec.TABLE_COUNT];
+    private final int[] cursors = new int[StateCodec.TABLE_COUNT];
+    private Object extra;
+    private S snapshot;
+
+    /**
+     * @param extra any other object the snapshot depends on, compared by identity
+     * @return the snapshot of the tables or null when it has to be saved again
+     */
+    public S get(PendingCallbacks<?> activityResults, PendingCallbacks<?> permissions, Object extra) {
+        if (snapshot == null || this.extra != extra
+                || !isUnchanged(StateCodec.TABLE_ACTIVITY_RESULT, activityResults)
+                || !isUnchanged(StateCodec.TABLE_PERMISSION, permissions)) {
+            return null;
+        }
+        return snapshot;
+    }
+
+    /**
+     * stores the snapshot saved from the current state of the tables
+     *
+     * @return the replaced snapshot or null
+     */
+    public S put(S snapshot, PendingCallbacks<?> activityResults, PendingCallbacks<?> permissions, Object extra) {
+        remember(StateCodec.TABLE_ACTIVITY_RESULT, activityResults);
+        remember(StateCodec.TABLE_PERMISSION, permissions);
+        this.extra = extra;
+        S replaced = this.snapshot;
+        this.snapshot = snapshot;
+        return replaced;
+    }
+
+    /**
+     * @return the removed snapshot or null
+     */
+    public S clear() {
+        for (int i = 0; i < tables.length; i++) {
+            tables[i] = null;
+        }
+        extra = null;
+        S removed = snapshot;
+        snapshot = null;
+        return removed;
+    }
+
+    private boolean isUnchanged(int table, PendingCallbacks<?> callbacks) {
+        return tables[table] == callbacks
+                && modCounts[table] == callbacks.getModCount()
+                && cursors[table] == callbacks.getCursor();
+    }
+
+    private void remember(int table, PendingCallbacks<?> callbacks) {
+        tables[table] = callbacks;
+        modCounts[table] = callbacks.getModCount();
+        cursors[table] = callbacks.getCursor();
+    }
+}
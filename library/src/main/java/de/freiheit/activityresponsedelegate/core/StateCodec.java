@@ -0,0 +1,295 @@
+package de.freiheit.activityresponsedelegate.core;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * compact binary format of the pending callbacks of a delegate
+ * <p>
+ * layout:
+ * <pre>
+ * version
+ * string count, strings (length, utf-8 bytes)
+ * for both tables: next request code, entry count, entries (request code, class index, flags)
+ * </pre>
+ * all numbers are written as unsigned varints. class names are only written once per snapshot.
+ */
+public final class StateCodec {
+
+    public static final int VERSION = 1;
+
+    public static final int TABLE_ACTIVITY_RESULT = 0;
+    public static final int TABLE_PERMISSION = 1;
+    static final int TABLE_COUNT = 2;
+
+    /**
+     * the entry has an arguments Bundle which is stored next to the encoded snapshot
+     */
+    public static final int FLAG_ARGUMENTS = 1;
+
+    /**
+     * the arguments of the entry are stored outside of the snapshot.
+     * only their handle is stored next to the encoded snapshot
+     */
+    public static final int FLAG_ARGUMENTS_HANDLE = 1 << 1;
+
+    /**
+     * the creation time of the entry is stored next to the encoded snapshot
+     */
+    public static final int FLAG_CREATED_AT = 1 << 2;
+
+    /**
+     * the class name of the entry is the key of an annotated result method of the owner
+     */
+    public static final int FLAG_RESULT_KEY = 1 << 3;
+
+    /**
+     * the entry belongs to a fragment of the owner.
+     * the key of the fragment is stored next to the encoded snapshot
+     */
+    public static final int FLAG_FRAGMENT_KEY = 1 << 4;
+
+    /**
+     * the entry is a duplicate which gets the result of another entry of the table.
+     * the request code of that entry is stored next to the encoded snapshot
+     */
+    public static final int FLAG_DUPLICATE = 1 << 5;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private StateCodec() {
+    }
+
+    /**
+     * describes the entries of a pending table for the encoder
+     */
+    public interface EntryAdapter<E> {
+
+        /**
+         * @return false when the entry is not part of the state
+         */
+        boolean isSaved(E entry);
+
+        /**
+         * @return the class name or the result key of the entry
+         */
+        String getName(E entry);
+
+        int getFlags(PendingCallbacks<? extends E> table, E entry);
+    }
+
+    public static final class Encoder {
+
+        private final Map<String, Integer> stringIndex = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+        private final ByteArray tables = new ByteArray(64);
+        private int nextTable = 0;
+        private int remainingEntries = 0;
+
+        /**
+         * tables must be started in order and every started table must get exactly size entries
+         */
+        public void beginTable(int table, int nextRequestCode, int size) {
+            if (table != nextTable || remainingEntries != 0) {
+                throw new IllegalStateException("table " + table + " started out of order");
+            }
+            nextTable++;
+            remainingEntries = size;
+            tables.writeVarInt(nextRequestCode);
+            tables.writeVarInt(size);
+        }
+
+        public void addEntry(int requestCode, String className, int flags) {
+            if (remainingEntries-- <= 0) {
+                throw new IllegalStateException("more entries than declared");
+            }
+            tables.writeVarInt(requestCode);
+            tables.writeVarInt(indexOf(className));
+            tables.writeVarInt(flags);
+        }
+
+        /**
+         * begins the table and adds its saved entries
+         */
+        public <E> void addTable(int table, PendingCallbacks<? extends E> callbacks, EntryAdapter<E> adapter) {
+            int size = callbacks.size();
+            int saved = 0;
+            for (int i = 0; i < size; i++) {
+                if (adapter.isSaved(callbacks.valueAt(i))) {
+                    saved++;
+                }
+            }
+            beginTable(table, callbacks.getCursor(), saved);
+            for (int i = 0; i < size; i++) {
+                E entry = callbacks.valueAt(i);
+                if (adapter.isSaved(entry)) {
+                    addEntry(callbacks.keyAt(i), adapter.getName(entry), adapter.getFlags(callbacks, entry));
+                }
+            }
+        }
+
+        public byte[] encode() {
+            if (nextTable != TABLE_COUNT || remainingEntries != 0) {
+                throw new IllegalStateException("incomplete snapshot");
+            }
+            ByteArray out = new ByteArray(tables.size() + 16 * strings.size() + 8);
+            out.writeVarInt(VERSION);
+            out.writeVarInt(strings.size());
+            for (String string : strings) {
+                byte[] bytes = string.getBytes(UTF_8);
+                out.writeVarInt(bytes.length);
+                out.write(bytes, 0, bytes.length);
+            }
+            out.write(tables.buffer, 0, tables.size());
+            return out.toByteArray();
+        }
+
+        // 0 is reserved for null
+        private int indexOf(String string) {
+            if (string == null) {
+                return 0;
+            }
+            Integer index = stringIndex.get(string);
+            if (index == null) {
+                strings.add(string);
+                index = strings.size();
+                stringIndex.put(string, index);
+            }
+            return index;
+        }
+    }
+
+    public static final class Decoder {
+
+        private final String[] strings;
+        private final int[] nextRequestCodes = new int[TABLE_COUNT];
+        // request code, class index, flags per entry
+        private final int[][] entries = new int[TABLE_COUNT][];
+
+        /**
+         * @throws IllegalArgumentException when the data is not a supported snapshot
+         */
+        public Decoder(byte[] data) {
+            Reader reader = new Reader(data);
+            int version = reader.readVarInt();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("unsupported version " + version);
+            }
+            strings = new String[reader.readVarInt() + 1];
+            for (int i = 1; i < strings.length; i++) {
+                int length = reader.readVarInt();
+                strings[i] = new String(data, reader.take(length), length, UTF_8);
+            }
+            for (int table = 0; table < TABLE_COUNT; table++) {
+                nextRequestCodes[table] = reader.readVarInt();
+                int[] tableEntries = new int[reader.readVarInt() * 3];
+                for (int i = 0; i < tableEntries.length; i++) {
+                    tableEntries[i] = reader.readVarInt();
+                }
+                entries[table] = tableEntries;
+            }
+        }
+
+        public int getNextRequestCode(int table) {
+            return nextRequestCodes[table];
+        }
+
+        public int size(int table) {
+            return entries[table].length / 3;
+        }
+
+        public int getRequestCode(int table, int index) {
+            return entries[table][index * 3];
+        }
+
+        public String getClassName(int table, int index) {
+            return strings[entries[table][index * 3 + 1]];
+        }
+
+        public int getFlags(int table, int index) {
+            return entries[table][index * 3 + 2];
+        }
+    }
+
+    static final class ByteArray {
+
+        byte[] buffer;
+        private int size;
+
+        ByteArray(int capacity) {
+            buffer = new byte[Math.max(capacity, 16)];
+        }
+
+        void writeVarInt(int value) {
+            ensureCapacity(5);
+            while ((value & ~0x7F) != 0) {
+                buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[size++] = (byte) value;
+        }
+
+        void write(byte[] bytes, int offset, int length) {
+            ensureCapacity(length);
+            System.arraycopy(bytes, offset, buffer, size, length);
+            size += length;
+        }
+
+        int size() {
+            return size;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, size);
+        }
+
+        private void ensureCapacity(int additional) {
+            if (size + additional > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + additional));
+            }
+        }
+    }
+
+    static final class Reader {
+
+        private final byte[] data;
+        private int position;
+
+        Reader(byte[] data) {
+            this.data = data;
+        }
+
+        int readVarInt() {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                if (position >= data.length) {
+                    throw new IllegalArgumentException("truncated snapshot");
+                }
+                byte b = data[position++];
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("malformed varint");
+        }
+
+        /**
+         * skips length bytes
+         *
+         * @return the position of the first skipped byte
+         */
+        int take(int length) {
+            if (length < 0 || position + length > data.length) {
+                throw new IllegalArgumentException("truncated snapshot");
+            }
+            int start = position;
+            position += length;
+            return start;
+        }
+    }
+}
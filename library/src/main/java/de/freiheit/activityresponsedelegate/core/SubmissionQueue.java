@@ -0,0 +1,56 @@
+package de.freiheit.activityresponsedelegate.core;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * collects items from any thread for a single consumer thread
+ * <p>
+ * only the first {@link #offer(Object)} after a drain asks the caller to schedule a drain,
+ * so one scheduled drain handles a whole batch of items.
+ * the items of one producer are drained in the order in which they have been offered
+ */
+public final class SubmissionQueue<E> {
+
+    public interface Consumer<E> {
+
+        void accept(E item);
+    }
+
+    private final ConcurrentLinkedQueue<E> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /**
+     * adds the item. can be called from any thread
+     *
+     * @return true when the caller must schedule a call of {@link #drain(Consumer)}
+     */
+    public boolean offer(E item) {
+        if (item == null) {
+            throw new NullPointerException("item must not be null");
+        }
+        queue.offer(item);
+        return scheduled.compareAndSet(false, true);
+    }
+
+    /**
+     * passes all items to the consumer. must be called from the consumer thread only
+     *
+     * @return the number of drained items
+     */
+    public int drain(Consumer<? super E> consumer) {
+        // items which are offered from now on schedule the next drain
+        scheduled.set(false);
+        int count = 0;
+        E item;
+        while ((item = queue.poll()) != null) {
+            consumer.accept(item);
+            count++;
+        }
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return queue.isEmpty();
+    }
+}
@@ -0,0 +1,37 @@
+package de.freiheit.activityresponsedelegate.core;
+
+/**
+ * receives the begin and end of the named sections around the operations of the delegate.
+ * sections are nested and always ended on the thread which began them
+ */
+public interface TraceSink {
+
+    // the creation of a delegate, lookups of existing delegates are not traced
+    String SECTION_FROM_RAW = "ActivityResponseDelegate.fromRaw";
+    String SECTION_SAVE = "ActivityResponseDelegate.save";
+    String SECTION_RESTORE = "ActivityResponseDelegate.restore";
+    String SECTION_NEW_CALLBACK = "ActivityResponseDelegate.newCallback";
+    String SECTION_CALLBACK = "ActivityResponseDelegate.callback";
+    String SECTION_PERMISSION_CHECK = "ActivityResponseDelegate.permissionCheck";
+    String SECTION_RATIONALE = "ActivityResponseDelegate.rationale";
+
+    /**
+     * ignores all sections
+     */
+    TraceSink NONE = new TraceSink() {
+        @Override
+        public void beginSection(String name) {
+        }
+
+        @Override
+        public void endSection() {
+        }
+    };
+
+    void beginSection(String name);
+
+    /**
+     * ends the last section which has been started on the calling thread
+     */
+    void endSection();
+}
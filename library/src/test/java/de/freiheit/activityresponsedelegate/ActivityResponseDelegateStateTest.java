@@ -0,0 +1,189 @@
+package de.freiheit.activityresponsedelegate;
+
+import android.app.Activity;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.os.Bundle;
+import android.os.Parcel;
+import android.util.SparseArray;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import androidx.annotation.NonNull;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * the pending callbacks survive the death of the process in the saved state of the owner.
+ * states of older versions of the library are read and saved again in the compact layout
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class ActivityResponseDelegateStateTest {
+
+    private static final String[] PERMISSIONS = {"de.freiheit.permission.CAMERA"};
+
+    public static class RecordingCallback extends ActivityResponseCallback<TestActivity> {
+
+        @Override
+        public void onActivityResult(int requestCode, int resultCode, Intent data) {
+            getOwner().results.add("activity result " + requestCode + " " + resultCode + " " + argument());
+        }
+
+        @Override
+        public void onAllGranted(int requestCode, @NonNull String[] permissions) {
+            getOwner().results.add("granted " + requestCode + " " + argument());
+        }
+
+        private String argument() {
+            return getArguments() != null ? getArguments().getString("argument") : null;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        TestActivity.interceptPermissionRequests();
+    }
+
+    @After
+    public void tearDown() {
+        TestActivity.stopInterceptingPermissionRequests();
+        ActivityResponseDelegate.setGlobalConfig(new ActivityResponseConfig.Builder().build());
+    }
+
+    @Test
+    public void restoresPendingCallbacksAfterProcessDeath() {
+        TestActivity activity = Robolectric.buildActivity(TestActivity.class).setup().get();
+        ActivityResponseDelegate<TestActivity> delegate = ActivityResponseDelegate.from(activity);
+        delegate.startActivityForResult(new Intent("pick"), RecordingCallback.class, arguments("pick"));
+        delegate.requestPermissions(PERMISSIONS, RecordingCallback.class, arguments("camera"));
+        int activityRequestCode = activity.lastActivityRequestCode();
+        int permissionRequestCode = activity.lastPermissionRequestCode();
+
+        Bundle state = new Bundle();
+        delegate.onSaveInstanceState(state);
+        TestActivity recreated = Robolectric.buildActivity(TestActivity.class).setup().get();
+        ActivityResponseDelegate<TestActivity> restored = ActivityResponseDelegate.from(recreated);
+        restored.onRestoreInstanceState(Parcels.roundTrip(state));
+        restored.onActivityResult(activityRequestCode, Activity.RESULT_OK, null);
+        restored.onRequestPermissionsResult(permissionRequestCode, PERMISSIONS, new int[]{PackageManager.PERMISSION_GRANTED});
+
+        assertEquals(Arrays.asList(
+                "activity result " + activityRequestCode + " -1 pick",
+                "granted " + permissionRequestCode + " camera"), recreated.results);
+        assertEquals(0, activity.results.size());
+    }
+
+    @Test
+    public void restoresLegacyLayoutAndSavesCompactLayout() {
+        // next activity result request code, next permission request code and both tables as SparseArray
+        SparseArray<Object> activityResults = new SparseArray<>();
+        activityResults.put(104, new CallbackHolder<TestActivity>(RecordingCallback.class, arguments("pick")));
+        SparseArray<Object> permissions = new SparseArray<>();
+        permissions.put(3, new CallbackHolder<TestActivity>(RecordingCallback.class, null));
+        Parcel parcel = Parcel.obtain();
+        parcel.writeInt(105);
+        parcel.writeInt(4);
+        parcel.writeSparseArray(activityResults);
+        parcel.writeSparseArray(permissions);
+        parcel.setDataPosition(0);
+        ActivityResponseDelegate<?> legacy = ActivityResponseDelegate.CREATOR.createFromParcel(parcel);
+        parcel.recycle();
+        Bundle legacyState = new Bundle();
+        legacyState.putParcelable(ActivityResponseDelegate.BUNDLE_KEY, legacy);
+
+        TestActivity activity = Robolectric.buildActivity(TestActivity.class).setup().get();
+        ActivityResponseDelegate<TestActivity> delegate = ActivityResponseDelegate.from(activity);
+        delegate.onRestoreInstanceState(legacyState);
+        Bundle state = new Bundle();
+        delegate.onSaveInstanceState(state);
+        TestActivity recreated = Robolectric.buildActivity(TestActivity.class).setup().get();
+        ActivityResponseDelegate<TestActivity> restored = ActivityResponseDelegate.from(recreated);
+        restored.onRestoreInstanceState(Parcels.roundTrip(state));
+        restored.onActivityResult(104, Activity.RESULT_CANCELED, null);
+        restored.onRequestPermissionsResult(3, PERMISSIONS, new int[]{PackageManager.PERMISSION_GRANTED});
+
+        assertEquals(Arrays.asList("activity result 104 0 pick", "granted 3 null"), recreated.results);
+        // the cursors of the legacy state are kept
+        restored.startActivityForResult(new Intent("pick"), RecordingCallback.class);
+        assertEquals(105, recreated.lastActivityRequestCode());
+    }
+
+    @Test
+    public void restoresParcelWhenProcessDiesAfterConfigurationChange() {
+        TestActivity activity = Robolectric.buildActivity(TestActivity.class).setup().get();
+        ActivityResponseDelegate<TestActivity> delegate = ActivityResponseDelegate.from(activity);
+        delegate.startActivityForResult(new Intent("pick"), RecordingCallback.class, arguments("pick"));
+        int requestCode = activity.lastActivityRequestCode();
+
+        activity.changingConfigurations = true;
+        Bundle state = new Bundle();
+        delegate.onSaveInstanceState(state);
+        // the state which the system keeps for the death of the process
+        Bundle parceled = Parcels.roundTrip(state);
+        TestActivity rotated = Robolectric.buildActivity(TestActivity.class).setup().get();
+        ActivityResponseDelegate.from(rotated).onRestoreInstanceState(state);
+        // the token of the parceled state is not known anymore
+        TestActivity recreated = Robolectric.buildActivity(TestActivity.class).setup().get();
+        ActivityResponseDelegate<TestActivity> restored = ActivityResponseDelegate.from(recreated);
+        restored.onRestoreInstanceState(parceled);
+        restored.onActivityResult(requestCode, Activity.RESULT_OK, null);
+
+        assertEquals(Collections.singletonList("activity result " + requestCode + " -1 pick"), recreated.results);
+    }
+
+    @Test
+    public void savesCachedStateAgainOnlyWhileUnchanged() {
+        ActivityResponseDelegate.setGlobalConfig(new ActivityResponseConfig.Builder().setEnableStateSnapshotCache(true).build());
+        TestActivity activity = Robolectric.buildActivity(TestActivity.class).setup().get();
+        ActivityResponseDelegate<TestActivity> delegate = ActivityResponseDelegate.from(activity);
+        delegate.startActivityForResult(new Intent("pick"), RecordingCallback.class, arguments("first"));
+        int first = activity.lastActivityRequestCode();
+        assertEquals(Collections.singletonList("activity result " + first + " -1 first"), restoreAndDeliver(delegate, first));
+        assertEquals(Collections.singletonList("activity result " + first + " -1 first"), restoreAndDeliver(delegate, first));
+
+        delegate.startActivityForResult(new Intent("pick"), RecordingCallback.class, arguments("second"));
+        int second = activity.lastActivityRequestCode();
+        assertEquals(Arrays.asList(
+                "activity result " + first + " -1 first",
+                "activity result " + second + " -1 second"), restoreAndDeliver(delegate, first, second));
+
+        delegate.onActivityResult(first, Activity.RESULT_OK, null);
+        assertEquals(Collections.singletonList("activity result " + second + " -1 second"),
+                restoreAndDeliver(delegate, first, second));
+    }
+
+    /**
+     * saves the delegate, restores it in a new activity and delivers results for the request codes
+     *
+     * @return the results of the new activity
+     */
+    private static List<String> restoreAndDeliver(ActivityResponseDelegate<TestActivity> delegate, int... requestCodes) {
+        Bundle state = new Bundle();
+        delegate.onSaveInstanceState(state);
+        Bundle parceled = Parcels.roundTrip(state);
+        TestActivity recreated = Robolectric.buildActivity(TestActivity.class).setup().get();
+        ActivityResponseDelegate<TestActivity> restored = ActivityResponseDelegate.from(recreated);
+        restored.onRestoreInstanceState(parceled);
+        for (int requestCode : requestCodes) {
+            restored.onActivityResult(requestCode, Activity.RESULT_OK, null);
+        }
+        return recreated.results;
+    }
+
+    private static Bundle arguments(String argument) {
+        Bundle arguments = new Bundle();
+        arguments.putString("argument", argument);
+        return arguments;
+    }
+}
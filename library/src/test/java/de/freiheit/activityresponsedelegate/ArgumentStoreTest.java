@@ -0,0 +1,91 @@
+package de.freiheit.activityresponsedelegate;
+
+import android.os.Bundle;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * big arguments are written into files during the save, old files are deleted on the executor
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class ArgumentStoreTest {
+
+    private static final long MAX_AGE_MILLIS = 60 * 1000;
+
+    private final List<Runnable> tasks = new ArrayList<>();
+    private final Executor executor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+    };
+    private final TestActivity activity = Robolectric.buildActivity(TestActivity.class).setup().get();
+
+    @Test
+    public void keepsSmallArgumentsInTheState() {
+        ArgumentStore store = new ArgumentStore(activity, 1024, MAX_AGE_MILLIS);
+        assertNull(store.offload(arguments(10)));
+    }
+
+    @Test
+    public void loadsOffloadedArguments() {
+        ArgumentStore store = new ArgumentStore(activity, 1024, MAX_AGE_MILLIS);
+        String handle = store.offload(arguments(4096));
+        assertNotNull(handle);
+
+        Bundle loaded = store.load(handle);
+        assertEquals(arguments(4096).getString("value"), loaded.getString("value"));
+        store.remove(handle);
+        assertNull(store.load(handle));
+    }
+
+    @Test
+    public void deletesOldFilesOnTheExecutorOnly() throws IOException {
+        ArgumentStore store = new ArgumentStore(activity, 1024, MAX_AGE_MILLIS);
+        String handle = store.offload(arguments(4096));
+        File directory = new File(activity.getFilesDir(), "activityresponsedelegate_arguments");
+        File old = new File(directory, "old");
+        assertTrue(old.createNewFile());
+        assertTrue(old.setLastModified(System.currentTimeMillis() - 2 * MAX_AGE_MILLIS));
+
+        new ActivityResponseConfig.Builder().setArgumentStore(store).setExecutor(executor).build();
+        // the save path never deletes files
+        store.offload(arguments(4096));
+        assertTrue(old.exists());
+        assertEquals(1, tasks.size());
+
+        tasks.get(0).run();
+        assertFalse(old.exists());
+        assertNotNull(store.load(handle));
+        // a second config with the same store does not scan again
+        new ActivityResponseConfig.Builder().setArgumentStore(store).setExecutor(executor).build();
+        assertEquals(1, tasks.size());
+    }
+
+    private static Bundle arguments(int length) {
+        StringBuilder value = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            value.append((char) ('a' + i % 26));
+        }
+        Bundle arguments = new Bundle();
+        arguments.putString("value", value.toString());
+        return arguments;
+    }
+}
@@ -0,0 +1,151 @@
+package de.freiheit.activityresponsedelegate;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.android.controller.ActivityController;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * the result is processed on the executor and delivered to the owner which exists when it is done
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class BackgroundActivityResponseCallbackTest {
+
+    public static class ActionCallback extends BackgroundActivityResponseCallback<TestActivity, String> {
+
+        @Nullable
+        @Override
+        public String process(@NonNull Context context, int requestCode, int resultCode, @Nullable Intent data) {
+            assertNull(getOwner());
+            return data.getAction();
+        }
+
+        @Override
+        public void deliver(int requestCode, @Nullable String result) {
+            getOwner().results.add("delivered " + result);
+        }
+    }
+
+    private final List<Runnable> tasks = new ArrayList<>();
+    private final TestListener listener = new TestListener();
+    private ActivityController<TestActivity> controller;
+    private TestActivity activity;
+
+    @Before
+    public void setUp() {
+        ActivityResponseDelegate.setGlobalConfig(new ActivityResponseConfig.Builder()
+                .setExecutor(new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        tasks.add(command);
+                    }
+                })
+                .setListener(listener)
+                .build());
+        controller = Robolectric.buildActivity(TestActivity.class).setup();
+        activity = controller.get();
+    }
+
+    @After
+    public void tearDown() {
+        ActivityResponseDelegate.setGlobalConfig(new ActivityResponseConfig.Builder().build());
+    }
+
+    @Test
+    public void deliversProcessedResultToOwner() {
+        int requestCode = startAndReceiveResult(activity);
+
+        runTasks();
+        assertEquals(Collections.singletonList("delivered processed"), activity.results);
+        assertEquals("dispatched 0 " + requestCode, lastEvent());
+    }
+
+    @Test
+    public void deliversToOwnerRecreatedDuringProcessing() {
+        startAndReceiveResult(activity);
+
+        activity.changingConfigurations = true;
+        Bundle state = new Bundle();
+        ActivityResponseDelegate.from(activity).onSaveInstanceState(state);
+        controller.pause().stop().destroy();
+        ActivityResponseDelegate.from(activity).onDestroy();
+        TestActivity recreated = Robolectric.buildActivity(TestActivity.class).setup().get();
+        ActivityResponseDelegate.from(recreated).onRestoreInstanceState(state);
+        runTasks();
+
+        assertEquals(Collections.singletonList("delivered processed"), recreated.results);
+        assertEquals(0, activity.results.size());
+    }
+
+    @Test
+    public void dropsResultOfFinishedOwner() {
+        int requestCode = startAndReceiveResult(activity);
+
+        activity.finish();
+        runTasks();
+        assertEquals(0, activity.results.size());
+        assertEquals("dropped 0 " + requestCode + " " + ActivityResponseListener.DROP_OWNER_DESTROYED, lastEvent());
+        // the pending callback has been removed
+        ActivityResponseDelegate.from(activity).onActivityResult(requestCode, Activity.RESULT_OK, new Intent("again"));
+        assertEquals(0, tasks.size());
+    }
+
+    @Test
+    public void resultProcessedInBackgroundIsNotSaved() {
+        int requestCode = startAndReceiveResult(activity);
+
+        Bundle state = new Bundle();
+        ActivityResponseDelegate.from(activity).onSaveInstanceState(state);
+        TestActivity restored = Robolectric.buildActivity(TestActivity.class).setup().get();
+        ActivityResponseDelegate.from(restored).onRestoreInstanceState(Parcels.roundTrip(state));
+        listener.events.clear();
+        ActivityResponseDelegate.from(restored).onActivityResult(requestCode, Activity.RESULT_OK, new Intent("again"));
+
+        // only the first result is processed
+        assertEquals(1, tasks.size());
+        assertEquals("dropped 0 " + requestCode + " " + ActivityResponseListener.DROP_UNKNOWN_REQUEST_CODE, lastEvent());
+    }
+
+    private int startAndReceiveResult(TestActivity owner) {
+        ActivityResponseDelegate<TestActivity> delegate = ActivityResponseDelegate.from(owner);
+        delegate.startActivityForResult(new Intent("pick"), ActionCallback.class);
+        int requestCode = owner.lastActivityRequestCode();
+        delegate.onActivityResult(requestCode, Activity.RESULT_OK, new Intent("processed"));
+        assertEquals(1, tasks.size());
+        return requestCode;
+    }
+
+    private void runTasks() {
+        for (Runnable task : tasks) {
+            task.run();
+        }
+        tasks.clear();
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+    }
+
+    private String lastEvent() {
+        return listener.events.get(listener.events.size() - 1);
+    }
+}
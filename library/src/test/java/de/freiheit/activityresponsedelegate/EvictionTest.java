@@ -0,0 +1,180 @@
+package de.freiheit.activityresponsedelegate;
+
+import android.app.Activity;
+import android.content.Intent;
+import android.os.Bundle;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * pending callbacks which are too old or too many are dropped when a request is started or the state is saved
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class EvictionTest {
+
+    private static final long MAX_AGE_MILLIS = 50;
+
+    public static class RecordingCallback extends ActivityResponseCallback<TestActivity> {
+
+        @Override
+        public void onActivityResult(int requestCode, int resultCode, Intent data) {
+            getOwner().results.add("activity result " + requestCode);
+        }
+    }
+
+    private final List<Runnable> tasks = new ArrayList<>();
+    private final Executor executor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+    };
+    private final TestListener listener = new TestListener();
+
+    @After
+    public void tearDown() {
+        ActivityResponseDelegate.setGlobalConfig(new ActivityResponseConfig.Builder().build());
+    }
+
+    @Test
+    public void dropsExpiredCallbacksOnNextRequest() throws InterruptedException {
+        TestActivity activity = createActivity(new ActivityResponseConfig.Builder().setMaxPendingCallbackAge(MAX_AGE_MILLIS));
+        ActivityResponseDelegate<TestActivity> delegate = ActivityResponseDelegate.from(activity);
+        delegate.startActivityForResult(new Intent("first"), RecordingCallback.class);
+        int first = activity.lastActivityRequestCode();
+        delegate.startActivityForResult(new Intent("second"), RecordingCallback.class);
+        int second = activity.lastActivityRequestCode();
+
+        Thread.sleep(2 * MAX_AGE_MILLIS);
+        delegate.startActivityForResult(new Intent("third"), RecordingCallback.class);
+        int third = activity.lastActivityRequestCode();
+
+        assertTrue(listener.events.contains(dropped(first)));
+        assertTrue(listener.events.contains(dropped(second)));
+        assertFalse(listener.events.contains(dropped(third)));
+        delegate.onActivityResult(first, Activity.RESULT_OK, null);
+        delegate.onActivityResult(third, Activity.RESULT_OK, null);
+        assertEquals(Collections.singletonList("activity result " + third), activity.results);
+    }
+
+    @Test
+    public void keepsYoungCallbacksWhenTheOldestIsDropped() throws InterruptedException {
+        TestActivity activity = createActivity(new ActivityResponseConfig.Builder().setMaxPendingCallbackAge(MAX_AGE_MILLIS));
+        ActivityResponseDelegate<TestActivity> delegate = ActivityResponseDelegate.from(activity);
+        delegate.startActivityForResult(new Intent("old"), RecordingCallback.class);
+        int old = activity.lastActivityRequestCode();
+        Thread.sleep(MAX_AGE_MILLIS / 2 + 10);
+        delegate.startActivityForResult(new Intent("young"), RecordingCallback.class);
+        int young = activity.lastActivityRequestCode();
+        Thread.sleep(MAX_AGE_MILLIS / 2 + 10);
+
+        // the old callback has expired, the young one has not
+        save(delegate);
+        assertTrue(listener.events.contains(dropped(old)));
+        assertFalse(listener.events.contains(dropped(young)));
+
+        Thread.sleep(MAX_AGE_MILLIS);
+        save(delegate);
+        assertTrue(listener.events.contains(dropped(young)));
+    }
+
+    @Test
+    public void dropsOldestCallbacksAboveMaxPending() throws InterruptedException {
+        TestActivity activity = createActivity(new ActivityResponseConfig.Builder().setMaxPendingCallbacks(2));
+        ActivityResponseDelegate<TestActivity> delegate = ActivityResponseDelegate.from(activity);
+        List<Integer> requestCodes = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            delegate.startActivityForResult(new Intent("pick"), RecordingCallback.class);
+            requestCodes.add(activity.lastActivityRequestCode());
+            // distinct creation times
+            Thread.sleep(2);
+        }
+
+        List<String> dropped = new ArrayList<>();
+        for (String event : listener.events) {
+            if (event.startsWith("dropped")) {
+                dropped.add(event);
+            }
+        }
+        assertEquals(Arrays.asList(dropped(requestCodes.get(0)), dropped(requestCodes.get(1))), dropped);
+        for (int requestCode : requestCodes) {
+            delegate.onActivityResult(requestCode, Activity.RESULT_OK, null);
+        }
+        assertEquals(Arrays.asList(
+                "activity result " + requestCodes.get(2),
+                "activity result " + requestCodes.get(3)), activity.results);
+    }
+
+    @Test
+    public void deletesOffloadedArgumentsOfDroppedCallback() throws InterruptedException {
+        TestActivity activity = Robolectric.buildActivity(TestActivity.class).setup().get();
+        ArgumentStore store = new ArgumentStore(activity, 1024, 60 * 1000);
+        activity = createActivity(new ActivityResponseConfig.Builder()
+                .setMaxPendingCallbackAge(MAX_AGE_MILLIS)
+                .setArgumentStore(store));
+        ActivityResponseDelegate<TestActivity> delegate = ActivityResponseDelegate.from(activity);
+        Bundle arguments = new Bundle();
+        arguments.putString("argument", new String(new char[4096]));
+        File directory = new File(activity.getFilesDir(), "activityresponsedelegate_arguments");
+        int files = fileCount(directory);
+        delegate.startActivityForResult(new Intent("pick"), RecordingCallback.class, arguments);
+        save(delegate);
+        assertEquals(files + 1, fileCount(directory));
+
+        Thread.sleep(2 * MAX_AGE_MILLIS);
+        save(delegate);
+        assertEquals(files, fileCount(directory));
+    }
+
+    @Test
+    public void cancelsFutureOfDroppedCallback() {
+        TestActivity activity = createActivity(new ActivityResponseConfig.Builder().setMaxPendingCallbacks(1));
+        ActivityResponseDelegate<TestActivity> delegate = ActivityResponseDelegate.from(activity);
+        ResponseFuture<ResponseFuture.ActivityResult> first = delegate.startActivityForResult(new Intent("first"));
+        ResponseFuture<ResponseFuture.ActivityResult> second = delegate.startActivityForResult(new Intent("second"));
+
+        assertTrue(first.isCancelled());
+        assertFalse(second.isDone());
+    }
+
+    /**
+     * the state is written when the bundle is parceled
+     */
+    private static void save(ActivityResponseDelegate<TestActivity> delegate) {
+        Bundle state = new Bundle();
+        delegate.onSaveInstanceState(state);
+        Parcels.roundTrip(state);
+    }
+
+    private TestActivity createActivity(ActivityResponseConfig.Builder config) {
+        ActivityResponseDelegate.setGlobalConfig(config.setExecutor(executor).setListener(listener).build());
+        return Robolectric.buildActivity(TestActivity.class).setup().get();
+    }
+
+    private static int fileCount(File directory) {
+        String[] names = directory.list();
+        return names != null ? names.length : 0;
+    }
+
+    private static String dropped(int requestCode) {
+        return "dropped " + ActivityResponseListener.TYPE_ACTIVITY_RESULT + " " + requestCode
+                + " " + ActivityResponseListener.DROP_EVICTED;
+    }
+}
@@ -0,0 +1,34 @@
+package de.freiheit.activityresponsedelegate;
+
+import android.os.Bundle;
+import android.os.Parcel;
+
+/**
+ * writes saved states into a parcel like the system does when the process dies
+ */
+final class Parcels {
+
+    private Parcels() {
+    }
+
+    /**
+     * @return a copy of the bundle which has been read from a parcel
+     */
+    static Bundle roundTrip(Bundle state) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeBundle(state);
+            byte[] data = parcel.marshall();
+            Parcel restored = Parcel.obtain();
+            try {
+                restored.unmarshall(data, 0, data.length);
+                restored.setDataPosition(0);
+                return restored.readBundle(Parcels.class.getClassLoader());
+            } finally {
+                restored.recycle();
+            }
+        } finally {
+            parcel.recycle();
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package de.freiheit.activityresponsedelegate;
+
+import android.app.Activity;
+import android.content.pm.PackageManager;
+import android.os.Bundle;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import androidx.annotation.NonNull;
+import androidx.fragment.app.Fragment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * the steps of the flow. a flow which waits for the user stays pending until it proceeds or is cancelled
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class PermissionFlowTest {
+
+    private static final String PERMISSION = "de.freiheit.permission.CAMERA";
+    private static final String[] PERMISSIONS = {PERMISSION};
+    private static final int[] GRANTED = {PackageManager.PERMISSION_GRANTED};
+    private static final int[] DENIED = {PackageManager.PERMISSION_DENIED};
+
+    /**
+     * waits in the rationale and the settings step until the test answers
+     */
+    public static class WaitingFlow extends PermissionFlow<TestActivity> {
+
+        static WaitingFlow waiting;
+
+        @Override
+        public void onGranted(@NonNull String[] permissions) {
+            getOwner().results.add("granted");
+        }
+
+        @Override
+        public void onDenied(@NonNull String[] missing) {
+            getOwner().results.add("denied " + Arrays.toString(missing));
+        }
+
+        @Override
+        public void onRationale(@NonNull String[] missing) {
+            getOwner().results.add("rationale");
+            waiting = this;
+        }
+
+        @Override
+        public void onPermanentlyDenied(@NonNull String[] missing) {
+            getOwner().results.add("permanently denied");
+            waiting = this;
+        }
+    }
+
+    /**
+     * a flow of a fragment which waits like {@link WaitingFlow}
+     */
+    public static class RoutedFlow extends PermissionFlow<Fragment> {
+
+        static RoutedFlow waiting;
+
+        @Override
+        public void onGranted(@NonNull String[] permissions) {
+            results().add("granted " + getOwner().getTag());
+        }
+
+        @Override
+        public void onDenied(@NonNull String[] missing) {
+            results().add("denied " + getOwner().getTag());
+        }
+
+        @Override
+        public void onRationale(@NonNull String[] missing) {
+            results().add("rationale " + getOwner().getTag());
+            waiting = this;
+        }
+
+        @Override
+        public void onPermanentlyDenied(@NonNull String[] missing) {
+            results().add("permanently denied " + getOwner().getTag());
+            waiting = this;
+        }
+
+        private List<String> results() {
+            return ((TestActivity) getOwner().getActivity()).results;
+        }
+    }
+
+    private final TestListener listener = new TestListener();
+    private TestActivity activity;
+    private ActivityResponseDelegate<TestActivity> delegate;
+
+    @Before
+    public void setUp() {
+        TestActivity.interceptPermissionRequests();
+        ActivityResponseDelegate.setGlobalConfig(new ActivityResponseConfig.Builder().setListener(listener).build());
+        WaitingFlow.waiting = null;
+        RoutedFlow.waiting = null;
+        activity = Robolectric.buildActivity(TestActivity.class).setup().get();
+        delegate = ActivityResponseDelegate.from(activity);
+    }
+
+    @After
+    public void tearDown() {
+        TestActivity.stopInterceptingPermissionRequests();
+        ActivityResponseDelegate.setGlobalConfig(new ActivityResponseConfig.Builder().build());
+    }
+
+    @Test
+    public void requestsAfterRationale() {
+        activity.rationalePermissions.add(PERMISSION);
+        PermissionFlow.start(delegate, PERMISSIONS, WaitingFlow.class, null);
+        assertEquals(PermissionFlow.STEP_RATIONALE, WaitingFlow.waiting.getStep());
+        assertTrue(activity.permissionRequestCodes.isEmpty());
+
+        WaitingFlow.waiting.proceed();
+        delegate.onRequestPermissionsResult(activity.lastPermissionRequestCode(), PERMISSIONS, GRANTED);
+
+        assertEquals(Arrays.asList("rationale", "granted"), activity.results);
+    }
+
+    @Test
+    public void cancelOfRationaleRemovesPendingRequest() {
+        activity.rationalePermissions.add(PERMISSION);
+        PermissionFlow.start(delegate, PERMISSIONS, WaitingFlow.class, null);
+        int requestCode = startedRequestCode();
+
+        WaitingFlow.waiting.cancel();
+        delegate.onRequestPermissionsResult(requestCode, PERMISSIONS, GRANTED);
+
+        assertEquals(Arrays.asList("rationale", "denied " + Arrays.toString(PERMISSIONS)), activity.results);
+        assertEquals(dropped(requestCode), lastEvent());
+    }
+
+    @Test
+    public void rationaleAfterDenialSurvivesProcessDeath() {
+        PermissionFlow.start(delegate, PERMISSIONS, WaitingFlow.class, null);
+        int requestCode = activity.lastPermissionRequestCode();
+        delegate.onRequestPermissionsResult(requestCode, PERMISSIONS, DENIED);
+        assertEquals(PermissionFlow.STEP_RATIONALE, WaitingFlow.waiting.getStep());
+
+        Bundle state = new Bundle();
+        delegate.onSaveInstanceState(state);
+        TestActivity recreated = Robolectric.buildActivity(TestActivity.class).setup().get();
+        ActivityResponseDelegate<TestActivity> restored = ActivityResponseDelegate.from(recreated);
+        restored.onRestoreInstanceState(Parcels.roundTrip(state));
+        // the second request of the flow
+        restored.onRequestPermissionsResult(requestCode, PERMISSIONS, GRANTED);
+
+        assertEquals(Collections.singletonList("granted"), recreated.results);
+    }
+
+    @Test
+    public void cancelOfRationaleAfterDenialRemovesPendingRequest() {
+        PermissionFlow.start(delegate, PERMISSIONS, WaitingFlow.class, null);
+        int requestCode = activity.lastPermissionRequestCode();
+        delegate.onRequestPermissionsResult(requestCode, PERMISSIONS, DENIED);
+
+        WaitingFlow.waiting.cancel();
+        delegate.onRequestPermissionsResult(requestCode, PERMISSIONS, GRANTED);
+
+        assertEquals(Arrays.asList("rationale", "denied " + Arrays.toString(PERMISSIONS)), activity.results);
+        assertEquals(dropped(requestCode), lastEvent());
+    }
+
+    @Test
+    public void requestsAgainAfterRationaleAndDeniesSecondDenial() {
+        PermissionFlow.start(delegate, PERMISSIONS, WaitingFlow.class, null);
+        int requestCode = activity.lastPermissionRequestCode();
+        delegate.onRequestPermissionsResult(requestCode, PERMISSIONS, DENIED);
+
+        WaitingFlow.waiting.proceed();
+        assertEquals(2, activity.permissionRequestCodes.size());
+        assertEquals(requestCode, activity.lastPermissionRequestCode());
+        delegate.onRequestPermissionsResult(requestCode, PERMISSIONS, DENIED);
+
+        assertEquals(Arrays.asList("rationale", "denied " + Arrays.toString(PERMISSIONS)), activity.results);
+    }
+
+    @Test
+    public void checksAgainAfterSettings() {
+        activity.rationalePermissions.add(PERMISSION);
+        PermissionFlow.start(delegate, PERMISSIONS, WaitingFlow.class, null);
+        WaitingFlow.waiting.proceed();
+        int requestCode = activity.lastPermissionRequestCode();
+        // "don't ask again" removes the rationale
+        activity.rationalePermissions.clear();
+        delegate.onRequestPermissionsResult(requestCode, PERMISSIONS, DENIED);
+        assertEquals(PermissionFlow.STEP_SETTINGS, WaitingFlow.waiting.getStep());
+
+        WaitingFlow.waiting.proceed();
+        // the settings replace the permission request
+        delegate.onRequestPermissionsResult(requestCode, PERMISSIONS, GRANTED);
+        assertEquals(dropped(requestCode), lastEvent());
+        activity.grantedPermissions.add(PERMISSION);
+        delegate.onActivityResult(activity.lastActivityRequestCode(), Activity.RESULT_CANCELED, null);
+
+        assertEquals(Arrays.asList("rationale", "permanently denied", "granted"), activity.results);
+    }
+
+    @Test
+    public void routedFlowRequestsAgainThroughActivity() {
+        Fragment fragment = addFragment("camera");
+        activity.rationalePermissions.add(PERMISSION);
+        PermissionFlow.start(FragmentResultRouter.of(fragment), PERMISSIONS, RoutedFlow.class, null);
+        int requestCode = startedRequestCode();
+        assertSame(fragment, RoutedFlow.waiting.getOwner());
+
+        RoutedFlow.waiting.proceed();
+        assertEquals(requestCode, activity.lastPermissionRequestCode());
+        delegate.onRequestPermissionsResult(requestCode, PERMISSIONS, GRANTED);
+
+        assertEquals(Arrays.asList("rationale camera", "granted camera"), activity.results);
+        assertNull(ActivityResponseDelegate.peek(fragment));
+        // nothing is left in the table of the activity
+        delegate.onRequestPermissionsResult(requestCode, PERMISSIONS, GRANTED);
+        assertEquals(dropped(requestCode), lastEvent());
+    }
+
+    @Test
+    public void routedFlowChecksAgainAfterSettings() {
+        Fragment fragment = addFragment("camera");
+        activity.rationalePermissions.add(PERMISSION);
+        PermissionFlow.start(FragmentResultRouter.of(fragment), PERMISSIONS, RoutedFlow.class, null);
+        RoutedFlow.waiting.proceed();
+        int requestCode = activity.lastPermissionRequestCode();
+        activity.rationalePermissions.clear();
+        delegate.onRequestPermissionsResult(requestCode, PERMISSIONS, DENIED);
+        assertEquals(PermissionFlow.STEP_SETTINGS, RoutedFlow.waiting.getStep());
+
+        RoutedFlow.waiting.proceed();
+        delegate.onRequestPermissionsResult(requestCode, PERMISSIONS, GRANTED);
+        assertEquals(dropped(requestCode), lastEvent());
+        activity.grantedPermissions.add(PERMISSION);
+        delegate.onActivityResult(activity.lastActivityRequestCode(), Activity.RESULT_CANCELED, null);
+
+        assertEquals(Arrays.asList("rationale camera", "permanently denied camera", "granted camera"), activity.results);
+        assertNull(ActivityResponseDelegate.peek(fragment));
+    }
+
+    @Test
+    public void cancelOfRoutedFlowRemovesPendingRequest() {
+        Fragment fragment = addFragment("camera");
+        activity.rationalePermissions.add(PERMISSION);
+        PermissionFlow.start(FragmentResultRouter.of(fragment), PERMISSIONS, RoutedFlow.class, null);
+        int requestCode = startedRequestCode();
+
+        RoutedFlow.waiting.cancel();
+        delegate.onRequestPermissionsResult(requestCode, PERMISSIONS, GRANTED);
+
+        assertEquals(Arrays.asList("rationale camera", "denied camera"), activity.results);
+        assertEquals(dropped(requestCode), lastEvent());
+        assertNull(ActivityResponseDelegate.peek(fragment));
+    }
+
+    private Fragment addFragment(String tag) {
+        Fragment fragment = new Fragment();
+        activity.getSupportFragmentManager().beginTransaction().add(fragment, tag).commitNow();
+        return fragment;
+    }
+
+    private int startedRequestCode() {
+        String started = listener.events.get(listener.events.size() - 1);
+        assertTrue(started, started.startsWith("started " + ActivityResponseListener.TYPE_PERMISSION + " "));
+        return Integer.parseInt(started.substring(started.lastIndexOf(' ') + 1));
+    }
+
+    private String lastEvent() {
+        return listener.events.get(listener.events.size() - 1);
+    }
+
+    private static String dropped(int requestCode) {
+        return "dropped " + ActivityResponseListener.TYPE_PERMISSION + " " + requestCode
+                + " " + ActivityResponseListener.DROP_UNKNOWN_REQUEST_CODE;
+    }
+}
@@ -0,0 +1,112 @@
+package de.freiheit.activityresponsedelegate;
+
+import android.content.pm.PackageManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import androidx.annotation.NonNull;
+import androidx.fragment.app.Fragment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * the requests of an activity and its fragments are merged into one system request
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class PermissionRequestCoalescerTest {
+
+    private static final String CAMERA = "de.freiheit.permission.CAMERA";
+    private static final String LOCATION = "de.freiheit.permission.LOCATION";
+
+    public static class TestFragment extends Fragment {
+    }
+
+    public static class ActivityCallback extends ActivityResponseCallback<TestActivity> {
+
+        @Override
+        public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
+            getOwner().results.add("activity " + Arrays.toString(permissions) + " " + Arrays.toString(grantResults));
+        }
+    }
+
+    public static class FragmentCallback extends ActivityResponseCallback<TestFragment> {
+
+        @Override
+        public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
+            ((TestActivity) getOwner().getActivity()).results.add("fragment " + Arrays.toString(permissions) + " " + Arrays.toString(grantResults));
+        }
+    }
+
+    private final TestListener listener = new TestListener();
+    private TestActivity activity;
+    private TestFragment fragment;
+
+    @Before
+    public void setUp() {
+        TestActivity.interceptPermissionRequests();
+        ActivityResponseDelegate.setGlobalConfig(new ActivityResponseConfig.Builder()
+                .setEnablePermissionCoalescing(true)
+                .setListener(listener)
+                .build());
+        activity = Robolectric.buildActivity(TestActivity.class).setup().get();
+        fragment = new TestFragment();
+        activity.getSupportFragmentManager().beginTransaction().add(fragment, "fragment").commitNow();
+    }
+
+    @After
+    public void tearDown() {
+        TestActivity.stopInterceptingPermissionRequests();
+        ActivityResponseDelegate.setGlobalConfig(new ActivityResponseConfig.Builder().build());
+    }
+
+    @Test
+    public void splitsResultOfMergedRequest() {
+        ActivityResponseDelegate.from(activity).requestPermissions(new String[]{CAMERA}, ActivityCallback.class);
+        ActivityResponseDelegate.from(fragment).requestPermissions(new String[]{CAMERA, LOCATION}, FragmentCallback.class);
+        assertEquals(0, activity.permissionRequestCodes.size());
+
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        assertEquals(1, activity.permissionRequestCodes.size());
+        int requestCode = activity.lastPermissionRequestCode();
+        assertTrue(requestCode >= PermissionRequestCoalescer.FIRST_REQUEST_CODE);
+        ActivityResponseDelegate.from(activity).onRequestPermissionsResult(requestCode, new String[]{CAMERA, LOCATION},
+                new int[]{PackageManager.PERMISSION_GRANTED, PackageManager.PERMISSION_DENIED});
+
+        assertEquals(Arrays.asList("activity [" + CAMERA + "] [0]", "fragment [" + CAMERA + ", " + LOCATION + "] [0, -1]"),
+                activity.results);
+    }
+
+    @Test
+    public void removesQueuedRequestsWhenTheActivityFinishes() {
+        ActivityResponseDelegate.from(activity).requestPermissions(new String[]{CAMERA}, ActivityCallback.class);
+        ActivityResponseDelegate.from(fragment).requestPermissions(new String[]{LOCATION}, FragmentCallback.class);
+        listener.events.clear();
+
+        activity.finish();
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        assertEquals(0, activity.permissionRequestCodes.size());
+        assertEquals(Arrays.asList(
+                "dropped 1 0 " + ActivityResponseListener.DROP_OWNER_DESTROYED,
+                "dropped 1 0 " + ActivityResponseListener.DROP_OWNER_DESTROYED), listener.events);
+
+        // nothing is pending anymore
+        listener.events.clear();
+        ActivityResponseDelegate.from(activity).onRequestPermissionsResult(0, new String[]{CAMERA},
+                new int[]{PackageManager.PERMISSION_GRANTED});
+        assertEquals(Collections.singletonList("dropped 1 0 " + ActivityResponseListener.DROP_UNKNOWN_REQUEST_CODE),
+                listener.events);
+        assertEquals(0, activity.results.size());
+    }
+}
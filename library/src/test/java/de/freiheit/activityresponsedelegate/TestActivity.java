@@ -0,0 +1,85 @@
+package de.freiheit.activityresponsedelegate;
+
+import android.app.Activity;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.os.Bundle;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import androidx.core.app.ActivityCompat;
+import androidx.fragment.app.FragmentActivity;
+
+/**
+ * activity of the tests on the jvm.
+ * keeps the requests which would be passed to the system and the results of the test callbacks
+ */
+public class TestActivity extends FragmentActivity {
+
+    private static final ActivityCompat.PermissionCompatDelegate PERMISSION_REQUESTS = new ActivityCompat.PermissionCompatDelegate() {
+        @Override
+        public boolean requestPermissions(Activity activity, String[] permissions, int requestCode) {
+            ((TestActivity) activity).permissionRequestCodes.add(requestCode);
+            return true;
+        }
+
+        @Override
+        public boolean onActivityResult(Activity activity, int requestCode, int resultCode, Intent data) {
+            return false;
+        }
+    };
+
+    /**
+     * keeps the permission requests of all test activities instead of asking the system
+     */
+    static void interceptPermissionRequests() {
+        ActivityCompat.setPermissionCompatDelegate(PERMISSION_REQUESTS);
+    }
+
+    static void stopInterceptingPermissionRequests() {
+        ActivityCompat.setPermissionCompatDelegate(null);
+    }
+
+    final List<String> results = new ArrayList<>();
+    final List<Integer> activityRequestCodes = new ArrayList<>();
+    final List<Integer> permissionRequestCodes = new ArrayList<>();
+    final Set<String> grantedPermissions = new HashSet<>();
+    final Set<String> rationalePermissions = new HashSet<>();
+    boolean changingConfigurations;
+
+    @Override
+    public void startActivityForResult(Intent intent, int requestCode) {
+        activityRequestCodes.add(requestCode);
+    }
+
+    @Override
+    public void startActivityForResult(Intent intent, int requestCode, Bundle options) {
+        activityRequestCodes.add(requestCode);
+    }
+
+    @Override
+    public boolean isChangingConfigurations() {
+        return changingConfigurations;
+    }
+
+    @Override
+    public int checkPermission(String permission, int pid, int uid) {
+        return grantedPermissions.contains(permission) ? PackageManager.PERMISSION_GRANTED : PackageManager.PERMISSION_DENIED;
+    }
+
+    @Override
+    public boolean shouldShowRequestPermissionRationale(String permission) {
+        return rationalePermissions.contains(permission);
+    }
+
+    int lastActivityRequestCode() {
+        return activityRequestCodes.get(activityRequestCodes.size() - 1);
+    }
+
+    int lastPermissionRequestCode() {
+        return permissionRequestCodes.get(permissionRequestCodes.size() - 1);
+    }
+}
@@ -0,0 +1,28 @@
+package de.freiheit.activityresponsedelegate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * keeps the events of the delegates as short strings
+ */
+class TestListener extends ActivityResponseListener {
+
+    final List<String> events = new ArrayList<>();
+
+    @Override
+    public void onRequestStarted(int type, int requestCode, Class<?> callbackClass, long startedAtNanos) {
+        events.add("started " + type + " " + requestCode);
+    }
+
+    @Override
+    public void onResultDispatched(int type, int requestCode, Class<?> callbackClass,
+                                   long startedAtNanos, long dispatchAtNanos, long finishedAtNanos) {
+        events.add("dispatched " + type + " " + requestCode);
+    }
+
+    @Override
+    public void onCallbackDropped(int type, int requestCode, Class<?> callbackClass, int reason, long droppedAtNanos) {
+        events.add("dropped " + type + " " + requestCode + " " + reason);
+    }
+}
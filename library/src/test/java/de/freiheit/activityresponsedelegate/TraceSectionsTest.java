@@ -0,0 +1,137 @@
+package de.freiheit.activityresponsedelegate;
+
+import android.app.Activity;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.os.Bundle;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import androidx.annotation.NonNull;
+import de.freiheit.activityresponsedelegate.core.RecordingTraceSink;
+import de.freiheit.activityresponsedelegate.core.TraceSink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * the names and the nesting of the sections around the operations of the delegate
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class TraceSectionsTest {
+
+    private static final String[] PERMISSIONS = {"de.freiheit.permission.CAMERA"};
+
+    public static class RecordingCallback extends ActivityResponseCallback<TestActivity> {
+
+        @Override
+        public void onActivityResult(int requestCode, int resultCode, Intent data) {
+            getOwner().results.add("activity result " + requestCode);
+        }
+
+        @Override
+        public void onAllGranted(int requestCode, @NonNull String[] permissions) {
+            getOwner().results.add("granted " + requestCode);
+        }
+    }
+
+    public static class RequestingCallback extends ActivityResponseCallback<TestActivity> {
+
+        @Override
+        public void onActivityResult(int requestCode, int resultCode, Intent data) {
+            ActivityResponseDelegate.from(getOwner()).requestPermissions(PERMISSIONS, RecordingCallback.class);
+        }
+    }
+
+    private final RecordingTraceSink trace = new RecordingTraceSink();
+
+    @Before
+    public void setUp() {
+        TestActivity.interceptPermissionRequests();
+        ActivityResponseDelegate.setGlobalConfig(new ActivityResponseConfig.Builder().setTraceSink(trace).build());
+    }
+
+    @After
+    public void tearDown() {
+        TestActivity.stopInterceptingPermissionRequests();
+        ActivityResponseDelegate.setGlobalConfig(new ActivityResponseConfig.Builder().build());
+    }
+
+    @Test
+    public void tracesOnlyTheCreationOfADelegate() {
+        TestActivity activity = Robolectric.buildActivity(TestActivity.class).setup().get();
+        trace.clear();
+
+        ActivityResponseDelegate<TestActivity> delegate = ActivityResponseDelegate.from(activity);
+        ActivityResponseDelegate.from(activity);
+        ActivityResponseDelegate.from(activity);
+
+        assertSame(delegate, ActivityResponseDelegate.from(activity));
+        assertEquals(Collections.singletonList(TraceSink.SECTION_FROM_RAW), trace.getNestedSections());
+    }
+
+    @Test
+    public void createsCallbackBeforeItsSection() {
+        TestActivity activity = Robolectric.buildActivity(TestActivity.class).setup().get();
+        ActivityResponseDelegate<TestActivity> delegate = ActivityResponseDelegate.from(activity);
+        delegate.startActivityForResult(new Intent("pick"), RecordingCallback.class);
+        delegate.requestPermissions(PERMISSIONS, RecordingCallback.class);
+        trace.clear();
+
+        delegate.onActivityResult(activity.lastActivityRequestCode(), Activity.RESULT_OK, null);
+        delegate.onRequestPermissionsResult(activity.lastPermissionRequestCode(), PERMISSIONS,
+                new int[]{PackageManager.PERMISSION_GRANTED});
+
+        assertEquals(Arrays.asList(
+                TraceSink.SECTION_NEW_CALLBACK,
+                TraceSink.SECTION_CALLBACK,
+                TraceSink.SECTION_NEW_CALLBACK,
+                TraceSink.SECTION_CALLBACK), trace.getNestedSections());
+        assertEquals(0, trace.getOpenSectionCount());
+    }
+
+    @Test
+    public void nestsRequestOfCallbackInItsSection() {
+        TestActivity activity = Robolectric.buildActivity(TestActivity.class).setup().get();
+        ActivityResponseDelegate<TestActivity> delegate = ActivityResponseDelegate.from(activity);
+        delegate.startActivityForResult(new Intent("pick"), RequestingCallback.class);
+        trace.clear();
+
+        delegate.onActivityResult(activity.lastActivityRequestCode(), Activity.RESULT_OK, null);
+
+        assertEquals(Arrays.asList(
+                TraceSink.SECTION_NEW_CALLBACK,
+                TraceSink.SECTION_CALLBACK,
+                "  " + TraceSink.SECTION_PERMISSION_CHECK,
+                "  " + TraceSink.SECTION_RATIONALE), trace.getNestedSections());
+        assertEquals(0, trace.getOpenSectionCount());
+    }
+
+    @Test
+    public void tracesSaveAndRestore() {
+        TestActivity activity = Robolectric.buildActivity(TestActivity.class).setup().get();
+        ActivityResponseDelegate<TestActivity> delegate = ActivityResponseDelegate.from(activity);
+        delegate.startActivityForResult(new Intent("pick"), RecordingCallback.class);
+        Bundle state = new Bundle();
+        delegate.onSaveInstanceState(state);
+        TestActivity recreated = Robolectric.buildActivity(TestActivity.class).setup().get();
+        ActivityResponseDelegate<TestActivity> restored = ActivityResponseDelegate.from(recreated);
+        trace.clear();
+
+        // the state is written when the bundle is parceled and read when it is accessed
+        restored.onRestoreInstanceState(Parcels.roundTrip(state));
+
+        assertEquals(Arrays.asList(TraceSink.SECTION_SAVE, TraceSink.SECTION_RESTORE), trace.getNestedSections());
+        assertEquals(0, trace.getOpenSectionCount());
+    }
+}
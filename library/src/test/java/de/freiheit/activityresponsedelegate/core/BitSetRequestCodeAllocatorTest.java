@@ -0,0 +1,161 @@
+package de.freiheit.activityresponsedelegate.core;
+
+import org.junit.Test;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * round robin allocation within a range, reserved codes and codes chosen by the caller
+ */
+public class BitSetRequestCodeAllocatorTest {
+
+    @Test
+    public void allocatesRoundRobinAndWrapsAround() {
+        BitSetRequestCodeAllocator allocator = new BitSetRequestCodeAllocator(100, 103);
+        assertEquals(100, allocator.allocate());
+        assertEquals(101, allocator.allocate());
+        allocator.release(100);
+        // a released code is reused as late as possible
+        assertEquals(102, allocator.allocate());
+        assertEquals(103, allocator.allocate());
+        assertEquals(100, allocator.getCursor());
+        assertEquals(100, allocator.allocate());
+        assertEquals(101, allocator.getCursor());
+    }
+
+    @Test
+    public void wrapsAroundAcrossWords() {
+        BitSetRequestCodeAllocator allocator = new BitSetRequestCodeAllocator(0, 199);
+        allocator.setCursor(190);
+        for (int requestCode = 190; requestCode < 200; requestCode++) {
+            assertEquals(requestCode, allocator.allocate());
+        }
+        assertEquals(0, allocator.allocate());
+        allocator.markUsed(1);
+        allocator.markUsed(64);
+        assertEquals(2, allocator.allocate());
+        allocator.setCursor(63);
+        assertEquals(63, allocator.allocate());
+        assertEquals(65, allocator.allocate());
+    }
+
+    @Test
+    public void neverAllocatesReservedCodes() {
+        BitSetRequestCodeAllocator allocator = new BitSetRequestCodeAllocator(0, 9);
+        allocator.reserve(2, 4);
+        // partly outside of the range
+        allocator.reserve(8, 20);
+        int[] expected = {0, 1, 5, 6, 7};
+        for (int requestCode : expected) {
+            assertEquals(requestCode, allocator.allocate());
+        }
+        assertTrue(allocator.isUsed(3));
+        assertTrue(allocator.isUsed(9));
+        assertExhausted(allocator);
+    }
+
+    @Test
+    public void markedCodesInReservedRangeDoNotExhaustTheRange() {
+        BitSetRequestCodeAllocator allocator = new BitSetRequestCodeAllocator(0, 3);
+        allocator.reserve(0, 1);
+        // restored entries and explicit request codes in the reserved range
+        allocator.markUsed(0);
+        allocator.markUsed(1);
+        assertEquals(2, allocator.allocate());
+        assertEquals(3, allocator.allocate());
+        assertExhausted(allocator);
+
+        allocator.release(1);
+        // still reserved
+        assertTrue(allocator.isUsed(1));
+        assertExhausted(allocator);
+        allocator.release(3);
+        assertEquals(3, allocator.allocate());
+    }
+
+    @Test
+    public void reservingUsedCodesKeepsCount() {
+        BitSetRequestCodeAllocator allocator = new BitSetRequestCodeAllocator(0, 3);
+        assertEquals(0, allocator.allocate());
+        allocator.reserve(0, 1);
+        allocator.release(0);
+        assertEquals(2, allocator.allocate());
+        assertEquals(3, allocator.allocate());
+        assertExhausted(allocator);
+    }
+
+    @Test
+    public void exhaustedRangeFailsUntilReleased() {
+        BitSetRequestCodeAllocator allocator = new BitSetRequestCodeAllocator(10, 12);
+        allocator.allocate();
+        allocator.allocate();
+        allocator.allocate();
+        assertExhausted(allocator);
+        // ignored
+        allocator.release(9);
+        allocator.release(13);
+        allocator.markUsed(13);
+        assertExhausted(allocator);
+        allocator.release(11);
+        assertFalse(allocator.isUsed(11));
+        assertEquals(11, allocator.allocate());
+    }
+
+    @Test
+    public void matchesBitSetWithRandomOperations() {
+        Random random = new Random(5);
+        int first = 100;
+        int size = 150;
+        BitSetRequestCodeAllocator allocator = new BitSetRequestCodeAllocator(first, first + size - 1);
+        BitSet used = new BitSet(size);
+        BitSet reserved = new BitSet(size);
+        for (int i = 0; i < 100000; i++) {
+            int index = random.nextInt(size);
+            switch (random.nextInt(8)) {
+                case 0:
+                    allocator.markUsed(first + index);
+                    used.set(index);
+                    break;
+                case 1:
+                case 2:
+                    allocator.release(first + index);
+                    used.clear(index);
+                    break;
+                case 3:
+                    if (random.nextInt(100) == 0) {
+                        int last = Math.min(index + random.nextInt(4), size - 1);
+                        allocator.reserve(first + index, first + last);
+                        reserved.set(index, last + 1);
+                    }
+                    break;
+                default:
+                    BitSet taken = (BitSet) used.clone();
+                    taken.or(reserved);
+                    if (taken.cardinality() == size) {
+                        assertExhausted(allocator);
+                    } else {
+                        int allocated = allocator.allocate() - first;
+                        assertFalse(taken.get(allocated));
+                        used.set(allocated);
+                    }
+                    break;
+            }
+            assertEquals(used.get(index) || reserved.get(index), allocator.isUsed(first + index));
+        }
+    }
+
+    private static void assertExhausted(RequestCodeAllocator allocator) {
+        try {
+            allocator.allocate();
+            fail("allocated a code of an exhausted range");
+        } catch (IllegalStateException expected) {
+            // all codes are in use
+        }
+    }
+}
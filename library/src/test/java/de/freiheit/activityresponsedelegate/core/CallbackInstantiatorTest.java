@@ -0,0 +1,118 @@
+package de.freiheit.activityresponsedelegate.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * factories, the reflective fallback and the slot of the reusable classes
+ */
+public class CallbackInstantiatorTest {
+
+    public static class Callback {
+    }
+
+    public interface Reusable {
+    }
+
+    public static class Plain extends Callback {
+    }
+
+    public static class Stateless extends Callback implements Reusable {
+    }
+
+    public static class Failing extends Callback {
+        public Failing() {
+            throw new IllegalArgumentException("constructor failed");
+        }
+    }
+
+    public static class WithParameter extends Callback {
+        public WithParameter(String parameter) {
+        }
+    }
+
+    private static final Plain FROM_FACTORY = new Plain();
+
+    @SuppressWarnings("unchecked")
+    private static CallbackInstantiator<Callback> newInstantiator(Class<?> reusableType) {
+        CallbackInstantiator.Factory<Callback> factory = new CallbackInstantiator.Factory<Callback>() {
+            @Override
+            public Callback newInstance(Class<?> type) {
+                return type == Plain.class ? FROM_FACTORY : null;
+            }
+        };
+        return new CallbackInstantiator<>(new CallbackInstantiator.Factory[]{factory}, reusableType);
+    }
+
+    @Test
+    public void prefersFactories() {
+        CallbackInstantiator<Callback> instantiator = newInstantiator(null);
+        assertSame(FROM_FACTORY, instantiator.newInstance(Plain.class));
+        assertEquals(Stateless.class, instantiator.newInstance(Stateless.class).getClass());
+    }
+
+    @Test
+    public void rethrowsExceptionOfConstructor() {
+        CallbackInstantiator<Callback> instantiator = newInstantiator(null);
+        try {
+            instantiator.newInstance(Failing.class);
+            fail("created a class whose constructor throws");
+        } catch (IllegalArgumentException e) {
+            assertEquals("constructor failed", e.getMessage());
+        }
+        try {
+            instantiator.newInstance(WithParameter.class);
+            fail("created a class without a constructor without parameters");
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof NoSuchMethodException);
+        }
+    }
+
+    @Test
+    public void reusesRecycledInstance() {
+        CallbackInstantiator<Callback> instantiator = newInstantiator(Reusable.class);
+        Callback first = instantiator.obtain(Stateless.class);
+        instantiator.recycle(first);
+        assertEquals(1, instantiator.reusableCount());
+
+        assertSame(first, instantiator.obtain(Stateless.class));
+        assertEquals(0, instantiator.reusableCount());
+    }
+
+    @Test
+    public void nestedObtainGetsNewInstance() {
+        CallbackInstantiator<Callback> instantiator = newInstantiator(Reusable.class);
+        Callback outer = instantiator.obtain(Stateless.class);
+        instantiator.recycle(outer);
+
+        Callback taken = instantiator.obtain(Stateless.class);
+        // a callback which starts a request whose result arrives synchronously
+        Callback nested = instantiator.obtain(Stateless.class);
+        assertSame(outer, taken);
+        assertNotSame(taken, nested);
+
+        instantiator.recycle(nested);
+        // the slot is full, the outer instance is dropped
+        instantiator.recycle(taken);
+        assertEquals(1, instantiator.reusableCount());
+        assertSame(nested, instantiator.obtain(Stateless.class));
+    }
+
+    @Test
+    public void createsNewInstancesOfOtherClasses() {
+        CallbackInstantiator<Callback> instantiator = newInstantiator(Reusable.class);
+        instantiator.recycle(new Plain());
+        assertEquals(0, instantiator.reusableCount());
+        assertNotSame(instantiator.obtain(Stateless.class), instantiator.obtain(Stateless.class));
+
+        CallbackInstantiator<Callback> withoutReuse = newInstantiator(null);
+        Callback stateless = withoutReuse.obtain(Stateless.class);
+        withoutReuse.recycle(stateless);
+        assertNotSame(stateless, withoutReuse.obtain(Stateless.class));
+    }
+}
@@ -0,0 +1,121 @@
+package de.freiheit.activityresponsedelegate.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * preloading restored callback classes by name and the stats of their first dispatch
+ */
+public class CallbackPreloaderTest {
+
+    public static class Callback {
+    }
+
+    public interface Reusable {
+    }
+
+    public static class Plain extends Callback {
+    }
+
+    public static class Stateless extends Callback implements Reusable {
+    }
+
+    public static class NoCallback {
+    }
+
+    private static final String PLAIN = Plain.class.getName();
+    private static final String STATELESS = Stateless.class.getName();
+
+    @SuppressWarnings("unchecked")
+    private final CallbackInstantiator<Callback> instantiator =
+            new CallbackInstantiator<>(new CallbackInstantiator.Factory[0], Reusable.class);
+    private final CallbackPreloader<Callback> preloader =
+            new CallbackPreloader<>(Callback.class, instantiator, CallbackPreloaderTest.class.getClassLoader());
+
+    @Test
+    public void takesPreloadedClass() {
+        preloader.preload(PLAIN);
+
+        assertSame(Plain.class, preloader.take(PLAIN));
+        CallbackPreloader.Stats stats = preloader.getStats();
+        assertEquals(1, stats.getPreloadedClasses());
+        assertEquals(1, stats.getHits());
+        assertEquals(0, stats.getMisses());
+        assertEquals(stats.getPreloadNanos(), stats.getUsedPreloadNanos());
+    }
+
+    @Test
+    public void countsUsedPreloadTimeOncePerClass() {
+        preloader.preload(PLAIN);
+        preloader.preload(STATELESS);
+
+        preloader.take(PLAIN);
+        long usedPreloadNanos = preloader.getStats().getUsedPreloadNanos();
+        preloader.take(PLAIN);
+
+        CallbackPreloader.Stats stats = preloader.getStats();
+        assertEquals(2, stats.getPreloadedClasses());
+        assertEquals(2, stats.getHits());
+        assertEquals(usedPreloadNanos, stats.getUsedPreloadNanos());
+        // the time of the class which has not been taken is not counted
+        assertTrue(stats.getUsedPreloadNanos() <= stats.getPreloadNanos());
+    }
+
+    @Test
+    public void missesClassesWhichHaveNotBeenPreloaded() {
+        assertNull(preloader.take(PLAIN));
+        preloader.preload("de.freiheit.DoesNotExist");
+        preloader.preload(NoCallback.class.getName());
+
+        assertNull(preloader.take("de.freiheit.DoesNotExist"));
+        assertNull(preloader.take(NoCallback.class.getName()));
+        CallbackPreloader.Stats stats = preloader.getStats();
+        assertEquals(0, stats.getPreloadedClasses());
+        assertEquals(0, stats.getHits());
+        assertEquals(3, stats.getMisses());
+        assertEquals(0, stats.getUsedPreloadNanos());
+    }
+
+    @Test
+    public void keepsInstanceOfReusableClass() {
+        preloader.preload(STATELESS);
+        preloader.preload(PLAIN);
+
+        assertEquals(1, instantiator.reusableCount());
+        Callback instance = instantiator.obtain(Stateless.class);
+        assertEquals(0, instantiator.reusableCount());
+        assertSame(Stateless.class, instance.getClass());
+    }
+
+    @Test
+    public void preloadsNewClassesWithOneTask() {
+        final List<Runnable> tasks = new ArrayList<>();
+        Executor executor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        };
+        preloader.preload(PLAIN);
+
+        preloader.preload(Arrays.asList(PLAIN, STATELESS, STATELESS, null), executor);
+        assertEquals(1, tasks.size());
+        assertNull(preloader.take(STATELESS));
+        tasks.get(0).run();
+        assertSame(Stateless.class, preloader.take(STATELESS));
+        assertEquals(2, preloader.getStats().getPreloadedClasses());
+
+        // everything is preloaded
+        preloader.preload(Arrays.asList(PLAIN, STATELESS), executor);
+        assertEquals(1, tasks.size());
+    }
+}
@@ -0,0 +1,98 @@
+package de.freiheit.activityresponsedelegate.core;
+
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * owners are compared by identity and do not stay reachable through the registry
+ */
+public class OwnerRegistryTest {
+
+    @Test
+    public void findsRegisteredOwner() {
+        OwnerRegistry<String> registry = new OwnerRegistry<>();
+        Object owner = new Object();
+        assertNull(registry.get(owner));
+        assertNull(registry.get(null));
+
+        assertEquals("delegate", registry.putIfAbsent(owner, "delegate"));
+
+        assertEquals("delegate", registry.get(owner));
+        assertNull(registry.get(new Object()));
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    public void keepsFirstValue() {
+        OwnerRegistry<String> registry = new OwnerRegistry<>();
+        Object owner = new Object();
+        String first = registry.putIfAbsent(owner, "first");
+        assertSame(first, registry.putIfAbsent(owner, "second"));
+        assertEquals("first", registry.get(owner));
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    public void comparesOwnersByIdentity() {
+        OwnerRegistry<String> registry = new OwnerRegistry<>();
+        Owner owner = new Owner();
+        Owner equalOwner = new Owner();
+        registry.putIfAbsent(owner, "owner");
+
+        assertNull(registry.get(equalOwner));
+        assertEquals("equal owner", registry.putIfAbsent(equalOwner, "equal owner"));
+        assertEquals("owner", registry.get(owner));
+        assertEquals(2, registry.size());
+
+        assertNull(registry.remove(new Owner()));
+        assertEquals("owner", registry.remove(owner));
+        assertNull(registry.get(owner));
+        assertEquals("equal owner", registry.get(equalOwner));
+    }
+
+    @Test
+    public void removesEntriesOfCollectedOwnersOnLookup() throws InterruptedException {
+        OwnerRegistry<String> registry = new OwnerRegistry<>();
+        Object survivor = new Object();
+        registry.putIfAbsent(survivor, "survivor");
+        WeakReference<Object> collected = register(registry);
+
+        for (int i = 0; i < 100 && registry.size() > 1; i++) {
+            System.gc();
+            Thread.sleep(10);
+            // no new owner is registered, the lookup removes the entry
+            assertEquals("survivor", registry.get(survivor));
+        }
+
+        assertNull(collected.get());
+        assertEquals(1, registry.size());
+        assertEquals("survivor", registry.get(survivor));
+    }
+
+    private static WeakReference<Object> register(OwnerRegistry<String> registry) {
+        Object owner = new Object();
+        registry.putIfAbsent(owner, "collected");
+        return new WeakReference<>(owner);
+    }
+
+    /**
+     * all instances are equal
+     */
+    private static final class Owner {
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Owner;
+        }
+
+        @Override
+        public int hashCode() {
+            return 1;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package de.freiheit.activityresponsedelegate.core;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * request codes with generations like the delegate uses them for the default activity result range
+ */
+public class PendingCallbacksTest {
+
+    private static final int FIRST = 100;
+    private static final int SHIFT = 12;
+    private static final int BITS = 4;
+
+    @Test
+    public void reusedCodeGetsNewGeneration() {
+        PendingCallbacks<String> callbacks = new PendingCallbacks<>(FIRST);
+        callbacks.enableGenerations(SHIFT, BITS);
+        // only one code, so it is reused by every request
+        callbacks.attach(new BitSetRequestCodeAllocator(FIRST, FIRST));
+
+        int evicted = callbacks.allocate();
+        callbacks.put(evicted, "evicted");
+        callbacks.remove(evicted);
+        int current = callbacks.allocate();
+        callbacks.put(current, "current");
+
+        assertEquals(FIRST, callbacks.baseOf(evicted));
+        assertEquals(FIRST, callbacks.baseOf(current));
+        assertNotEquals(evicted, current);
+        assertNull(callbacks.get(evicted));
+        assertTrue(callbacks.isStale(evicted));
+        assertFalse(callbacks.isStale(current));
+        assertFalse(callbacks.isStale(FIRST + 1));
+    }
+
+    @Test
+    public void generationsWrapWithinTheirBits() {
+        PendingCallbacks<String> callbacks = new PendingCallbacks<>(FIRST);
+        callbacks.enableGenerations(SHIFT, BITS);
+        callbacks.attach(new BitSetRequestCodeAllocator(FIRST, FIRST));
+
+        for (int i = 0; i < 3 << BITS; i++) {
+            int requestCode = callbacks.allocate();
+            assertEquals(FIRST, callbacks.baseOf(requestCode));
+            assertTrue(requestCode <= 0xFFFF);
+            callbacks.put(requestCode, "request " + i);
+            assertEquals("request " + i, callbacks.remove(requestCode));
+        }
+        assertEquals(0, callbacks.size());
+    }
+
+    @Test
+    public void withoutGenerationsCodesStayInRange() {
+        PendingCallbacks<String> callbacks = new PendingCallbacks<>(FIRST);
+        callbacks.attach(new BitSetRequestCodeAllocator(FIRST, FIRST));
+
+        int requestCode = callbacks.allocate();
+        callbacks.put(requestCode, "request");
+
+        assertEquals(FIRST, requestCode);
+        assertFalse(callbacks.isStale(requestCode | 1 << SHIFT));
+    }
+
+    @Test
+    public void restoredStampedCodesAreNotAllocatedAgain() {
+        PendingCallbacks<String> callbacks = new PendingCallbacks<>(FIRST);
+        callbacks.put(FIRST | 3 << SHIFT, "restored");
+        callbacks.enableGenerations(SHIFT, BITS);
+        callbacks.attach(new BitSetRequestCodeAllocator(FIRST, FIRST + 1));
+
+        int requestCode = callbacks.allocate();
+
+        assertEquals(FIRST + 1, callbacks.baseOf(requestCode));
+        assertEquals("restored", callbacks.get(FIRST | 3 << SHIFT));
+    }
+
+    @Test
+    public void randomRequestsMatchMap() {
+        Random random = new Random(4);
+        PendingCallbacks<Integer> callbacks = new PendingCallbacks<>(FIRST);
+        callbacks.enableGenerations(SHIFT, BITS);
+        callbacks.attach(new BitSetRequestCodeAllocator(FIRST, FIRST + 31));
+        Map<Integer, Integer> reference = new HashMap<>();
+        for (int i = 0; i < 100000; i++) {
+            if (reference.size() < 32 && random.nextBoolean()) {
+                int requestCode = callbacks.allocate();
+                for (Integer pending : reference.keySet()) {
+                    // a pending allocated code is never given out twice
+                    assertNotEquals(callbacks.baseOf(pending), callbacks.baseOf(requestCode));
+                }
+                callbacks.put(requestCode, i);
+                reference.put(requestCode, i);
+            } else if (!reference.isEmpty()) {
+                int index = random.nextInt(reference.size());
+                int requestCode = reference.keySet().toArray(new Integer[0])[index];
+                assertEquals(reference.remove(requestCode), callbacks.remove(requestCode));
+                assertNull(callbacks.get(requestCode));
+            }
+            assertEquals(reference.size(), callbacks.size());
+        }
+    }
+}
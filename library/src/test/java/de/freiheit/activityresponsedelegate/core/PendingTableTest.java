@@ -0,0 +1,100 @@
+package de.freiheit.activityresponsedelegate.core;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * random operations on the table are compared with a HashMap.
+ * the removals move entries back in the probe sequences and the last entry into the gap
+ */
+public class PendingTableTest {
+
+    private static final int OPERATIONS = 200000;
+
+    @Test
+    public void matchesMapWithDenseRequestCodes() {
+        verifyAgainstMap(new Random(1), 100, 64);
+    }
+
+    @Test
+    public void matchesMapWithStampedRequestCodes() {
+        Random random = new Random(2);
+        PendingTable<Integer> table = new PendingTable<>(1);
+        Map<Integer, Integer> reference = new HashMap<>();
+        for (int i = 0; i < OPERATIONS; i++) {
+            // the same allocated code with different generations
+            int key = 100 + random.nextInt(16) | random.nextInt(16) << 12;
+            apply(random, table, reference, key, i);
+        }
+    }
+
+    @Test
+    public void matchesMapWithCollidingKeys() {
+        Random random = new Random(3);
+        PendingTable<Integer> table = new PendingTable<>(1);
+        Map<Integer, Integer> reference = new HashMap<>();
+        for (int i = 0; i < OPERATIONS; i++) {
+            // multiples of a big power of two share the low bits
+            int key = random.nextInt(48) << 20;
+            apply(random, table, reference, key, i);
+        }
+    }
+
+    @Test
+    public void growsAndShrinks() {
+        PendingTable<Integer> table = new PendingTable<>(1);
+        for (int key = 0; key < 5000; key++) {
+            table.put(key, key);
+        }
+        for (int key = 0; key < 5000; key += 2) {
+            assertEquals(Integer.valueOf(key), table.remove(key));
+        }
+        assertEquals(2500, table.size());
+        for (int key = 0; key < 5000; key++) {
+            assertEquals(key % 2 == 0 ? null : Integer.valueOf(key), table.get(key));
+        }
+        assertNull(table.remove(0));
+    }
+
+    private static void verifyAgainstMap(Random random, int firstKey, int keys) {
+        PendingTable<Integer> table = new PendingTable<>(1);
+        Map<Integer, Integer> reference = new HashMap<>();
+        for (int i = 0; i < OPERATIONS; i++) {
+            apply(random, table, reference, firstKey + random.nextInt(keys), i);
+        }
+    }
+
+    private static void apply(Random random, PendingTable<Integer> table, Map<Integer, Integer> reference, int key, int value) {
+        switch (random.nextInt(3)) {
+            case 0:
+                table.put(key, value);
+                reference.put(key, value);
+                break;
+            case 1:
+                assertEquals(reference.remove(key), table.remove(key));
+                break;
+            default:
+                assertEquals(reference.get(key), table.get(key));
+                assertEquals(reference.containsKey(key), table.containsKey(key));
+                break;
+        }
+        assertEquals(reference.size(), table.size());
+        if (value % 1000 == 0) {
+            assertSameEntries(reference, table);
+        }
+    }
+
+    private static void assertSameEntries(Map<Integer, Integer> reference, PendingTable<Integer> table) {
+        Map<Integer, Integer> entries = new HashMap<>();
+        for (int i = 0; i < table.size(); i++) {
+            entries.put(table.keyAt(i), table.valueAt(i));
+        }
+        assertEquals(reference, entries);
+    }
+}
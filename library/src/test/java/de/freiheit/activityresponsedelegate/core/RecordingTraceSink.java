@@ -0,0 +1,97 @@
+package de.freiheit.activityresponsedelegate.core;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * keeps the names of all sections in the order in which they have been started.
+ * used to check the sections of the delegate in tests on the jvm
+ */
+public final class RecordingTraceSink implements TraceSink {
+
+    // the names indented by two spaces per open parent section
+    private final List<String> sections = new ArrayList<>();
+    private final ThreadLocal<ArrayDeque<String>> openSections = new ThreadLocal<ArrayDeque<String>>() {
+        @Override
+        protected ArrayDeque<String> initialValue() {
+            return new ArrayDeque<>();
+        }
+    };
+
+    @Override
+    public void beginSection(String name) {
+        ArrayDeque<String> open = openSections.get();
+        StringBuilder indented = new StringBuilder();
+        for (int i = 0; i < open.size(); i++) {
+            indented.append("  ");
+        }
+        indented.append(name);
+        open.push(name);
+        synchronized (sections) {
+            sections.add(indented.toString());
+        }
+    }
+
+    /**
+     * @throws IllegalStateException when the calling thread has no open section
+     */
+    @Override
+    public void endSection() {
+        if (openSections.get().poll() == null) {
+            throw new IllegalStateException("endSection without beginSection");
+        }
+    }
+
+    /**
+     * @return the names of all started sections
+     */
+    public List<String> getSections() {
+        List<String> names = new ArrayList<>();
+        synchronized (sections) {
+            for (String section : sections) {
+                names.add(section.trim());
+            }
+        }
+        return Collections.unmodifiableList(names);
+    }
+
+    /**
+     * @return the names of all started sections, indented by two spaces per parent section of the same thread
+     */
+    public List<String> getNestedSections() {
+        synchronized (sections) {
+            return Collections.unmodifiableList(new ArrayList<>(sections));
+        }
+    }
+
+    /**
+     * @return number of started sections with the name
+     */
+    public int count(String name) {
+        int count = 0;
+        synchronized (sections) {
+            for (String section : sections) {
+                if (section.trim().equals(name)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return number of sections of the calling thread which have not been ended
+     */
+    public int getOpenSectionCount() {
+        return openSections.get().size();
+    }
+
+    public void clear() {
+        synchronized (sections) {
+            sections.clear();
+        }
+        openSections.get().clear();
+    }
+}
@@ -0,0 +1,61 @@
+package de.freiheit.activityresponsedelegate.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * a retained value is taken once with its token until the timeout passes
+ */
+public class RetainedStatesTest {
+
+    private static final long TIMEOUT_MILLIS = 50;
+
+    @Test
+    public void takesValueOnce() {
+        RetainedStates<String> states = new RetainedStates<>(TIMEOUT_MILLIS);
+        long first = states.retain("first");
+        long second = states.retain("second");
+
+        assertEquals("second", states.take(second));
+        assertNull(states.take(second));
+        assertEquals("first", states.take(first));
+        assertEquals(0, states.size());
+    }
+
+    @Test
+    public void doesNotFindUnknownToken() {
+        RetainedStates<String> states = new RetainedStates<>(TIMEOUT_MILLIS);
+        long token = states.retain("value");
+
+        // a token of a previous process
+        assertNull(states.take(token + 1000));
+        assertEquals("value", states.take(token));
+    }
+
+    @Test
+    public void dropsExpiredValues() throws InterruptedException {
+        RetainedStates<String> states = new RetainedStates<>(TIMEOUT_MILLIS);
+        long expired = states.retain("expired");
+        Thread.sleep(2 * TIMEOUT_MILLIS);
+
+        assertNull(states.take(expired));
+        assertEquals(0, states.size());
+    }
+
+    @Test
+    public void dropsExpiredValuesOnRetainAndTake() throws InterruptedException {
+        RetainedStates<String> states = new RetainedStates<>(TIMEOUT_MILLIS);
+        states.retain("expired");
+        Thread.sleep(2 * TIMEOUT_MILLIS);
+        long token = states.retain("young");
+        assertEquals(1, states.size());
+
+        states.retain("expired");
+        Thread.sleep(2 * TIMEOUT_MILLIS);
+        // the owner of the other token is never recreated
+        assertNull(states.take(token + 1000));
+        assertEquals(0, states.size());
+    }
+}
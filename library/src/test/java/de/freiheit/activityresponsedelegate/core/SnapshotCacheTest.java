@@ -0,0 +1,90 @@
+package de.freiheit.activityresponsedelegate.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * a saved state is reused until a table is changed, replaced or its cursor moved
+ */
+public class SnapshotCacheTest {
+
+    private static final int FIRST = 100;
+
+    private final SnapshotCache<String> cache = new SnapshotCache<>();
+    private final Object extra = new Object();
+    private PendingCallbacks<String> activityResults;
+    private PendingCallbacks<String> permissions;
+
+    @Before
+    public void setUp() {
+        activityResults = new PendingCallbacks<>(FIRST);
+        activityResults.attach(new BitSetRequestCodeAllocator(FIRST, FIRST + 15));
+        activityResults.put(activityResults.allocate(), "pending");
+        permissions = new PendingCallbacks<>(0);
+        cache.put("saved", activityResults, permissions, extra);
+    }
+
+    @Test
+    public void reusesStateOfUnchangedTables() {
+        assertEquals("saved", cache.get(activityResults, permissions, extra));
+        assertEquals("saved", cache.get(activityResults, permissions, extra));
+    }
+
+    @Test
+    public void savesAgainAfterPut() {
+        activityResults.put(activityResults.allocate(), "started");
+
+        assertNull(cache.get(activityResults, permissions, extra));
+    }
+
+    @Test
+    public void savesAgainAfterRemove() {
+        // a finished or evicted request
+        activityResults.remove(activityResults.keyAt(0));
+
+        assertNull(cache.get(activityResults, permissions, extra));
+    }
+
+    @Test
+    public void savesAgainAfterPutOfSameRequestCode() {
+        // a waiting flow puts its holder again
+        permissions.put(7, "flow");
+        cache.put("saved", activityResults, permissions, extra);
+        permissions.put(7, "flow");
+
+        assertNull(cache.get(activityResults, permissions, extra));
+    }
+
+    @Test
+    public void savesAgainAfterCursorMoved() {
+        int requestCode = activityResults.allocate();
+        activityResults.put(requestCode, "started");
+        activityResults.remove(requestCode);
+        cache.put("saved", activityResults, permissions, extra);
+        // the next request code is taken without an entry
+        activityResults.allocate();
+
+        assertNull(cache.get(activityResults, permissions, extra));
+    }
+
+    @Test
+    public void savesAgainForOtherTableOrExtra() {
+        PendingCallbacks<String> restored = new PendingCallbacks<>(0);
+
+        assertNull(cache.get(activityResults, restored, extra));
+        cache.put("saved", activityResults, permissions, extra);
+        assertNull(cache.get(activityResults, permissions, new Object()));
+    }
+
+    @Test
+    public void returnsReplacedAndRemovedState() {
+        assertSame("saved", cache.put("next", activityResults, permissions, extra));
+        assertSame("next", cache.clear());
+        assertNull(cache.clear());
+        assertNull(cache.get(activityResults, permissions, extra));
+    }
+}
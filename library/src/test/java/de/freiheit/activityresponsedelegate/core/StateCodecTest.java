@@ -0,0 +1,130 @@
+package de.freiheit.activityresponsedelegate.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * the encoded snapshot is restored after process death, possibly by a newer version of the app
+ */
+public class StateCodecTest {
+
+    private static final int[] FLAGS = {
+            StateCodec.FLAG_ARGUMENTS,
+            StateCodec.FLAG_ARGUMENTS_HANDLE,
+            StateCodec.FLAG_CREATED_AT,
+            StateCodec.FLAG_RESULT_KEY,
+            StateCodec.FLAG_FRAGMENT_KEY,
+            StateCodec.FLAG_DUPLICATE};
+
+    private static final String[] NAMES = {
+            "de.freiheit.MainActivity$PickContactCallback",
+            "pickContact",
+            null,
+            "de.freiheit.MainActivity$ShowCameraCallback",
+            "kamera\u00fcberpr\u00fcfung \u2713"};
+
+    @Test
+    public void roundTripKeepsEveryFlagCombination() {
+        int combinations = 1 << FLAGS.length;
+        StateCodec.Encoder encoder = new StateCodec.Encoder();
+        encoder.beginTable(StateCodec.TABLE_ACTIVITY_RESULT, 0x0FFF, combinations);
+        for (int flags = 0; flags < combinations; flags++) {
+            encoder.addEntry(requestCode(flags), NAMES[flags % NAMES.length], flags);
+        }
+        encoder.beginTable(StateCodec.TABLE_PERMISSION, 3, FLAGS.length);
+        for (int i = 0; i < FLAGS.length; i++) {
+            encoder.addEntry(i, NAMES[(i + 1) % NAMES.length], FLAGS[i]);
+        }
+
+        StateCodec.Decoder decoder = new StateCodec.Decoder(encoder.encode());
+
+        assertEquals(0x0FFF, decoder.getNextRequestCode(StateCodec.TABLE_ACTIVITY_RESULT));
+        assertEquals(combinations, decoder.size(StateCodec.TABLE_ACTIVITY_RESULT));
+        for (int flags = 0; flags < combinations; flags++) {
+            assertEquals(requestCode(flags), decoder.getRequestCode(StateCodec.TABLE_ACTIVITY_RESULT, flags));
+            assertEquals(NAMES[flags % NAMES.length], decoder.getClassName(StateCodec.TABLE_ACTIVITY_RESULT, flags));
+            assertEquals(flags, decoder.getFlags(StateCodec.TABLE_ACTIVITY_RESULT, flags));
+        }
+        assertEquals(3, decoder.getNextRequestCode(StateCodec.TABLE_PERMISSION));
+        assertEquals(FLAGS.length, decoder.size(StateCodec.TABLE_PERMISSION));
+        for (int i = 0; i < FLAGS.length; i++) {
+            assertEquals(i, decoder.getRequestCode(StateCodec.TABLE_PERMISSION, i));
+            assertEquals(NAMES[(i + 1) % NAMES.length], decoder.getClassName(StateCodec.TABLE_PERMISSION, i));
+            assertEquals(FLAGS[i], decoder.getFlags(StateCodec.TABLE_PERMISSION, i));
+        }
+    }
+
+    // small codes, codes with generation bits and the largest codes need different varint lengths
+    private static int requestCode(int flags) {
+        switch (flags % 4) {
+            case 0:
+                return flags;
+            case 1:
+                return 100 + flags | (flags & 0xF) << 12;
+            case 2:
+                return 0xFF00 + flags;
+            default:
+                return Integer.MAX_VALUE - flags;
+        }
+    }
+
+    @Test
+    public void roundTripOfEmptyTables() {
+        StateCodec.Encoder encoder = new StateCodec.Encoder();
+        encoder.beginTable(StateCodec.TABLE_ACTIVITY_RESULT, 100, 0);
+        encoder.beginTable(StateCodec.TABLE_PERMISSION, 0, 0);
+
+        StateCodec.Decoder decoder = new StateCodec.Decoder(encoder.encode());
+
+        assertEquals(100, decoder.getNextRequestCode(StateCodec.TABLE_ACTIVITY_RESULT));
+        assertEquals(0, decoder.size(StateCodec.TABLE_ACTIVITY_RESULT));
+        assertEquals(0, decoder.getNextRequestCode(StateCodec.TABLE_PERMISSION));
+        assertEquals(0, decoder.size(StateCodec.TABLE_PERMISSION));
+    }
+
+    @Test
+    public void nullClassNameStaysNull() {
+        StateCodec.Encoder encoder = new StateCodec.Encoder();
+        encoder.beginTable(StateCodec.TABLE_ACTIVITY_RESULT, 100, 1);
+        encoder.addEntry(100, null, StateCodec.FLAG_CREATED_AT);
+        encoder.beginTable(StateCodec.TABLE_PERMISSION, 0, 0);
+
+        assertNull(new StateCodec.Decoder(encoder.encode()).getClassName(StateCodec.TABLE_ACTIVITY_RESULT, 0));
+    }
+
+    @Test
+    public void rejectsOtherVersions() {
+        StateCodec.Encoder encoder = new StateCodec.Encoder();
+        encoder.beginTable(StateCodec.TABLE_ACTIVITY_RESULT, 100, 0);
+        encoder.beginTable(StateCodec.TABLE_PERMISSION, 0, 0);
+        byte[] data = encoder.encode();
+        data[0] = (byte) (StateCodec.VERSION + 1);
+        try {
+            new StateCodec.Decoder(data);
+            fail("decoded a snapshot of another version");
+        } catch (IllegalArgumentException expected) {
+            // the delegate starts without pending callbacks
+        }
+    }
+
+    @Test
+    public void rejectsIncompleteSnapshots() {
+        StateCodec.Encoder encoder = new StateCodec.Encoder();
+        try {
+            encoder.beginTable(StateCodec.TABLE_PERMISSION, 0, 0);
+            fail("started the permission table first");
+        } catch (IllegalStateException expected) {
+            // tables are written in order
+        }
+        encoder.beginTable(StateCodec.TABLE_ACTIVITY_RESULT, 100, 1);
+        try {
+            encoder.encode();
+            fail("encoded a table without its entry");
+        } catch (IllegalStateException expected) {
+            // every declared entry must be added
+        }
+    }
+}
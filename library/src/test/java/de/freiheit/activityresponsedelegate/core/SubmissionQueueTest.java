@@ -0,0 +1,105 @@
+package de.freiheit.activityresponsedelegate.core;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * many producers submit to one queue which is drained by a single thread like the main looper
+ */
+public class SubmissionQueueTest {
+
+    private static final int PRODUCERS = 16;
+    private static final int ITEMS_PER_PRODUCER = 20000;
+
+    @Test
+    public void drainsEveryItemOnceInProducerOrder() throws Exception {
+        final SubmissionQueue<long[]> queue = new SubmissionQueue<>();
+        // stands in for the main looper
+        final ExecutorService looper = Executors.newSingleThreadExecutor();
+        final int[] lastItem = new int[PRODUCERS];
+        final AtomicInteger drained = new AtomicInteger();
+        final AtomicInteger outOfOrder = new AtomicInteger();
+        final AtomicInteger scheduledDrains = new AtomicInteger();
+
+        final SubmissionQueue.Consumer<long[]> consumer = new SubmissionQueue.Consumer<long[]>() {
+            @Override
+            public void accept(long[] item) {
+                int producer = (int) item[0];
+                int index = (int) item[1];
+                if (index != lastItem[producer] + 1) {
+                    outOfOrder.incrementAndGet();
+                }
+                lastItem[producer] = index;
+                drained.incrementAndGet();
+            }
+        };
+        final Runnable drain = new Runnable() {
+            @Override
+            public void run() {
+                queue.drain(consumer);
+            }
+        };
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(PRODUCERS);
+        for (int p = 0; p < PRODUCERS; p++) {
+            lastItem[p] = 0;
+            final int producer = p;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 1; i <= ITEMS_PER_PRODUCER; i++) {
+                            if (queue.offer(new long[]{producer, i})) {
+                                scheduledDrains.incrementAndGet();
+                                looper.execute(drain);
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        start.countDown();
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        looper.shutdown();
+        assertTrue(looper.awaitTermination(30, TimeUnit.SECONDS));
+
+        assertEquals(PRODUCERS * ITEMS_PER_PRODUCER, drained.get());
+        assertEquals(0, outOfOrder.get());
+        assertTrue(queue.isEmpty());
+        for (int p = 0; p < PRODUCERS; p++) {
+            assertEquals(ITEMS_PER_PRODUCER, lastItem[p]);
+        }
+        // the items are drained in batches
+        assertTrue(scheduledDrains.get() < PRODUCERS * ITEMS_PER_PRODUCER);
+    }
+
+    @Test
+    public void onlyFirstOfferSchedulesDrain() {
+        SubmissionQueue<String> queue = new SubmissionQueue<>();
+        assertTrue(queue.offer("a"));
+        assertEquals(false, queue.offer("b"));
+        final StringBuilder items = new StringBuilder();
+        assertEquals(2, queue.drain(new SubmissionQueue.Consumer<String>() {
+            @Override
+            public void accept(String item) {
+                items.append(item);
+            }
+        }));
+        assertEquals("ab", items.toString());
+        assertTrue(queue.offer("c"));
+    }
+}